@@ -0,0 +1,614 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+/**
+ * <p>
+ * A posting list in compressed form. The postings are split into blocks of
+ * BLOCK_SIZE postings, and each block is stored with frame-of-reference
+ * bit packing: each id as the difference to the first id of the block and
+ * each score as is, all ids of a block with the same number of bits (enough
+ * for the largest difference) and all scores of a block with the same number
+ * of bits (enough for the largest score). The ids of a block come first,
+ * then the scores. For typical lists, this needs 2-3 bytes per posting
+ * instead of 8.
+ * </p>
+ *
+ * <p>
+ * Since all numbers of a block have the same width, the i-th id or score of
+ * a block can be read directly, without decoding the ones before it. A skip
+ * table holds the first id, the last id, the offset and the widths of each
+ * block. The intersection methods use it to skip blocks without reading
+ * them. The galloping variant searches the blocks of the larger list in
+ * place, and a score is only read for a match.
+ * </p>
+ */
+public class CompressedPostingList {
+  /**
+   * The number of postings per block.
+   */
+  public static final int BLOCK_SIZE = 64;
+
+  /**
+   * The bit-packed blocks.
+   */
+  protected long[] data;
+
+  /**
+   * The first id of each block.
+   */
+  protected int[] blockFirstIds;
+
+  /**
+   * The last id of each block.
+   */
+  protected int[] blockLastIds;
+
+  /**
+   * The offset of each block in data (plus the offset behind the last block
+   * at the end).
+   */
+  protected int[] blockOffsets;
+
+  /**
+   * The number of bits per id of each block.
+   */
+  protected byte[] blockIdBits;
+
+  /**
+   * The number of bits per score of each block.
+   */
+  protected byte[] blockScoreBits;
+
+  /**
+   * The number of postings in this list.
+   */
+  protected int numPostings;
+
+  /**
+   * Creates the compressed form of the given posting list.
+   *
+   * @param list
+   *        The posting list to compress.
+   */
+  public CompressedPostingList(PostingListView list) {
+    this.numPostings = list.size();
+    int numBlocks = (numPostings + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    this.blockFirstIds = new int[numBlocks];
+    this.blockLastIds = new int[numBlocks];
+    this.blockOffsets = new int[numBlocks + 1];
+    this.blockIdBits = new byte[numBlocks];
+    this.blockScoreBits = new byte[numBlocks];
+
+    // Compute the widths and the offsets of the blocks first, so that data
+    // can be allocated with its final size.
+    long offset = 0;
+    for (int b = 0; b < numBlocks; b++) {
+      int start = b * BLOCK_SIZE;
+      int end = Math.min(start + BLOCK_SIZE, numPostings);
+      blockFirstIds[b] = list.getId(start);
+      blockLastIds[b] = list.getId(end - 1);
+      int scores = 0;
+      for (int i = start; i < end; i++) {
+        scores |= list.getScore(i);
+      }
+      blockIdBits[b] = (byte) bits(blockLastIds[b] - blockFirstIds[b]);
+      blockScoreBits[b] = (byte) bits(scores);
+      blockOffsets[b] = Math.toIntExact(offset);
+      // The first id of the block is in the skip table.
+      offset += numWords(end - start - 1, blockIdBits[b])
+          + numWords(end - start, blockScoreBits[b]);
+    }
+    blockOffsets[numBlocks] = Math.toIntExact(offset);
+
+    // One more long, so that unpack() can always read two.
+    this.data = new long[blockOffsets[numBlocks] + 1];
+    for (int b = 0; b < numBlocks; b++) {
+      int start = b * BLOCK_SIZE;
+      int end = Math.min(start + BLOCK_SIZE, numPostings);
+      for (int i = start + 1; i < end; i++) {
+        pack(blockOffsets[b], i - start - 1, blockIdBits[b],
+            list.getId(i) - blockFirstIds[b]);
+      }
+      int scoreOffset = scoreOffset(b);
+      for (int i = start; i < end; i++) {
+        pack(scoreOffset, i - start, blockScoreBits[b], list.getScore(i));
+      }
+    }
+  }
+
+  // ==========================================================================
+
+  /**
+   * Intersects the two given compressed lists. Uses the galloping variant if
+   * one list is much smaller than the other, and the zipper otherwise.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   *
+   * @return The intersection of the two lists.
+   */
+  public static PostingList intersect(CompressedPostingList l1,
+      CompressedPostingList l2) {
+    int k = Math.min(l1.size(), l2.size());
+    int n = Math.max(l1.size(), l2.size());
+    // The zipper unpacks (nearly) all blocks of both lists, galloping unpacks
+    // all blocks of the smaller list and searches at most k blocks of the
+    // larger one in place.
+    if (k * 8 < n) {
+      return intersectGalloping(l1, l2);
+    }
+    return intersectZipper(l1, l2);
+  }
+
+  /**
+   * Intersects the two given compressed lists with the zipper algorithm. A
+   * block is only unpacked if its id range overlaps with the id range of the
+   * current block of the other list.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   *
+   * @return The intersection of the two lists.
+   */
+  public static PostingList intersectZipper(CompressedPostingList l1,
+      CompressedPostingList l2) {
+    PostingList result = new PostingList();
+    result.reserve(Math.min(l1.size(), l2.size()));
+
+    BlockReader r1 = new BlockReader(l1);
+    BlockReader r2 = new BlockReader(l2);
+    int b1 = 0;
+    int b2 = 0;
+    int i1 = 0;
+    int i2 = 0;
+    while (b1 < l1.numBlocks() && b2 < l2.numBlocks()) {
+      // Skip the blocks that lie completely before the other block.
+      if (l1.blockLastIds[b1] < l2.blockFirstIds[b2]) {
+        b1++;
+        i1 = 0;
+        continue;
+      }
+      if (l2.blockLastIds[b2] < l1.blockFirstIds[b1]) {
+        b2++;
+        i2 = 0;
+        continue;
+      }
+
+      // The zipper of PostingList on the two blocks. The ids of a block end
+      // with the sentinel Integer.MAX_VALUE, so only the loop on l2 needs a
+      // check for the end of its block.
+      r1.load(b1);
+      r2.load(b2);
+      int[] ids1 = r1.ids;
+      int[] ids2 = r2.ids;
+      int size1 = r1.size;
+      int size2 = r2.size;
+      while (i1 < size1 && i2 < size2) {
+        while (ids1[i1] < ids2[i2]) {
+          i1++;
+        }
+        if (i1 == size1) {
+          break;
+        }
+        while (ids2[i2] < ids1[i1]) {
+          i2++;
+        }
+        if (i2 < size2 && ids1[i1] == ids2[i2]) {
+          result.addPosting(ids1[i1], l1.getScore(b1, i1)
+              + l2.getScore(b2, i2));
+          i1++;
+          i2++;
+        }
+      }
+      if (i1 == size1) {
+        b1++;
+        i1 = 0;
+      }
+      if (i2 == size2) {
+        b2++;
+        i2 = 0;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Intersects the two given compressed lists with galloping search. Each id
+   * of the smaller list is searched in the larger list, by galloping first
+   * through the skip table to find the block and then through the block. The
+   * blocks of the larger list are searched in place, without unpacking them.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   *
+   * @return The intersection of the two lists.
+   */
+  public static PostingList intersectGalloping(CompressedPostingList l1,
+      CompressedPostingList l2) {
+    // Swap to make sure l1 is smaller.
+    if (l1.size() > l2.size()) {
+      return intersectGalloping(l2, l1);
+    }
+
+    PostingList result = new PostingList();
+    result.reserve(l1.size());
+
+    BlockReader r1 = new BlockReader(l1);
+    int b2 = 0;
+    int i2 = 0;
+    for (int b1 = 0; b1 < l1.numBlocks(); b1++) {
+      // Skip the blocks of l1 that lie completely before the block of l2.
+      if (l1.blockLastIds[b1] < l2.blockFirstIds[b2]) {
+        continue;
+      }
+
+      r1.load(b1);
+      for (int i1 = 0; i1 < r1.size; i1++) {
+        int id = r1.ids[i1];
+        if (l2.blockLastIds[b2] < id) {
+          b2 = gallop(l2.blockLastIds, b2, l2.numBlocks(), id);
+          i2 = 0;
+          if (b2 == l2.numBlocks()) {
+            return result;
+          }
+        }
+        // Now blockLastIds[b2] >= id, so the id can only be in block b2.
+        if (id < l2.blockFirstIds[b2]) {
+          continue;
+        }
+        i2 = l2.seek(b2, i2, id);
+        if (l2.getId(b2, i2) == id) {
+          result.addPosting(id, l1.getScore(b1, i1) + l2.getScore(b2, i2));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Finds the first position in values[from..to) with a value >= key, by
+   * doubling the step size until such a value is found and then doing a
+   * binary search in the last step.
+   *
+   * @param values
+   *        The sorted values.
+   * @param from
+   *        The position to start the search from.
+   * @param to
+   *        The end of the range to search.
+   * @param key
+   *        The value to search for.
+   *
+   * @return The position, or to if all values are < key.
+   */
+  protected static int gallop(int[] values, int from, int to, int key) {
+    int lb = from;
+    int ub = from;
+    int jump = 1;
+    while (ub < to && values[ub] < key) {
+      lb = ub + 1;
+      ub = Math.min(ub + jump, to);
+      jump = 2 * jump;
+    }
+    while (lb < ub) {
+      int mb = (lb + ub) >>> 1;
+      if (values[mb] < key) {
+        lb = mb + 1;
+      } else {
+        ub = mb;
+      }
+    }
+    return lb;
+  }
+
+  /**
+   * Finds the first position >= from in the given block with an id >= key,
+   * by a binary search directly on the packed block. The key must be <= the
+   * last id of the block and > the id at position from - 1.
+   *
+   * @param b
+   *        The index of the block.
+   * @param from
+   *        The position to start the search from.
+   * @param key
+   *        The id to search for.
+   *
+   * @return The position.
+   */
+  protected int seek(int b, int from, int key) {
+    // Search the differences to the first id, position i is at i - 1.
+    int offset = blockOffsets[b];
+    int bits = blockIdBits[b];
+    int diff = key - blockFirstIds[b];
+    if (diff <= 0) {
+      return from;
+    }
+    // A block is small, a binary search needs at most log(BLOCK_SIZE) steps.
+    int lb = Math.max(from, 1);
+    int ub = blockSize(b) - 1;
+    while (lb < ub) {
+      int mb = (lb + ub) >>> 1;
+      if (unpack(offset, mb - 1, bits) < diff) {
+        lb = mb + 1;
+      } else {
+        ub = mb;
+      }
+    }
+    return lb;
+  }
+
+  // ==========================================================================
+
+  /**
+   * Returns the i-th id of the given block.
+   *
+   * @param b
+   *        The index of the block.
+   * @param i
+   *        The index of the posting in the block.
+   *
+   * @return The id.
+   */
+  public int getId(int b, int i) {
+    if (i == 0) {
+      return blockFirstIds[b];
+    }
+    return blockFirstIds[b] + unpack(blockOffsets[b], i - 1, blockIdBits[b]);
+  }
+
+  /**
+   * Returns the i-th score of the given block.
+   *
+   * @param b
+   *        The index of the block.
+   * @param i
+   *        The index of the posting in the block.
+   *
+   * @return The score.
+   */
+  public int getScore(int b, int i) {
+    return unpack(scoreOffset(b), i, blockScoreBits[b]);
+  }
+
+  /**
+   * Unpacks all ids of the given block.
+   *
+   * @param b
+   *        The index of the block.
+   * @param ids
+   *        The array to write the ids to.
+   */
+  protected void unpackIds(int b, int[] ids) {
+    long[] data = this.data;
+    int bits = blockIdBits[b];
+    long mask = (1L << bits) - 1;
+    int first = blockFirstIds[b];
+    int size = blockSize(b);
+    ids[0] = first;
+    // Read the longs one after the other, buffer holds the bits not read yet
+    // of the current one.
+    int word = blockOffsets[b];
+    long buffer = data[word];
+    int available = 64;
+    for (int i = 1; i < size; i++) {
+      long value;
+      if (available >= bits) {
+        value = buffer;
+        buffer >>>= bits;
+        available -= bits;
+      } else {
+        long next = data[++word];
+        value = buffer | next << available;
+        buffer = next >>> bits - available;
+        available += 64 - bits;
+      }
+      ids[i] = first + (int) (value & mask);
+    }
+  }
+
+  /**
+   * Reads the i-th number of the given width from data.
+   *
+   * @param offset
+   *        The offset in data of the first number.
+   * @param i
+   *        The index of the number.
+   * @param bits
+   *        The number of bits per number (<= 32).
+   *
+   * @return The number.
+   */
+  protected int unpack(int offset, int i, int bits) {
+    int bit = i * bits;
+    int word = offset + (bit >>> 6);
+    int shift = bit & 63;
+    long value = data[word] >>> shift | data[word + 1] << 1 << 63 - shift;
+    return (int) (value & ((1L << bits) - 1));
+  }
+
+  /**
+   * Writes the i-th number of the given width to data (in which the bits of
+   * the number must still be 0).
+   *
+   * @param offset
+   *        The offset in data of the first number.
+   * @param i
+   *        The index of the number.
+   * @param bits
+   *        The number of bits per number (<= 32).
+   * @param value
+   *        The number (treated as unsigned).
+   */
+  protected void pack(int offset, int i, int bits, int value) {
+    int bit = i * bits;
+    int word = offset + (bit >>> 6);
+    int shift = bit & 63;
+    long v = value & 0xFFFFFFFFL;
+    data[word] |= v << shift;
+    if (shift + bits > 64) {
+      data[word + 1] |= v >>> (64 - shift);
+    }
+  }
+
+  /**
+   * Returns the number of bits needed for the given number.
+   *
+   * @param value
+   *        The number (treated as unsigned).
+   *
+   * @return The number of bits.
+   */
+  protected static int bits(int value) {
+    return 32 - Integer.numberOfLeadingZeros(value);
+  }
+
+  /**
+   * Returns the number of longs needed for the given numbers.
+   *
+   * @param n
+   *        The number of numbers.
+   * @param bits
+   *        The number of bits per number.
+   *
+   * @return The number of longs.
+   */
+  protected static int numWords(int n, int bits) {
+    return (n * bits + 63) >>> 6;
+  }
+
+  /**
+   * Returns the offset in data of the scores of the given block.
+   *
+   * @param b
+   *        The index of the block.
+   *
+   * @return The offset.
+   */
+  protected int scoreOffset(int b) {
+    return blockOffsets[b] + numWords(blockSize(b) - 1, blockIdBits[b]);
+  }
+
+  /**
+   * Decompresses this list.
+   *
+   * @return This list as (uncompressed) posting list, with sentinel.
+   */
+  public PostingList toPostingList() {
+    PostingList list = new PostingList();
+    list.reserve(numPostings + 1);
+    BlockReader reader = new BlockReader(this);
+    for (int b = 0; b < numBlocks(); b++) {
+      reader.load(b);
+      for (int i = 0; i < reader.size; i++) {
+        list.addPosting(reader.ids[i], getScore(b, i));
+      }
+    }
+    list.addSentinel();
+    return list;
+  }
+
+  /**
+   * Returns the number of postings in this list.
+   *
+   * @return The number of postings in this list.
+   */
+  public int size() {
+    return this.numPostings;
+  }
+
+  /**
+   * Returns the number of postings in the given block.
+   *
+   * @param b
+   *        The index of the block.
+   *
+   * @return The number of postings in the block.
+   */
+  public int blockSize(int b) {
+    return Math.min(BLOCK_SIZE, numPostings - b * BLOCK_SIZE);
+  }
+
+  /**
+   * Returns the number of blocks of this list.
+   *
+   * @return The number of blocks of this list.
+   */
+  public int numBlocks() {
+    return this.blockLastIds.length;
+  }
+
+  /**
+   * Returns the (approximate) number of bytes needed by this list, that is
+   * the size of the packed blocks plus the size of the skip table.
+   *
+   * @return The number of bytes needed by this list.
+   */
+  public long sizeInBytes() {
+    return 8L * data.length + 4L * (blockFirstIds.length
+        + blockLastIds.length + blockOffsets.length) + blockIdBits.length
+        + blockScoreBits.length;
+  }
+
+  // ==========================================================================
+
+  /**
+   * Holds the unpacked ids of one block of a compressed list. Each block is
+   * unpacked at most once in a row, so the zipper unpacks each block it
+   * looks into only once per intersection.
+   */
+  protected static class BlockReader {
+    /**
+     * The list to read from.
+     */
+    protected CompressedPostingList list;
+
+    /**
+     * The index of the current block (-1 if there is none yet).
+     */
+    protected int block = -1;
+
+    /**
+     * The number of postings in the current block.
+     */
+    protected int size;
+
+    /**
+     * The ids of the current block, followed by the sentinel
+     * Integer.MAX_VALUE.
+     */
+    protected int[] ids = new int[BLOCK_SIZE + 1];
+
+    /**
+     * Creates a reader for the given list.
+     *
+     * @param list
+     *        The list to read from.
+     */
+    public BlockReader(CompressedPostingList list) {
+      this.list = list;
+    }
+
+    /**
+     * Makes the given block the current one and unpacks its ids, unless it
+     * is the current one already.
+     *
+     * @param b
+     *        The index of the block.
+     */
+    public void load(int b) {
+      if (b != block) {
+        block = b;
+        size = list.blockSize(b);
+        list.unpackIds(b, ids);
+        ids[size] = Integer.MAX_VALUE;
+      }
+    }
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the CompressedPostingList
+ * class.
+ */
+public class CompressedPostingListTest {
+  /**
+   * Creates a posting list with the ids step, 2 * step, ..., n * step (and
+   * varying scores).
+   */
+  private static PostingList createList(int n, int step) {
+    PostingList list = new PostingList();
+    list.reserve(n + 1);
+    for (int i = 1; i <= n; i++) {
+      list.addPosting(step * i, (i * 37) % 1000);
+    }
+    list.addSentinel();
+    return list;
+  }
+
+  /**
+   * Creates a posting list with n random ids, with gaps of up to maxGap, and
+   * random scores (of all 32 bits).
+   */
+  private static PostingList createRandomList(Random random, int n,
+      int maxGap) {
+    PostingList list = new PostingList();
+    list.reserve(n + 1);
+    int id = 0;
+    for (int i = 0; i < n; i++) {
+      id += 1 + random.nextInt(maxGap);
+      list.addPosting(id, random.nextInt());
+    }
+    list.addSentinel();
+    return list;
+  }
+
+  /**
+   * Tests for the constructor and the method toPostingList().
+   */
+  @Test
+  public void testCompress() {
+    PostingList l1 = new PostingList();
+    l1.readFromFile("example1.txt");
+    CompressedPostingList c1 = new CompressedPostingList(l1);
+    Assert.assertEquals(3, c1.size());
+    Assert.assertEquals(1, c1.numBlocks());
+    Assert.assertEquals("[(2, 5), (3, 1), (6, 2)]",
+        c1.toPostingList().toString());
+
+    PostingList l2 = createList(1000, 1000);
+    CompressedPostingList c2 = new CompressedPostingList(l2);
+    Assert.assertEquals(16, c2.numBlocks());
+    Assert.assertEquals(l2.toString(), c2.toPostingList().toString());
+
+    PostingList l3 = new PostingList();
+    l3.reserve(1);
+    l3.addSentinel();
+    CompressedPostingList c3 = new CompressedPostingList(l3);
+    Assert.assertEquals(0, c3.numBlocks());
+    Assert.assertEquals("[]", c3.toPostingList().toString());
+
+    // Ids and scores of (nearly) all widths, across the longs of a block.
+    Random random = new Random(3);
+    for (int maxGap : new int[] {1, 2, 100, 1 << 16, 1 << 21}) {
+      PostingList l4 = createRandomList(random, 1000, maxGap);
+      CompressedPostingList c4 = new CompressedPostingList(l4);
+      Assert.assertEquals(l4.toString(), c4.toPostingList().toString());
+      for (int i = 0; i < l4.size(); i++) {
+        int b = i / CompressedPostingList.BLOCK_SIZE;
+        int j = i % CompressedPostingList.BLOCK_SIZE;
+        Assert.assertEquals(l4.getId(i), c4.getId(b, j));
+        Assert.assertEquals(l4.getScore(i), c4.getScore(b, j));
+      }
+    }
+  }
+
+  /**
+   * Tests for the method sizeInBytes().
+   */
+  @Test
+  public void testSizeInBytes() {
+    // Gaps of 7 (so differences < 512 in a block) and scores < 1000 need at
+    // most 9 + 10 bits per posting, plus 14 bytes per block for the skip
+    // table.
+    CompressedPostingList list = new CompressedPostingList(
+        createList(10000, 7));
+    Assert.assertTrue(list.sizeInBytes() <= 19 * 10000 / 8 + 14 * 157 + 16);
+  }
+
+  /**
+   * Tests for the method intersectZipper().
+   */
+  @Test
+  public void testIntersectZipper() {
+    PostingList l1 = new PostingList();
+    PostingList l2 = new PostingList();
+    PostingList l3 = new PostingList();
+    l1.readFromFile("example1.txt");
+    l2.readFromFile("example2.txt");
+    l3.readFromFile("example3.txt");
+    CompressedPostingList c1 = new CompressedPostingList(l1);
+    CompressedPostingList c2 = new CompressedPostingList(l2);
+    CompressedPostingList c3 = new CompressedPostingList(l3);
+    Assert.assertEquals("[(2, 9), (6, 5)]",
+        CompressedPostingList.intersectZipper(c1, c2).toString());
+    Assert.assertEquals("[]",
+        CompressedPostingList.intersectZipper(c1, c3).toString());
+
+    PostingList l4 = createList(1000, 7);
+    PostingList l5 = createList(3000, 3);
+    Assert.assertEquals(PostingList.intersectBaseline(l4, l5).toString(),
+        CompressedPostingList.intersectZipper(new CompressedPostingList(l4),
+            new CompressedPostingList(l5)).toString());
+
+    Random random = new Random(5);
+    for (int i = 0; i < 20; i++) {
+      PostingList l6 = createRandomList(random, 1 + random.nextInt(2000), 4);
+      PostingList l7 = createRandomList(random, 1 + random.nextInt(2000), 4);
+      Assert.assertEquals(PostingList.intersectBaseline(l6, l7).toString(),
+          CompressedPostingList.intersectZipper(new CompressedPostingList(l6),
+              new CompressedPostingList(l7)).toString());
+    }
+  }
+
+  /**
+   * Tests for the method intersectGalloping().
+   */
+  @Test
+  public void testIntersectGalloping() {
+    PostingList l1 = new PostingList();
+    PostingList l2 = new PostingList();
+    PostingList l3 = new PostingList();
+    l1.readFromFile("example1.txt");
+    l2.readFromFile("example2.txt");
+    l3.readFromFile("example3.txt");
+    CompressedPostingList c1 = new CompressedPostingList(l1);
+    CompressedPostingList c2 = new CompressedPostingList(l2);
+    CompressedPostingList c3 = new CompressedPostingList(l3);
+    Assert.assertEquals("[(2, 9), (6, 5)]",
+        CompressedPostingList.intersectGalloping(c1, c2).toString());
+    Assert.assertEquals("[]",
+        CompressedPostingList.intersectGalloping(c1, c3).toString());
+
+    PostingList l4 = createList(100, 1001);
+    PostingList l5 = createList(30000, 3);
+    String expected = PostingList.intersectBaseline(l4, l5).toString();
+    CompressedPostingList c4 = new CompressedPostingList(l4);
+    CompressedPostingList c5 = new CompressedPostingList(l5);
+    Assert.assertEquals(expected,
+        CompressedPostingList.intersectGalloping(c4, c5).toString());
+    Assert.assertEquals(expected,
+        CompressedPostingList.intersectGalloping(c5, c4).toString());
+    Assert.assertEquals(expected,
+        CompressedPostingList.intersect(c4, c5).toString());
+
+    Random random = new Random(7);
+    for (int i = 0; i < 20; i++) {
+      PostingList l6 = createRandomList(random, 1 + random.nextInt(100), 400);
+      PostingList l7 = createRandomList(random, 1 + random.nextInt(20000), 4);
+      Assert.assertEquals(PostingList.intersectBaseline(l6, l7).toString(),
+          CompressedPostingList.intersectGalloping(
+              new CompressedPostingList(l6), new CompressedPostingList(l7))
+              .toString());
+    }
+  }
+}
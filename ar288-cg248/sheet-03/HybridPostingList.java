@@ -0,0 +1,363 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+/**
+ * <p>
+ * A posting list for dense lists (of frequent terms), in the style of
+ * Roaring bitmaps. The id space is split into chunks of 2^16 ids, keyed by
+ * the upper 16 bits of the ids. The lower 16 bits of the ids of a chunk are
+ * stored in a container, which is either a sorted char array (if the chunk
+ * has at most MAX_ARRAY_SIZE ids) or a bitmap of 2^16 bits (otherwise). So a
+ * container never needs more than 8 KB, and a dense chunk only 1 bit per id.
+ * </p>
+ *
+ * <p>
+ * The scores are stored in a separate array, in the order of the ids. The
+ * score of the i-th id of an array container is at containerOffsets[c] + i,
+ * the one of a bit in a bitmap container at containerOffsets[c] + the number
+ * of bits set before it. The latter is computed from a precomputed rank per
+ * 64-bit word plus one bit count.
+ * </p>
+ *
+ * <p>
+ * Two containers with the same key are intersected by a merge of the two
+ * arrays, by bit tests of the array ids in the bitmap, or by an AND of the
+ * two bitmaps word by word. All three are simple sequential loops over
+ * small arrays.
+ * </p>
+ */
+public class HybridPostingList {
+  /**
+   * The maximum number of ids in an array container. Above, a bitmap (1024
+   * longs = 8 KB) is smaller than the array (2 bytes per id).
+   */
+  public static final int MAX_ARRAY_SIZE = 4096;
+
+  /**
+   * The number of 64-bit words of a bitmap container.
+   */
+  public static final int BITMAP_WORDS = 1 << 16 >>> 6;
+
+  /**
+   * The keys (the upper 16 bits of the ids) of the containers, in sorted
+   * order.
+   */
+  protected int[] keys;
+
+  /**
+   * The array containers (null for a bitmap container).
+   */
+  protected char[][] arrays;
+
+  /**
+   * The bitmap containers (null for an array container).
+   */
+  protected long[][] bitmaps;
+
+  /**
+   * For each bitmap container, the number of bits set before each word.
+   */
+  protected char[][] ranks;
+
+  /**
+   * The index of the first score of each container in scores (plus the
+   * number of postings at the end).
+   */
+  protected int[] containerOffsets;
+
+  /**
+   * The scores of the postings, in the order of the ids.
+   */
+  protected int[] scores;
+
+  /**
+   * Creates the hybrid form of the given posting list.
+   *
+   * @param list
+   *        The posting list to convert.
+   */
+  public HybridPostingList(PostingListView list) {
+    int n = list.size();
+
+    // Count the containers.
+    int numContainers = 0;
+    for (int i = 0; i < n; i++) {
+      if (i == 0 || (list.getId(i) >>> 16) != (list.getId(i - 1) >>> 16)) {
+        numContainers++;
+      }
+    }
+    this.keys = new int[numContainers];
+    this.arrays = new char[numContainers][];
+    this.bitmaps = new long[numContainers][];
+    this.ranks = new char[numContainers][];
+    this.containerOffsets = new int[numContainers + 1];
+    this.scores = new int[n];
+
+    int start = 0;
+    for (int c = 0; c < numContainers; c++) {
+      int key = list.getId(start) >>> 16;
+      int end = start + 1;
+      while (end < n && (list.getId(end) >>> 16) == key) {
+        end++;
+      }
+      keys[c] = key;
+      containerOffsets[c] = start;
+      if (end - start <= MAX_ARRAY_SIZE) {
+        char[] array = new char[end - start];
+        for (int i = start; i < end; i++) {
+          array[i - start] = (char) list.getId(i);
+        }
+        arrays[c] = array;
+      } else {
+        long[] bitmap = new long[BITMAP_WORDS];
+        for (int i = start; i < end; i++) {
+          int low = list.getId(i) & 0xFFFF;
+          bitmap[low >>> 6] |= 1L << low;
+        }
+        char[] rank = new char[BITMAP_WORDS];
+        int count = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+          rank[w] = (char) count;
+          count += Long.bitCount(bitmap[w]);
+        }
+        bitmaps[c] = bitmap;
+        ranks[c] = rank;
+      }
+      for (int i = start; i < end; i++) {
+        scores[i] = list.getScore(i);
+      }
+      start = end;
+    }
+    containerOffsets[numContainers] = n;
+  }
+
+  // ==========================================================================
+
+  /**
+   * Intersects the two given hybrid lists. Only containers with the same key
+   * are looked at, each pair with the method for its two container types.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   *
+   * @return The intersection of the two lists.
+   */
+  public static PostingList intersect(HybridPostingList l1,
+      HybridPostingList l2) {
+    PostingList result = new PostingList();
+    result.reserve(Math.min(l1.size(), l2.size()));
+
+    int c1 = 0;
+    int c2 = 0;
+    while (c1 < l1.numContainers() && c2 < l2.numContainers()) {
+      if (l1.keys[c1] < l2.keys[c2]) {
+        c1++;
+      } else if (l1.keys[c1] > l2.keys[c2]) {
+        c2++;
+      } else {
+        if (l1.arrays[c1] != null && l2.arrays[c2] != null) {
+          intersectArrays(l1, c1, l2, c2, result);
+        } else if (l1.arrays[c1] != null) {
+          intersectArrayBitmap(l1, c1, l2, c2, result);
+        } else if (l2.arrays[c2] != null) {
+          intersectArrayBitmap(l2, c2, l1, c1, result);
+        } else {
+          intersectBitmaps(l1, c1, l2, c2, result);
+        }
+        c1++;
+        c2++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Intersects two array containers with the zipper algorithm and appends
+   * the matches to the given result.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param c1
+   *        The index of the (array) container in the first list.
+   * @param l2
+   *        The second posting list.
+   * @param c2
+   *        The index of the (array) container in the second list.
+   * @param result
+   *        The list to append the matches to.
+   */
+  protected static void intersectArrays(HybridPostingList l1, int c1,
+      HybridPostingList l2, int c2, PostingList result) {
+    char[] a1 = l1.arrays[c1];
+    char[] a2 = l2.arrays[c2];
+    int offset1 = l1.containerOffsets[c1];
+    int offset2 = l2.containerOffsets[c2];
+    int high = l1.keys[c1] << 16;
+    int i1 = 0;
+    int i2 = 0;
+    // The advances are computed from the comparisons (not branched on), the
+    // order of the ids is too random to predict.
+    while (i1 < a1.length && i2 < a2.length) {
+      int id1 = a1[i1];
+      int id2 = a2[i2];
+      if (id1 == id2) {
+        result.addPosting(high | id1,
+            l1.scores[offset1 + i1] + l2.scores[offset2 + i2]);
+      }
+      i1 += id1 <= id2 ? 1 : 0;
+      i2 += id1 >= id2 ? 1 : 0;
+    }
+  }
+
+  /**
+   * Intersects an array container with a bitmap container, by testing the
+   * bit of each id of the array, and appends the matches to the given
+   * result.
+   *
+   * @param l1
+   *        The list with the array container.
+   * @param c1
+   *        The index of the array container.
+   * @param l2
+   *        The list with the bitmap container.
+   * @param c2
+   *        The index of the bitmap container.
+   * @param result
+   *        The list to append the matches to.
+   */
+  protected static void intersectArrayBitmap(HybridPostingList l1, int c1,
+      HybridPostingList l2, int c2, PostingList result) {
+    char[] array = l1.arrays[c1];
+    long[] bitmap = l2.bitmaps[c2];
+    char[] rank = l2.ranks[c2];
+    int offset1 = l1.containerOffsets[c1];
+    int offset2 = l2.containerOffsets[c2];
+    int high = l1.keys[c1] << 16;
+    for (int i = 0; i < array.length; i++) {
+      int low = array[i];
+      long word = bitmap[low >>> 6];
+      // Shifts of longs only use the lowest 6 bits of the shift distance.
+      if ((word & (1L << low)) != 0) {
+        int j = rank[low >>> 6] + Long.bitCount(word & ((1L << low) - 1));
+        result.addPosting(high | low,
+            l1.scores[offset1 + i] + l2.scores[offset2 + j]);
+      }
+    }
+  }
+
+  /**
+   * Intersects two bitmap containers by an AND of their words and appends
+   * the matches to the given result.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param c1
+   *        The index of the (bitmap) container in the first list.
+   * @param l2
+   *        The second posting list.
+   * @param c2
+   *        The index of the (bitmap) container in the second list.
+   * @param result
+   *        The list to append the matches to.
+   */
+  protected static void intersectBitmaps(HybridPostingList l1, int c1,
+      HybridPostingList l2, int c2, PostingList result) {
+    long[] b1 = l1.bitmaps[c1];
+    long[] b2 = l2.bitmaps[c2];
+    int offset1 = l1.containerOffsets[c1];
+    int offset2 = l2.containerOffsets[c2];
+    int high = l1.keys[c1] << 16;
+    for (int w = 0; w < BITMAP_WORDS; w++) {
+      long word1 = b1[w];
+      long word2 = b2[w];
+      long matches = word1 & word2;
+      int rank1 = offset1 + l1.ranks[c1][w];
+      int rank2 = offset2 + l2.ranks[c2][w];
+      while (matches != 0) {
+        long bit = matches & -matches;
+        result.addPosting(high | (w << 6) | Long.numberOfTrailingZeros(bit),
+            l1.scores[rank1 + Long.bitCount(word1 & (bit - 1))]
+            + l2.scores[rank2 + Long.bitCount(word2 & (bit - 1))]);
+        matches ^= bit;
+      }
+    }
+  }
+
+  /**
+   * Converts this list back to a (sentinel terminated) PostingList.
+   *
+   * @return The posting list.
+   */
+  public PostingList toPostingList() {
+    PostingList list = new PostingList();
+    list.reserve(size() + 1);
+    for (int c = 0; c < numContainers(); c++) {
+      int high = keys[c] << 16;
+      int offset = containerOffsets[c];
+      if (arrays[c] != null) {
+        for (int i = 0; i < arrays[c].length; i++) {
+          list.addPosting(high | arrays[c][i], scores[offset + i]);
+        }
+      } else {
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+          long word = bitmaps[c][w];
+          while (word != 0) {
+            int bit = Long.numberOfTrailingZeros(word);
+            list.addPosting(high | (w << 6) | bit, scores[offset++]);
+            word &= word - 1;
+          }
+        }
+      }
+    }
+    list.addSentinel();
+    return list;
+  }
+
+  /**
+   * Returns the number of postings in this list.
+   *
+   * @return The number of postings in this list.
+   */
+  public int size() {
+    return this.scores.length;
+  }
+
+  /**
+   * Returns the number of containers of this list.
+   *
+   * @return The number of containers of this list.
+   */
+  public int numContainers() {
+    return this.keys.length;
+  }
+
+  /**
+   * Returns true if the given container is a bitmap container.
+   *
+   * @param c
+   *        The index of the container.
+   *
+   * @return True if the container is a bitmap, false if it is an array.
+   */
+  public boolean isBitmap(int c) {
+    return this.bitmaps[c] != null;
+  }
+
+  /**
+   * Returns the (approximate) number of bytes needed by this list, that is
+   * the size of the containers and ranks plus the size of the scores, keys
+   * and offsets.
+   *
+   * @return The number of bytes needed by this list.
+   */
+  public long sizeInBytes() {
+    long bytes = 4L * (scores.length + keys.length + containerOffsets.length);
+    for (int c = 0; c < numContainers(); c++) {
+      bytes += isBitmap(c) ? 10L * BITMAP_WORDS : 2L * arrays[c].length;
+    }
+    return bytes;
+  }
+}
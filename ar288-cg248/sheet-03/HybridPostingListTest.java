@@ -0,0 +1,96 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the HybridPostingList class.
+ */
+public class HybridPostingListTest {
+  /**
+   * Creates a posting list with the ids step, 2 * step, ..., n * step (and
+   * varying scores).
+   */
+  private static PostingList createList(int n, int step) {
+    PostingList list = new PostingList();
+    list.reserve(n + 1);
+    for (int i = 1; i <= n; i++) {
+      list.addPosting(step * i, (i * 37) % 1000);
+    }
+    list.addSentinel();
+    return list;
+  }
+
+  /**
+   * Tests for the constructor and the method toPostingList().
+   */
+  @Test
+  public void testConvert() {
+    PostingList l1 = new PostingList();
+    l1.readFromFile("example1.txt");
+    HybridPostingList h1 = new HybridPostingList(l1);
+    Assert.assertEquals(3, h1.size());
+    Assert.assertEquals(1, h1.numContainers());
+    Assert.assertFalse(h1.isBitmap(0));
+    Assert.assertEquals("[(2, 5), (3, 1), (6, 2)]",
+        h1.toPostingList().toString());
+
+    // Every 3rd id: 21846 or 21845 ids per chunk, so all bitmaps.
+    PostingList l2 = createList(100000, 3);
+    HybridPostingList h2 = new HybridPostingList(l2);
+    Assert.assertEquals(5, h2.numContainers());
+    Assert.assertTrue(h2.isBitmap(0));
+    Assert.assertTrue(h2.isBitmap(3));
+    // The last chunk only has the ids up to 300000.
+    Assert.assertTrue(h2.isBitmap(4));
+    Assert.assertEquals(l2.toString(), h2.toPostingList().toString());
+    Assert.assertTrue(h2.sizeInBytes() < 8L * 100000);
+
+    // Every 100th id: 655 or 656 ids per chunk, so all arrays.
+    PostingList l3 = createList(10000, 100);
+    HybridPostingList h3 = new HybridPostingList(l3);
+    Assert.assertEquals(16, h3.numContainers());
+    Assert.assertFalse(h3.isBitmap(7));
+    Assert.assertEquals(l3.toString(), h3.toPostingList().toString());
+
+    PostingList l4 = new PostingList();
+    l4.reserve(1);
+    l4.addSentinel();
+    HybridPostingList h4 = new HybridPostingList(l4);
+    Assert.assertEquals(0, h4.numContainers());
+    Assert.assertEquals("[]", h4.toPostingList().toString());
+  }
+
+  /**
+   * Tests for the method intersect(), for all combinations of container
+   * types.
+   */
+  @Test
+  public void testIntersect() {
+    PostingList l1 = new PostingList();
+    PostingList l2 = new PostingList();
+    PostingList l3 = new PostingList();
+    l1.readFromFile("example1.txt");
+    l2.readFromFile("example2.txt");
+    l3.readFromFile("example3.txt");
+    HybridPostingList h1 = new HybridPostingList(l1);
+    HybridPostingList h2 = new HybridPostingList(l2);
+    HybridPostingList h3 = new HybridPostingList(l3);
+    Assert.assertEquals("[(2, 9), (6, 5)]",
+        HybridPostingList.intersect(h1, h2).toString());
+    Assert.assertEquals("[]",
+        HybridPostingList.intersect(h1, h3).toString());
+
+    PostingList[] lists = {createList(100000, 3), createList(60000, 5),
+        createList(10000, 100), createList(3000, 70)};
+    for (PostingList a : lists) {
+      for (PostingList b : lists) {
+        Assert.assertEquals(PostingList.intersectBaseline(a, b).toString(),
+            HybridPostingList.intersect(new HybridPostingList(a),
+                new HybridPostingList(b)).toString());
+      }
+    }
+  }
+}
@@ -2,11 +2,26 @@
 // Chair of Algorithms and Data Structures.
 // Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
 /**
  * The main class to evaluate the efficiency of various algorithms for 
- * intersecting two posting lists.
+ * intersecting two posting lists. For reliable numbers (warm-up, percentiles,
+ * allocation rate), use the JMH benchmarks in bench/ ("ant bench"). With
+ * -Dpostinglist.countOps=true, the operation counts of each algorithm (see
+ * OpCounters) are printed for each pair of lists and written as CSV to the
+ * file given by -Dpostinglist.countersCsv (default: counters.csv).
  */
 public class IntersectMain {
+  /**
+   * The algorithms whose operations are counted, see intersect().
+   */
+  protected static final String[] COUNTED_ALGORITHMS = {"baseline", "zipper",
+    "simd", "binarySearch", "galloping", "probe", "intersect"};
+
   /**
    * The main method.
    * 
@@ -25,19 +40,32 @@ public class IntersectMain {
     int totalRuns = 0;
 
     // Read the posting lists.
-    PostingList[] lists = new PostingList[numLists];
+    PostingListView[] lists = new PostingListView[numLists];
     for (int i = 0; i < numLists; i++) {
       System.out.print("Reading list '" + args[i] + "' ... ");
       System.out.flush();
-      PostingList list = new PostingList();
-      list.readFromFile(args[i]);
-      lists[i] = list;
-      System.out.println("Done. Size: " +  lists[i].size() + ".");
+      long time1 = System.nanoTime();
+      // Binary files (see PostingList.writeToBinaryFile) are only mapped.
+      if (args[i].endsWith(".bin")) {
+        lists[i] = new MappedPostingList(args[i]);
+      } else {
+        PostingList list = new PostingList();
+        list.readFromFile(args[i]);
+        lists[i] = list;
+      }
+      long time2 = System.nanoTime();
+      // 1000 * bytes per nanosecond = MB/s.
+      long megabytesPerSecond = new File(args[i]).length() * 1000
+          / Math.max(1, time2 - time1);
+      System.out.println("Done. Size: " +  lists[i].size() + ". Time needed: "
+          + (time2 - time1) / 1000 + "us (" + megabytesPerSecond + " MB/s).");
     }
 
 
     // Intersect the lists pairwise.
     System.out.println();
+    System.out.println("Cost model: " + IntersectSelector.get() + ".");
+    System.out.println();
     for (int i = 0; i < numLists; i++) {
       for (int j = 0; j < i; j++) {
         for (int rounds = 0; rounds < 5; rounds++) {
@@ -73,5 +101,92 @@ public class IntersectMain {
             / totalRuns) + "us" + ".");
     System.out.println("\n Overall average intersect time: " + (totalIntersect
             / totalRuns) + "us" + ".");
+
+    if (OpCounters.ENABLED) {
+      countOperations(args, lists);
+    }
+
+    // Intersect all lists at once (like a query with all the words).
+    if (numLists > 2) {
+      System.out.println("\nIntersect all " + numLists + " lists.");
+      for (int rounds = 0; rounds < 5; rounds++) {
+        long time1 = System.nanoTime();
+        PostingList list = PostingList.intersectAll(lists);
+        long time2 = System.nanoTime();
+        System.out.print("  Time needed: " + (time2 - time1) / 1000 + "us. ");
+        System.out.println("Result size: " + list.size());
+      }
+    }
+  }
+
+  /**
+   * Intersects each pair of the given lists with each of the
+   * COUNTED_ALGORITHMS, and prints and exports the operation counts and the
+   * times (which include the counting).
+   *
+   * @param names
+   *        The names of the lists.
+   * @param lists
+   *        The lists.
+   */
+  protected static void countOperations(String[] names,
+      PostingListView[] lists) {
+    String fileName = System.getProperty("postinglist.countersCsv",
+        "counters.csv");
+    System.out.println("\nOperation counts (written to " + fileName + ").");
+    PostingList result = new PostingList();
+    try (PrintWriter csv = new PrintWriter(new FileWriter(fileName))) {
+      csv.println("list1,list2,size1,size2,algorithm,timeUs,"
+          + OpCounters.CSV_HEADER);
+      for (int i = 0; i < lists.length; i++) {
+        for (int j = 0; j < i; j++) {
+          System.out.println("Intersect '" + names[i] + "' & '" + names[j]
+              + "'.");
+          for (String algorithm : COUNTED_ALGORITHMS) {
+            // Warm up, then count the last run only.
+            long time = 0;
+            for (int rounds = 0; rounds < 3; rounds++) {
+              OpCounters.reset();
+              long time1 = System.nanoTime();
+              intersect(algorithm, lists[i], lists[j], result);
+              time = (System.nanoTime() - time1) / 1000;
+            }
+            System.out.println("  " + algorithm + ": " + time + "us, "
+                + OpCounters.summary());
+            csv.println(names[i] + "," + names[j] + "," + lists[i].size()
+                + "," + lists[j].size() + "," + algorithm + "," + time + ","
+                + OpCounters.toCsv());
+          }
+        }
+      }
+    } catch (IOException e) {
+      System.err.println("Couldn't write the file: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Intersects the two given lists into the given result with the given
+   * algorithm (one of COUNTED_ALGORITHMS).
+   */
+  private static int intersect(String algorithm, PostingListView l1,
+      PostingListView l2, PostingList result) {
+    switch (algorithm) {
+      case "baseline":
+        return PostingList.intersectBaseline(l1, l2, result);
+      case "zipper":
+        return PostingList.intersectZipper(l1, l2, result);
+      case "simd":
+        return PostingList.intersectSimd(l1, l2, result);
+      case "binarySearch":
+        return PostingList.intersectBinarySearchUsingSentinels(l1, l2,
+            result);
+      case "galloping":
+        return PostingList.intersectGallopingBinarySearch(l1, l2, result);
+      case "probe":
+        return PostingList.intersectProbe(l1, l2, result);
+      default:
+        return PostingList.intersect(l1, l2,
+            IntersectSelector.DEFAULT_SELECTIVITY, result);
+    }
   }
 }
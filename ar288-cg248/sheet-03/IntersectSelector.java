@@ -0,0 +1,469 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>
+ * Chooses the algorithm for PostingList.intersect() with a cost model. For
+ * two lists of sizes k <= n and an expected selectivity s (the fraction of
+ * the smaller list that is in the result), the cost of an algorithm is
+ * perUnit * work + perMatch * s * k, with the work
+ * </p>
+ *
+ * <ul>
+ * <li>n + k for the zipper (SIMD),</li>
+ * <li>k * log2(n + 1) for the binary search,</li>
+ * <li>k * (1 + 2 * log2(n / k + 1)) for the galloping binary search.</li>
+ * </ul>
+ *
+ * <p>
+ * The constants perUnit and perMatch are measured per algorithm on this
+ * machine by a short micro-benchmark on synthetic lists (one run without
+ * and one run with matches), or loaded from a profile file. If the system
+ * property "postinglist.costProfile" names a file, the constants are loaded
+ * from it, or (if it does not exist yet or lacks a constant) written to it
+ * after the calibration.
+ * </p>
+ *
+ * <p>
+ * Two algorithms are not chosen by cost but by thresholds of PostingList:
+ * the parallel zipper for two large lists of similar size, and probing the
+ * ProbeIndex of the larger list if the sizes differ by a factor of at least
+ * probeSkewThreshold and the larger list (of a frequent term, whose index
+ * is cached) has at least probeMinSize postings.
+ * </p>
+ *
+ * <p>
+ * If the system property "postinglist.selectorLog" names a file, each
+ * choice is appended to it as a line "k,n,selectivity,algorithm" followed
+ * by the estimated costs (in ns) of the zipper, the binary search and the
+ * galloping binary search, for later analysis.
+ * </p>
+ */
+public class IntersectSelector {
+  /**
+   * The algorithms to choose from.
+   */
+  public enum Algorithm {
+    ZIPPER, BINARY_SEARCH, GALLOPING, PARALLEL, PROBE
+  }
+
+  /**
+   * All algorithms (Algorithm.values() returns a new array on each call).
+   */
+  protected static final Algorithm[] ALGORITHMS = Algorithm.values();
+
+  /**
+   * The selectivity assumed if the caller doesn't know it.
+   */
+  public static final double DEFAULT_SELECTIVITY = 0.1;
+
+  /**
+   * The size of the larger calibration list.
+   */
+  protected static final int CALIBRATION_SIZE = 1 << 14;
+
+  /**
+   * The ratio of the sizes of the two calibration lists.
+   */
+  protected static final int CALIBRATION_RATIO = 16;
+
+  /**
+   * The number of rounds of the calibration.
+   */
+  protected static final int CALIBRATION_ROUNDS = 300;
+
+  /**
+   * The instance used by PostingList.intersect(), created on first use.
+   */
+  private static volatile IntersectSelector instance;
+
+  /**
+   * The cost per unit of work of each algorithm (in ns), by ordinal.
+   */
+  protected double[] perUnit = new double[ALGORITHMS.length];
+
+  /**
+   * The cost per match of each algorithm (in ns), by ordinal.
+   */
+  protected double[] perMatch = new double[ALGORITHMS.length];
+
+  /**
+   * The writer for the log of the choices (null if there is no log).
+   */
+  protected PrintWriter log;
+
+  /**
+   * Creates a selector with the given constants (indexed by the ordinals of
+   * Algorithm; the ones of PARALLEL and PROBE are not used).
+   *
+   * @param perUnit
+   *        The cost per unit of work of each algorithm.
+   * @param perMatch
+   *        The cost per match of each algorithm.
+   */
+  public IntersectSelector(double[] perUnit, double[] perMatch) {
+    System.arraycopy(perUnit, 0, this.perUnit, 0, perUnit.length);
+    System.arraycopy(perMatch, 0, this.perMatch, 0, perMatch.length);
+  }
+
+  /**
+   * Returns the selector used by PostingList.intersect(). On the first
+   * call, its constants are loaded from the profile file or calibrated.
+   *
+   * @return The selector.
+   */
+  public static IntersectSelector get() {
+    if (instance != null) {
+      return instance;
+    }
+    synchronized (IntersectSelector.class) {
+      if (instance != null) {
+        return instance;
+      }
+      IntersectSelector selector = null;
+      String profile = System.getProperty("postinglist.costProfile");
+      if (profile != null && Files.exists(Paths.get(profile))) {
+        selector = load(profile);
+      }
+      if (selector == null) {
+        selector = calibrate();
+        if (profile != null) {
+          selector.save(profile);
+        }
+      }
+      String logFile = System.getProperty("postinglist.selectorLog");
+      if (logFile != null) {
+        selector.openLog(logFile);
+      }
+      instance = selector;
+      return selector;
+    }
+  }
+
+  // ==========================================================================
+
+  /**
+   * Chooses the algorithm with the lowest estimated cost for intersecting
+   * two lists of the given sizes. Lists of similar size that are larger than
+   * the parallel threshold of PostingList are intersected in parallel (if
+   * the common pool has more than one thread). Lists of very different
+   * sizes are intersected by probing (see the class comment).
+   *
+   * @param size1
+   *        The size of the first list.
+   * @param size2
+   *        The size of the second list.
+   * @param selectivity
+   *        The expected fraction of the smaller list that is in the result.
+   *
+   * @return The chosen algorithm.
+   */
+  public Algorithm choose(int size1, int size2, double selectivity) {
+    // No allocations here (not even Algorithm.values()), this is called for
+    // every intersection.
+    Algorithm best = Algorithm.ZIPPER;
+    double bestCost = cost(best, size1, size2, selectivity);
+    for (Algorithm algorithm : ALGORITHMS) {
+      double cost = cost(algorithm, size1, size2, selectivity);
+      if (cost < bestCost) {
+        best = algorithm;
+        bestCost = cost;
+      }
+    }
+    if (best == Algorithm.ZIPPER
+        && Math.min(size1, size2) >= PostingList.parallelThreshold
+        && ForkJoinPool.getCommonPoolParallelism() > 1) {
+      best = Algorithm.PARALLEL;
+    }
+    int min = Math.min(size1, size2);
+    int max = Math.max(size1, size2);
+    if (max >= PostingList.probeMinSize
+        && max / Math.max(min, 1) >= PostingList.probeSkewThreshold) {
+      best = Algorithm.PROBE;
+    }
+
+    if (log != null) {
+      StringBuilder line = new StringBuilder();
+      line.append(min).append(',');
+      line.append(max).append(',');
+      line.append(selectivity).append(',').append(best);
+      for (Algorithm algorithm : ALGORITHMS) {
+        if (hasCost(algorithm)) {
+          line.append(',').append(Math.round(
+              cost(algorithm, size1, size2, selectivity)));
+        }
+      }
+      synchronized (log) {
+        log.println(line);
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Returns the estimated cost (in ns) of intersecting two lists of the
+   * given sizes with the given algorithm.
+   *
+   * @param algorithm
+   *        The algorithm (PARALLEL and PROBE have infinite cost, they are
+   *        only chosen by the thresholds in choose()).
+   * @param size1
+   *        The size of the first list.
+   * @param size2
+   *        The size of the second list.
+   * @param selectivity
+   *        The expected fraction of the smaller list that is in the result.
+   *
+   * @return The estimated cost.
+   */
+  public double cost(Algorithm algorithm, int size1, int size2,
+      double selectivity) {
+    double k = Math.min(size1, size2);
+    double n = Math.max(size1, size2);
+    double work;
+    switch (algorithm) {
+      case ZIPPER:
+        work = n + k;
+        break;
+      case BINARY_SEARCH:
+        work = k * log2(n + 1);
+        break;
+      case GALLOPING:
+        work = k * (1 + 2 * log2(n / Math.max(k, 1) + 1));
+        break;
+      default:
+        return Double.POSITIVE_INFINITY;
+    }
+    return perUnit[algorithm.ordinal()] * work
+        + perMatch[algorithm.ordinal()] * selectivity * k;
+  }
+
+  /**
+   * Returns true if the given algorithm is chosen by its cost (and has
+   * calibrated constants), false if it is chosen by a threshold.
+   */
+  private static boolean hasCost(Algorithm algorithm) {
+    return algorithm != Algorithm.PARALLEL && algorithm != Algorithm.PROBE;
+  }
+
+  /**
+   * Returns log2(x).
+   */
+  private static double log2(double x) {
+    return Math.log(x) / Math.log(2);
+  }
+
+  // ==========================================================================
+
+  /**
+   * Measures the constants of the cost model on this machine. Each
+   * algorithm intersects a list of CALIBRATION_SIZE postings with a list
+   * of the same size (the zipper) or one that is CALIBRATION_RATIO times
+   * smaller (the searches), so each is measured where it would be chosen.
+   * This is done once without matches and once where all postings of the
+   * smaller list match. The fastest of CALIBRATION_ROUNDS rounds counts.
+   *
+   * @return The calibrated selector.
+   */
+  public static IntersectSelector calibrate() {
+    Random random = new Random(42);
+    int n = CALIBRATION_SIZE;
+    PostingList large = new PostingList();
+    large.reserve(n + 1);
+    int id = 0;
+    for (int i = 0; i < n; i++) {
+      id += 2 + 2 * random.nextInt(4);
+      large.addPosting(id, 1);
+    }
+    large.addSentinel();
+    // The ids of the large list (hits) or the odd ids after them (misses),
+    // all of them or every CALIBRATION_RATIO-th one.
+    PostingList[] hits = new PostingList[ALGORITHMS.length];
+    PostingList[] misses = new PostingList[ALGORITHMS.length];
+    for (Algorithm algorithm : ALGORITHMS) {
+      int step = algorithm == Algorithm.ZIPPER ? 1 : CALIBRATION_RATIO;
+      hits[algorithm.ordinal()] = sample(large, step, 0);
+      misses[algorithm.ordinal()] = sample(large, step, 1);
+    }
+
+    // Run the algorithms round-robin on both inputs and keep the fastest
+    // time of each. The early rounds run before the JIT is done (which, on a
+    // single core, competes with the measurement), but are never the
+    // fastest.
+    PostingList result = new PostingList();
+    result.reserve(n + 64);
+    double[] timeHits = new double[ALGORITHMS.length];
+    double[] timeMisses = new double[ALGORITHMS.length];
+    Arrays.fill(timeHits, Double.MAX_VALUE);
+    Arrays.fill(timeMisses, Double.MAX_VALUE);
+    for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+      for (Algorithm algorithm : ALGORITHMS) {
+        if (hasCost(algorithm)) {
+          int a = algorithm.ordinal();
+          timeHits[a] = Math.min(timeHits[a],
+              time(algorithm, hits[a], large, result));
+          timeMisses[a] = Math.min(timeMisses[a],
+              time(algorithm, misses[a], large, result));
+        }
+      }
+    }
+
+    IntersectSelector selector = new IntersectSelector(
+        new double[ALGORITHMS.length], new double[ALGORITHMS.length]);
+    for (Algorithm algorithm : ALGORITHMS) {
+      if (!hasCost(algorithm)) {
+        continue;
+      }
+      int a = algorithm.ordinal();
+      int k = hits[a].size();
+      // The work of the algorithm, with cost 1 per unit and 0 per match.
+      selector.perUnit[a] = 1;
+      double work = selector.cost(algorithm, k, n, 0);
+      selector.perUnit[a] = timeMisses[a] / work;
+      selector.perMatch[a] = Math.max(0, (timeHits[a] - timeMisses[a]) / k);
+    }
+    return selector;
+  }
+
+  /**
+   * Returns the list of every step-th id of the given list plus the given
+   * offset (with sentinel).
+   */
+  private static PostingList sample(PostingList list, int step, int offset) {
+    PostingList sample = new PostingList();
+    sample.reserve((list.size() + step - 1) / step + 1);
+    for (int i = 0; i < list.size(); i += step) {
+      sample.addPosting(list.getId(i) + offset, 1);
+    }
+    sample.addSentinel();
+    return sample;
+  }
+
+  /**
+   * Returns the time (in ns) of intersecting the two given lists with the
+   * given algorithm (into the given result).
+   */
+  private static long time(Algorithm algorithm, PostingList l1,
+      PostingList l2, PostingList result) {
+    long start = System.nanoTime();
+    switch (algorithm) {
+      case BINARY_SEARCH:
+        PostingList.intersectBinarySearchUsingSentinels(l1, l2, result);
+        break;
+      case GALLOPING:
+        PostingList.intersectGallopingBinarySearch(l1, l2, result);
+        break;
+      default:
+        PostingList.intersectSimd(l1, l2, result);
+        break;
+    }
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * Loads the constants from the given profile file (as written by save()).
+   * A profile that lacks a constant (e.g. written before an algorithm was
+   * added) is invalid, so the constants must be calibrated again.
+   *
+   * @param fileName
+   *        The path to the profile file.
+   *
+   * @return The selector with the loaded constants, or null if the profile
+   *         is invalid.
+   */
+  public static IntersectSelector load(String fileName) {
+    double[] perUnit = new double[ALGORITHMS.length];
+    double[] perMatch = new double[ALGORITHMS.length];
+    try (Reader reader = new FileReader(fileName)) {
+      Properties properties = new Properties();
+      properties.load(reader);
+      for (Algorithm algorithm : ALGORITHMS) {
+        if (!hasCost(algorithm)) {
+          continue;
+        }
+        String name = algorithm.name().toLowerCase(Locale.ROOT);
+        String unit = properties.getProperty(name + ".perUnit");
+        String match = properties.getProperty(name + ".perMatch");
+        if (unit == null || match == null) {
+          System.err.println("Invalid cost profile '" + fileName + "': no "
+              + "constants for " + name + ".");
+          return null;
+        }
+        perUnit[algorithm.ordinal()] = Double.parseDouble(unit);
+        perMatch[algorithm.ordinal()] = Double.parseDouble(match);
+      }
+    } catch (IOException | NumberFormatException e) {
+      System.err.println("Couldn't read the file: " + e.getMessage());
+      System.exit(1);
+    }
+    return new IntersectSelector(perUnit, perMatch);
+  }
+
+  /**
+   * Writes the constants to the given profile file.
+   *
+   * @param fileName
+   *        The path to the profile file.
+   */
+  public void save(String fileName) {
+    try (Writer writer = new FileWriter(fileName)) {
+      Properties properties = new Properties();
+      for (Algorithm algorithm : ALGORITHMS) {
+        if (!hasCost(algorithm)) {
+          continue;
+        }
+        String name = algorithm.name().toLowerCase(Locale.ROOT);
+        properties.setProperty(name + ".perUnit",
+            String.valueOf(perUnit[algorithm.ordinal()]));
+        properties.setProperty(name + ".perMatch",
+            String.valueOf(perMatch[algorithm.ordinal()]));
+      }
+      properties.store(writer, "Cost model of PostingList.intersect() (ns)");
+    } catch (IOException e) {
+      System.err.println("Couldn't write the file: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Opens the given file for appending the log of the choices.
+   *
+   * @param fileName
+   *        The path to the log file.
+   */
+  public void openLog(String fileName) {
+    try {
+      log = new PrintWriter(new FileWriter(fileName, true), true);
+    } catch (IOException e) {
+      System.err.println("Couldn't write the file: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Algorithm algorithm : ALGORITHMS) {
+      if (!hasCost(algorithm)) {
+        continue;
+      }
+      sb.append(sb.length() == 0 ? "" : ", ").append(algorithm)
+          .append(String.format(": %.3f ns/unit + %.3f ns/match",
+              perUnit[algorithm.ordinal()], perMatch[algorithm.ordinal()]));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the IntersectSelector class.
+ */
+public class IntersectSelectorTest {
+  /**
+   * Creates a selector with the given cost per unit for the zipper, the
+   * binary search and the galloping binary search (and no cost per match).
+   */
+  private static IntersectSelector createSelector(double zipper,
+      double binarySearch, double galloping) {
+    return new IntersectSelector(
+        new double[] {zipper, binarySearch, galloping, 0},
+        new double[] {0, 0, 0, 0});
+  }
+
+  /**
+   * Tests for the method cost().
+   */
+  @Test
+  public void testCost() {
+    IntersectSelector selector = new IntersectSelector(
+        new double[] {1, 1, 1, 1}, new double[] {2, 2, 2, 2});
+    Assert.assertEquals(1100 + 2 * 0.5 * 100, selector.cost(
+        IntersectSelector.Algorithm.ZIPPER, 100, 1000, 0.5), 1e-9);
+    // 100 * (1 + 2 * log2(700 / 100 + 1)) + 2 * 100.
+    Assert.assertEquals(700 + 200, selector.cost(
+        IntersectSelector.Algorithm.GALLOPING, 700, 100, 1.0), 1e-9);
+    // Never negative (the old formula was, for k > log2(n)).
+    for (int k = 0; k <= 1000000; k = 2 * k + 1) {
+      for (IntersectSelector.Algorithm algorithm
+          : IntersectSelector.Algorithm.values()) {
+        Assert.assertTrue(selector.cost(algorithm, k, 1000000, 0.1) >= 0);
+      }
+    }
+  }
+
+  /**
+   * Tests for the method choose().
+   */
+  @Test
+  public void testChoose() {
+    IntersectSelector selector = createSelector(1, 4, 1);
+    Assert.assertEquals(IntersectSelector.Algorithm.ZIPPER,
+        selector.choose(1000, 1000, 0.1));
+    Assert.assertEquals(IntersectSelector.Algorithm.GALLOPING,
+        selector.choose(10, 60000, 0.1));
+    Assert.assertEquals(IntersectSelector.Algorithm.GALLOPING,
+        selector.choose(60000, 10, 0.1));
+
+    // With the same cost per step, the binary search needs fewer steps for
+    // very different sizes.
+    selector = createSelector(1, 1, 1);
+    Assert.assertEquals(IntersectSelector.Algorithm.BINARY_SEARCH,
+        selector.choose(10, 60000, 0.1));
+
+    // Above the skew and size thresholds, the larger list is probed.
+    Assert.assertEquals(IntersectSelector.Algorithm.PROBE,
+        selector.choose(10, 1000000, 0.1));
+    Assert.assertEquals(IntersectSelector.Algorithm.PROBE,
+        selector.choose(1000000, 0, 0.1));
+    Assert.assertNotEquals(IntersectSelector.Algorithm.PROBE,
+        selector.choose(10000, 1000000, 0.1));
+
+    // With costs per match, like a calibrated selector: 1:1 lists with the
+    // zipper and 1:10^5 lists not.
+    selector = new IntersectSelector(new double[] {1, 4, 2, 0},
+        new double[] {0.5, 0.5, 0.5, 0});
+    Assert.assertEquals(IntersectSelector.Algorithm.ZIPPER,
+        selector.choose(100000, 100000, 0.1));
+    Assert.assertEquals(IntersectSelector.Algorithm.GALLOPING,
+        selector.choose(10, 60000, 0.1));
+    Assert.assertNotEquals(IntersectSelector.Algorithm.ZIPPER,
+        selector.choose(10, 1000000, 0.1));
+  }
+
+  /**
+   * Tests for the method calibrate().
+   */
+  @Test
+  public void testCalibrate() {
+    IntersectSelector selector = IntersectSelector.calibrate();
+    for (IntersectSelector.Algorithm algorithm
+        : IntersectSelector.Algorithm.values()) {
+      if (algorithm != IntersectSelector.Algorithm.PARALLEL
+          && algorithm != IntersectSelector.Algorithm.PROBE) {
+        Assert.assertTrue(selector.perUnit[algorithm.ordinal()] > 0);
+        Assert.assertTrue(selector.perMatch[algorithm.ordinal()] >= 0);
+      }
+    }
+  }
+
+  /**
+   * Tests for the methods save() and load().
+   */
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    File file = File.createTempFile("cost-profile", ".properties");
+    file.deleteOnExit();
+    IntersectSelector selector = new IntersectSelector(
+        new double[] {0.5, 2, 3.25, 0}, new double[] {1, 0, 4, 0});
+    selector.save(file.getPath());
+    IntersectSelector loaded = IntersectSelector.load(file.getPath());
+    Assert.assertEquals(selector.toString(), loaded.toString());
+    Assert.assertEquals(3.25, loaded.perUnit[2], 0);
+    Assert.assertEquals(4, loaded.perMatch[2], 0);
+  }
+
+  /**
+   * Tests load() for a profile that lacks a constant.
+   */
+  @Test
+  public void testLoadIncomplete() throws IOException {
+    File file = File.createTempFile("cost-profile", ".properties");
+    file.deleteOnExit();
+    try (PrintWriter writer = new PrintWriter(file)) {
+      writer.println("zipper.perUnit=0.5");
+      writer.println("zipper.perMatch=1");
+      writer.println("binary_search.perUnit=2");
+    }
+    Assert.assertNull(IntersectSelector.load(file.getPath()));
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * A read-only posting list that is backed by a memory-mapped file in the
+ * binary format written by PostingList.writeToBinaryFile(). Opening the
+ * file only maps it, nothing is parsed or copied to the heap; the operating
+ * system loads the pages when the postings are accessed (and keeps them in
+ * its page cache for the next process).
+ * </p>
+ *
+ * <p>
+ * The list is a PostingListView, so it can be passed as input to all
+ * intersection and union methods of PostingList (intersectSimd() falls back
+ * to the zipper), but not where a list is written to. A file can hold at
+ * most (2^31 - 16) / 8 postings, the maximum size of a single mapping.
+ * </p>
+ */
+public class MappedPostingList extends PostingListView {
+  /**
+   * The ids of the postings (including the sentinel), mapped from the file.
+   */
+  protected IntBuffer mappedIds;
+
+  /**
+   * The scores of the postings (including the sentinel), mapped from the
+   * file.
+   */
+  protected IntBuffer mappedScores;
+
+  /**
+   * Maps the given binary posting list file.
+   *
+   * @param fileName
+   *        The path to the file to map.
+   */
+  public MappedPostingList(String fileName) {
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+            StandardOpenOption.READ)) {
+      // The mapping stays valid after the channel is closed.
+      IntBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          channel.size()).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+      if (buffer.limit() < 2 || buffer.get(0) != BINARY_MAGIC) {
+        throw new IOException("Not a binary posting list file.");
+      }
+      int n = buffer.get(1);
+      if (n < 0 || buffer.limit() != 2 + 2 * (n + 1)) {
+        throw new IOException("Invalid number of postings: " + n);
+      }
+      this.mappedIds = buffer.position(2).slice().limit(n + 1);
+      this.mappedScores = buffer.position(2 + n + 1).slice();
+      this.numPostings = n;
+    } catch (IOException e) {
+      System.err.println("Couldn't read the file: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  // ==========================================================================
+
+  @Override
+  public int getId(int i) {
+    return this.mappedIds.get(i);
+  }
+
+  @Override
+  public int getScore(int i) {
+    return this.mappedScores.get(i);
+  }
+}
@@ -0,0 +1,62 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the MappedPostingList class.
+ */
+public class MappedPostingListTest {
+  /**
+   * Reads the given text file and writes it to a temporary binary file.
+   */
+  private static String toBinaryFile(String fileName) throws IOException {
+    PostingList list = new PostingList();
+    list.readFromFile(fileName);
+    File file = File.createTempFile("MappedPostingListTest", ".bin");
+    file.deleteOnExit();
+    list.writeToBinaryFile(file.getPath());
+    return file.getPath();
+  }
+
+  /**
+   * Tests for the constructor (and PostingList.writeToBinaryFile()).
+   */
+  @Test
+  public void testMappedPostingList() throws IOException {
+    MappedPostingList l1 = new MappedPostingList(toBinaryFile("example1.txt"));
+    MappedPostingList l2 = new MappedPostingList(toBinaryFile("example2.txt"));
+    MappedPostingList l3 = new MappedPostingList(toBinaryFile("example3.txt"));
+    Assert.assertEquals("[(2, 5), (3, 1), (6, 2)]", l1.toString());
+    Assert.assertEquals("[(1, 1), (2, 4), (4, 3), (6, 3)]", l2.toString());
+    Assert.assertEquals("[(5, 1), (7, 2)]", l3.toString());
+    Assert.assertEquals(Integer.MAX_VALUE, l1.getId(l1.size()));
+  }
+
+  /**
+   * Tests the intersection methods of PostingList on mapped lists.
+   */
+  @Test
+  public void testIntersect() throws IOException {
+    MappedPostingList l1 = new MappedPostingList(toBinaryFile("example1.txt"));
+    MappedPostingList l2 = new MappedPostingList(toBinaryFile("example2.txt"));
+    PostingList l3 = new PostingList();
+    l3.readFromFile("example3.txt");
+    Assert.assertEquals("[(2, 9), (6, 5)]",
+        PostingList.intersectBaseline(l1, l2).toString());
+    Assert.assertEquals("[(2, 9), (6, 5)]",
+        PostingList.intersectZipper(l1, l2).toString());
+    Assert.assertEquals("[(2, 9), (6, 5)]",
+        PostingList.intersectGallopingBinarySearch(l1, l2).toString());
+    Assert.assertEquals("[(2, 9), (6, 5)]",
+        PostingList.intersectSimd(l1, l2).toString());
+    Assert.assertEquals("[(2, 9), (6, 5)]",
+        PostingList.intersect(l1, l2).toString());
+    Assert.assertEquals("[]", PostingList.intersect(l1, l3).toString());
+  }
+}
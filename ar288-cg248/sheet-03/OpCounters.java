@@ -0,0 +1,147 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+/**
+ * <p>
+ * Counters of the basic operations of the intersection algorithms, to see
+ * why one algorithm beats another on a given pair of lists: id comparisons
+ * (of the zipper and its variants), galloping steps, binary search steps,
+ * probes of a ProbeIndex and the number of postings written to results.
+ * </p>
+ *
+ * <p>
+ * Counting is off unless the JVM is started with -Dpostinglist.countOps=true.
+ * ENABLED is a static final field, so the JIT compiler treats it as a
+ * constant and removes the counting code entirely if it is off. The counters
+ * are plain static fields, not synchronized: the counts of the parallel
+ * intersection (and of concurrent intersections) are not exact.
+ * </p>
+ */
+public class OpCounters {
+  /**
+   * Whether the operations are counted.
+   */
+  public static final boolean ENABLED = Boolean.getBoolean(
+      "postinglist.countOps");
+
+  /**
+   * The CSV header of the counters, see toCsv().
+   */
+  public static final String CSV_HEADER =
+      "comparisons,gallopSteps,binarySearchSteps,probes,outputSize";
+
+  /**
+   * The number of id comparisons.
+   */
+  protected static long comparisons;
+
+  /**
+   * The number of galloping steps (jumps).
+   */
+  protected static long gallopSteps;
+
+  /**
+   * The number of binary search steps.
+   */
+  protected static long binarySearchSteps;
+
+  /**
+   * The number of probes of a ProbeIndex.
+   */
+  protected static long probes;
+
+  /**
+   * The number of postings written to results.
+   */
+  protected static long outputSize;
+
+  // ==========================================================================
+
+  /**
+   * Counts the given number of id comparisons.
+   *
+   * @param n
+   *        The number of comparisons.
+   */
+  public static void comparisons(int n) {
+    if (ENABLED) {
+      comparisons += n;
+    }
+  }
+
+  /**
+   * Counts one galloping step.
+   */
+  public static void gallopStep() {
+    if (ENABLED) {
+      gallopSteps++;
+    }
+  }
+
+  /**
+   * Counts one binary search step.
+   */
+  public static void binarySearchStep() {
+    if (ENABLED) {
+      binarySearchSteps++;
+    }
+  }
+
+  /**
+   * Counts one probe of a ProbeIndex.
+   */
+  public static void probe() {
+    if (ENABLED) {
+      probes++;
+    }
+  }
+
+  /**
+   * Counts the postings of the given result and returns their number (so it
+   * can wrap the return value of an intersection).
+   *
+   * @param result
+   *        The result of an intersection.
+   *
+   * @return The size of the result.
+   */
+  public static int output(PostingList result) {
+    if (ENABLED) {
+      outputSize += result.size();
+    }
+    return result.size();
+  }
+
+  /**
+   * Sets all counters to 0.
+   */
+  public static void reset() {
+    comparisons = 0;
+    gallopSteps = 0;
+    binarySearchSteps = 0;
+    probes = 0;
+    outputSize = 0;
+  }
+
+  /**
+   * Returns the counters as a line of CSV, in the order of CSV_HEADER.
+   *
+   * @return The CSV line.
+   */
+  public static String toCsv() {
+    return comparisons + "," + gallopSteps + "," + binarySearchSteps + ","
+        + probes + "," + outputSize;
+  }
+
+  /**
+   * Returns the counters in a human-readable form.
+   *
+   * @return The counters.
+   */
+  public static String summary() {
+    return "comparisons: " + comparisons + ", galloping steps: " + gallopSteps
+        + ", binary search steps: " + binarySearchSteps + ", probes: "
+        + probes + ", output: " + outputSize;
+  }
+}
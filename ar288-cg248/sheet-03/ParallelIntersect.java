@@ -0,0 +1,258 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Intersects two (very large) posting lists in parallel. The id space is
+ * split into ranges at every (n / p)-th id of the larger list, and the
+ * matching cut points in the smaller list are found by galloping. The
+ * pairs of ranges are then intersected independently on the common
+ * fork/join pool.
+ * </p>
+ *
+ * <p>
+ * Because the ranges are disjoint and ordered, the results of the
+ * partitions just have to be concatenated (no merge or sort needed). Like
+ * PostingListParser, this is done in two passes: the first counts the
+ * matches of each partition, which gives the position of its first match
+ * in the result (the sum of the counts of the partitions before it), and
+ * the second writes the matches of each partition directly into the
+ * result, without allocating a list per partition.
+ * </p>
+ */
+public class ParallelIntersect {
+  /**
+   * The number of partitions per thread of the pool. More partitions than
+   * threads even out differences in the work per partition.
+   */
+  public static final int PARTITIONS_PER_THREAD = 4;
+
+  /**
+   * Intersects the two given posting lists in parallel, with
+   * PARTITIONS_PER_THREAD partitions per thread of the common pool.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   *
+   * @return The intersection of the two lists.
+   */
+  public static PostingList intersect(PostingListView l1,
+      PostingListView l2) {
+    return intersect(l1, l2, PARTITIONS_PER_THREAD
+        * ForkJoinPool.getCommonPoolParallelism());
+  }
+
+  /**
+   * Intersects the two given posting lists in parallel, with the given
+   * number of partitions.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param numPartitions
+   *        The number of partitions to split the lists into.
+   *
+   * @return The intersection of the two lists.
+   */
+  public static PostingList intersect(PostingListView l1,
+      PostingListView l2, int numPartitions) {
+    PostingList result = new PostingList();
+    intersect(l1, l2, numPartitions, result);
+    return result;
+  }
+
+  /**
+   * Like intersect(l1, l2), but writes the intersection into the given
+   * result (reusing its arrays if they are large enough) instead of into a
+   * new list.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param result
+   *        The list to write the intersection to.
+   *
+   * @return The number of postings in the intersection.
+   */
+  public static int intersect(PostingListView l1, PostingListView l2,
+      PostingList result) {
+    return intersect(l1, l2, PARTITIONS_PER_THREAD
+        * ForkJoinPool.getCommonPoolParallelism(), result);
+  }
+
+  /**
+   * Like intersect(l1, l2, numPartitions), but writes the intersection into
+   * the given result (reusing its arrays if they are large enough) instead
+   * of into a new list.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param numPartitions
+   *        The number of partitions to split the lists into.
+   * @param result
+   *        The list to write the intersection to.
+   *
+   * @return The number of postings in the intersection.
+   */
+  public static int intersect(PostingListView l1, PostingListView l2,
+      int numPartitions, PostingList result) {
+    // Make sure that l1 is the larger list.
+    if (l1.size() < l2.size()) {
+      return intersect(l2, l1, numPartitions, result);
+    }
+    numPartitions = Math.max(1, Math.min(numPartitions, l1.size()));
+
+    // Compute the cut points, cuts1[p] and cuts2[p] are the first positions
+    // of partition p in l1 and l2.
+    int[] cuts1 = new int[numPartitions + 1];
+    int[] cuts2 = new int[numPartitions + 1];
+    for (int p = 1; p < numPartitions; p++) {
+      cuts1[p] = (int) ((long) l1.size() * p / numPartitions);
+      cuts2[p] = PostingList.gallop(l2, cuts2[p - 1], l1.getId(cuts1[p]));
+    }
+    cuts1[numPartitions] = l1.size();
+    cuts2[numPartitions] = l2.size();
+
+    Partition[] partitions = new Partition[numPartitions];
+    for (int p = 0; p < numPartitions; p++) {
+      partitions[p] = new Partition(l1, cuts1[p], cuts1[p + 1], l2, cuts2[p],
+          cuts2[p + 1], result);
+    }
+
+    // First pass: count the matches of each partition.
+    ForkJoinTask.invokeAll(partitions);
+    int size = 0;
+    for (Partition partition : partitions) {
+      partition.offset = size;
+      size += partition.numPostings;
+    }
+
+    // Second pass: write the matches of each partition into the result.
+    result.reset(size);
+    for (Partition partition : partitions) {
+      partition.reinitialize();
+      partition.write = true;
+    }
+    ForkJoinTask.invokeAll(partitions);
+    result.numPostings = size;
+    return size;
+  }
+
+  // ==========================================================================
+
+  /**
+   * The intersection of a range of l1 with a range of l2, with the zipper
+   * algorithm (bounded by the ranges, not by sentinels), which counts or
+   * writes its matches.
+   */
+  protected static class Partition extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The first list.
+     */
+    protected PostingListView l1;
+
+    /**
+     * The range in the first list.
+     */
+    protected int from1;
+    protected int to1;
+
+    /**
+     * The second list.
+     */
+    protected PostingListView l2;
+
+    /**
+     * The range in the second list.
+     */
+    protected int from2;
+    protected int to2;
+
+    /**
+     * The list to write the matches to.
+     */
+    protected PostingList result;
+
+    /**
+     * False for the counting pass, true for the writing pass.
+     */
+    protected boolean write;
+
+    /**
+     * The number of matches of this partition (after the counting pass).
+     */
+    protected int numPostings;
+
+    /**
+     * The position of the first match of this partition in the result.
+     */
+    protected int offset;
+
+    /**
+     * Creates the task for intersecting l1[from1..to1) with l2[from2..to2).
+     *
+     * @param l1
+     *        The first list.
+     * @param from1
+     *        The start of the range in the first list.
+     * @param to1
+     *        The end of the range in the first list.
+     * @param l2
+     *        The second list.
+     * @param from2
+     *        The start of the range in the second list.
+     * @param to2
+     *        The end of the range in the second list.
+     * @param result
+     *        The list to write the matches to.
+     */
+    public Partition(PostingListView l1, int from1, int to1,
+        PostingListView l2, int from2, int to2, PostingList result) {
+      this.l1 = l1;
+      this.from1 = from1;
+      this.to1 = to1;
+      this.l2 = l2;
+      this.from2 = from2;
+      this.to2 = to2;
+      this.result = result;
+    }
+
+    @Override
+    protected void compute() {
+      int[] ids = write ? result.ids : null;
+      int[] scores = write ? result.scores : null;
+      int n = offset;
+      int i1 = from1;
+      int i2 = from2;
+      while (i1 < to1 && i2 < to2) {
+        if (l1.getId(i1) < l2.getId(i2)) {
+          i1++;
+        } else if (l1.getId(i1) > l2.getId(i2)) {
+          i2++;
+        } else {
+          if (write) {
+            ids[n] = l1.getId(i1);
+            scores[n] = l1.getScore(i1) + l2.getScore(i2);
+          }
+          n++;
+          i1++;
+          i2++;
+        }
+      }
+      this.numPostings = n - offset;
+    }
+  }
+}
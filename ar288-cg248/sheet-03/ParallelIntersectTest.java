@@ -0,0 +1,55 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the ParallelIntersect class.
+ */
+public class ParallelIntersectTest {
+  /**
+   * Tests for the method intersect().
+   */
+  @Test
+  public void testIntersect() {
+    PostingList l1 = new PostingList();
+    PostingList l2 = new PostingList();
+    PostingList l3 = new PostingList();
+    l1.readFromFile("example1.txt");
+    l2.readFromFile("example2.txt");
+    l3.readFromFile("example3.txt");
+    Assert.assertEquals("[(2, 9), (6, 5)]",
+        ParallelIntersect.intersect(l1, l2, 2).toString());
+    Assert.assertEquals("[]",
+        ParallelIntersect.intersect(l1, l3, 2).toString());
+
+    // Cut points at, between and outside of the ids of the smaller list, and
+    // more partitions than postings.
+    PostingList l4 = new PostingList();
+    PostingList l5 = new PostingList();
+    l4.reserve(1001);
+    l5.reserve(20001);
+    for (int i = 1; i <= 1000; i++) {
+      l4.addPosting(7 * i, i % 5);
+    }
+    for (int i = 1; i <= 20000; i++) {
+      l5.addPosting(3 * i, i % 3);
+    }
+    l4.addSentinel();
+    l5.addSentinel();
+    String expected = PostingList.intersectBaseline(l4, l5).toString();
+    PostingList result = new PostingList();
+    for (int p : new int[] {1, 3, 7, 64, 50000}) {
+      Assert.assertEquals(expected,
+          ParallelIntersect.intersect(l4, l5, p).toString());
+      Assert.assertEquals(expected,
+          ParallelIntersect.intersect(l5, l4, p).toString());
+      // Into a result that is reused for each number of partitions.
+      Assert.assertEquals(333, ParallelIntersect.intersect(l4, l5, p,
+          result));
+      Assert.assertEquals(expected, result.toString());
+    }
+  }
+}
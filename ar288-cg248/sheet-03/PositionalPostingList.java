@@ -0,0 +1,294 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A posting list that also stores the positions of the word in each
+ * document, for phrase and proximity queries.
+ * </p>
+ *
+ * <p>
+ * The positions of all postings are stored in one byte array, each as the
+ * gap to the previous position of the same posting, variable-byte encoded
+ * (7 bits per byte, the high bit marks the last byte of a number).
+ * positionOffsets[i] is the offset of the positions of the i-th posting, so
+ * they end where the ones of posting i + 1 start. A posting added without
+ * positions (e.g. by readFromFile()) has none.
+ * </p>
+ *
+ * <p>
+ * intersectProximity() first intersects the doc ids with the fast
+ * PostingList.intersect() and then decodes and compares the positions only
+ * of the documents in that intersection.
+ * </p>
+ */
+public class PositionalPostingList extends PostingList {
+  /**
+   * The encoded positions of the postings.
+   */
+  protected byte[] positions = new byte[0];
+
+  /**
+   * The offset of the positions of each posting in positions (plus the
+   * offset behind the positions of the last posting).
+   */
+  protected int[] positionOffsets = new int[1];
+
+  // ==========================================================================
+
+  /**
+   * Returns the documents in which the words of the given lists occur as a
+   * phrase (at consecutive positions, in the given order). The positions of
+   * the result are the positions of the last word, the scores are summed up.
+   * The result is always a new list (a copy of the list for a phrase of one
+   * word), so it can be changed without changing the index.
+   *
+   * @param lists
+   *        The positional lists of the words of the phrase.
+   *
+   * @return The documents containing the phrase.
+   */
+  public static PositionalPostingList intersectPhrase(
+      PositionalPostingList... lists) {
+    if (lists.length == 0) {
+      return new PositionalPostingList();
+    }
+    if (lists.length == 1) {
+      return copy(lists[0]);
+    }
+    PositionalPostingList result = lists[0];
+    for (int i = 1; i < lists.length; i++) {
+      result = intersectProximity(result, lists[i], 1, 1);
+    }
+    return result;
+  }
+
+  /**
+   * Returns a copy of the given list (with sentinel).
+   */
+  private static PositionalPostingList copy(PositionalPostingList list) {
+    PositionalPostingList copy = new PositionalPostingList();
+    copy.reserve(list.size() + 1);
+    System.arraycopy(list.ids, 0, copy.ids, 0, list.size());
+    System.arraycopy(list.scores, 0, copy.scores, 0, list.size());
+    System.arraycopy(list.positionOffsets, 0, copy.positionOffsets, 0,
+        list.size() + 1);
+    copy.positions = Arrays.copyOf(list.positions,
+        list.positionOffsets[list.size()]);
+    copy.numPostings = list.size();
+    copy.addSentinel();
+    return copy;
+  }
+
+  /**
+   * Returns the documents with a position p1 in the first list and a position
+   * p2 in the second list, such that minDistance <= p2 - p1 <= maxDistance.
+   * E.g. (1, 1) is a phrase of the two words, (1, k) the second word at most k
+   * positions behind the first one and (-k, k) the two words at most k
+   * positions apart in any order. The positions of the result are the
+   * matching positions p2, the scores are summed up. The result has a
+   * sentinel, so it can be intersected again (see intersectPhrase()).
+   *
+   * @param l1
+   *        The first positional list.
+   * @param l2
+   *        The second positional list.
+   * @param minDistance
+   *        The minimum distance p2 - p1.
+   * @param maxDistance
+   *        The maximum distance p2 - p1.
+   *
+   * @return The documents with positions in the given distance.
+   */
+  public static PositionalPostingList intersectProximity(
+      PositionalPostingList l1, PositionalPostingList l2, int minDistance,
+      int maxDistance) {
+    // Intersect the doc ids first, most documents fail already there.
+    PostingList docs = PostingList.intersect(l1, l2);
+
+    PositionalPostingList result = new PositionalPostingList();
+    result.reserve(docs.size() + 1);
+    int[] positions1 = new int[16];
+    int[] positions2 = new int[16];
+    int[] matches = new int[16];
+    int i1 = 0;
+    int i2 = 0;
+    for (int j = 0; j < docs.size(); j++) {
+      int id = docs.getId(j);
+      i1 = PostingList.gallop(l1, i1, id);
+      i2 = PostingList.gallop(l2, i2, id);
+      int n1 = l1.numPositions(i1);
+      int n2 = l2.numPositions(i2);
+      if (positions1.length < n1) {
+        positions1 = new int[2 * n1];
+      }
+      if (positions2.length < n2) {
+        positions2 = new int[2 * n2];
+        matches = new int[positions2.length];
+      }
+      l1.getPositions(i1, positions1);
+      l2.getPositions(i2, positions2);
+
+      // For each p2, skip the p1 < p2 - maxDistance (they are also too small
+      // for all following p2), then the first p1 left is the best candidate.
+      int numMatches = 0;
+      int k = 0;
+      for (int m = 0; m < n2; m++) {
+        long p2 = positions2[m];
+        while (k < n1 && positions1[k] < p2 - maxDistance) {
+          k++;
+        }
+        if (k < n1 && positions1[k] <= p2 - minDistance) {
+          matches[numMatches++] = positions2[m];
+        }
+      }
+      if (numMatches > 0) {
+        result.addPosting(id, docs.getScore(j), matches, numMatches);
+      }
+    }
+    result.addSentinel();
+    return result;
+  }
+
+  // ==========================================================================
+
+  @Override
+  public void reserve(int n) {
+    super.reserve(n);
+    this.positionOffsets = new int[n + 1];
+  }
+
+  @Override
+  public void addPosting(int id, int score) {
+    this.positionOffsets[this.numPostings + 1] =
+        this.positionOffsets[this.numPostings];
+    super.addPosting(id, score);
+  }
+
+  /**
+   * Adds the given posting with the given positions to this list.
+   *
+   * @param id
+   *        The id of the posting.
+   * @param score
+   *        The score of the posting.
+   * @param positions
+   *        The positions, in ascending order.
+   * @param numPositions
+   *        The number of positions (from the start of the array).
+   */
+  public void addPosting(int id, int score, int[] positions,
+      int numPositions) {
+    int pos = this.positionOffsets[this.numPostings];
+    // A position takes at most 5 bytes.
+    if (this.positions.length < pos + 5 * numPositions) {
+      this.positions = Arrays.copyOf(this.positions,
+          Math.max(2 * this.positions.length, pos + 5 * numPositions));
+    }
+    int previous = 0;
+    for (int i = 0; i < numPositions; i++) {
+      pos = encode(positions[i] - previous,
+          this.positions, pos);
+      previous = positions[i];
+    }
+    this.positionOffsets[this.numPostings + 1] = pos;
+    super.addPosting(id, score);
+  }
+
+  /**
+   * Variable-byte encodes the given number: 7 bits per byte, least
+   * significant bits first, with the high bit set in the last byte.
+   *
+   * @param value
+   *        The number to encode (treated as unsigned).
+   * @param buffer
+   *        The buffer to write the bytes to.
+   * @param pos
+   *        The position in the buffer to write the first byte to.
+   *
+   * @return The position behind the last byte written.
+   */
+  protected static int encode(int value, byte[] buffer, int pos) {
+    while ((value & ~0x7F) != 0) {
+      buffer[pos++] = (byte) (value & 0x7F);
+      value >>>= 7;
+    }
+    buffer[pos++] = (byte) (value | 0x80);
+    return pos;
+  }
+
+  /**
+   * Returns the number of positions of the i-th posting.
+   *
+   * @param i
+   *        The index of the posting.
+   *
+   * @return The number of positions.
+   */
+  public int numPositions(int i) {
+    // The last byte of each number has the high bit set.
+    int count = 0;
+    for (int pos = positionOffsets[i]; pos < positionOffsets[i + 1]; pos++) {
+      count += this.positions[pos] < 0 ? 1 : 0;
+    }
+    return count;
+  }
+
+  /**
+   * Decodes the positions of the i-th posting into the given buffer, which
+   * must have space for numPositions(i) positions.
+   *
+   * @param i
+   *        The index of the posting.
+   * @param buffer
+   *        The buffer to write the positions to.
+   *
+   * @return The number of positions.
+   */
+  public int getPositions(int i, int[] buffer) {
+    byte[] data = this.positions;
+    int pos = positionOffsets[i];
+    int end = positionOffsets[i + 1];
+    int n = 0;
+    int position = 0;
+    while (pos < end) {
+      int gap = 0;
+      int shift = 0;
+      byte next;
+      while ((next = data[pos++]) >= 0) {
+        gap |= next << shift;
+        shift += 7;
+      }
+      position += gap | (next & 0x7F) << shift;
+      buffer[n++] = position;
+    }
+    return n;
+  }
+
+  /**
+   * Returns the positions of the i-th posting.
+   *
+   * @param i
+   *        The index of the posting.
+   *
+   * @return The positions.
+   */
+  public int[] getPositions(int i) {
+    int[] buffer = new int[numPositions(i)];
+    getPositions(i, buffer);
+    return buffer;
+  }
+
+  /**
+   * Returns the (approximate) number of bytes needed by the positions of
+   * this list.
+   *
+   * @return The number of bytes.
+   */
+  public long positionsSizeInBytes() {
+    return positionOffsets[size()] + 4L * (size() + 1);
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the PositionalPostingList
+ * class.
+ */
+public class PositionalPostingListTest {
+  /**
+   * Returns the positional list of the given word in the given documents
+   * (the doc id is the index, the score the number of occurrences).
+   */
+  private static PositionalPostingList createList(String word,
+      String... docs) {
+    PositionalPostingList list = new PositionalPostingList();
+    list.reserve(docs.length + 1);
+    for (int id = 0; id < docs.length; id++) {
+      String[] words = docs[id].split(" ");
+      int[] positions = new int[words.length];
+      int n = 0;
+      for (int p = 0; p < words.length; p++) {
+        if (words[p].equals(word)) {
+          positions[n++] = p;
+        }
+      }
+      if (n > 0) {
+        list.addPosting(id, n, positions, n);
+      }
+    }
+    list.addSentinel();
+    return list;
+  }
+
+  /**
+   * The documents of the tests.
+   */
+  private static final String[] DOCS = {
+    "new york is a big city",
+    "york is new",
+    "the new big york and new york",
+    "new new york",
+    "nothing here",
+  };
+
+  /**
+   * Tests for the methods addPosting() and getPositions().
+   */
+  @Test
+  public void testPositions() {
+    PositionalPostingList list = createList("new", DOCS);
+    Assert.assertEquals("[(0, 1), (1, 1), (2, 2), (3, 2)]", list.toString());
+    Assert.assertEquals("[1, 5]", Arrays.toString(list.getPositions(2)));
+    Assert.assertEquals(2, list.numPositions(3));
+
+    // Large positions (gaps of several bytes) and a posting without any.
+    list.reset(3);
+    list.addPosting(7, 1, new int[] {0, 127, 128, 100000, 1 << 30}, 5);
+    list.addPosting(8, 1);
+    list.addPosting(9, 1, new int[] {3}, 1);
+    Assert.assertEquals("[0, 127, 128, 100000, 1073741824]",
+        Arrays.toString(list.getPositions(0)));
+    Assert.assertEquals("[]", Arrays.toString(list.getPositions(1)));
+    Assert.assertEquals("[3]", Arrays.toString(list.getPositions(2)));
+  }
+
+  /**
+   * Tests for the method intersectProximity().
+   */
+  @Test
+  public void testIntersectProximity() {
+    PositionalPostingList newList = createList("new", DOCS);
+    PositionalPostingList york = createList("york", DOCS);
+
+    // "new york" as a phrase.
+    PositionalPostingList result = PositionalPostingList.intersectProximity(
+        newList, york, 1, 1);
+    Assert.assertEquals("[(0, 2), (2, 4), (3, 3)]", result.toString());
+    Assert.assertEquals("[6]", Arrays.toString(result.getPositions(1)));
+
+    // "york" at most two positions behind "new".
+    result = PositionalPostingList.intersectProximity(newList, york, 1, 2);
+    Assert.assertEquals("[(0, 2), (2, 4), (3, 3)]", result.toString());
+    Assert.assertEquals("[3, 6]", Arrays.toString(result.getPositions(1)));
+
+    // "new" and "york" at most two positions apart, in any order.
+    result = PositionalPostingList.intersectProximity(newList, york, -2, 2);
+    Assert.assertEquals("[(0, 2), (1, 2), (2, 4), (3, 3)]", result.toString());
+  }
+
+  /**
+   * Tests for the method intersectPhrase().
+   */
+  @Test
+  public void testIntersectPhrase() {
+    PositionalPostingList result = PositionalPostingList.intersectPhrase(
+        createList("new", DOCS), createList("new", DOCS),
+        createList("york", DOCS));
+    Assert.assertEquals("[(3, 5)]", result.toString());
+    Assert.assertEquals("[2]", Arrays.toString(result.getPositions(0)));
+    Assert.assertEquals("[]", PositionalPostingList.intersectPhrase(
+        createList("york", DOCS), createList("new", DOCS),
+        createList("york", DOCS)).toString());
+
+    // A phrase of one word is a copy of its list.
+    PositionalPostingList york = createList("york", DOCS);
+    result = PositionalPostingList.intersectPhrase(york);
+    Assert.assertNotSame(york, result);
+    Assert.assertEquals(york.toString(), result.toString());
+    Assert.assertEquals(Integer.MAX_VALUE, result.getId(result.size()));
+    for (int i = 0; i < york.size(); i++) {
+      Assert.assertArrayEquals(york.getPositions(i), result.getPositions(i));
+    }
+    String expected = york.toString();
+    result.addPosting(100, 1, new int[] {7}, 1);
+    Assert.assertEquals(expected, york.toString());
+    Assert.assertEquals(Integer.MAX_VALUE, york.getId(york.size()));
+  }
+}
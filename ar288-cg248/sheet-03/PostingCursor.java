@@ -0,0 +1,357 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <p>
+ * A cursor over the postings of a posting list or of a query (an AND or OR
+ * of other cursors), which computes the postings one by one on demand. So
+ * a query that only needs the first results stops as soon as it has them,
+ * instead of materializing the whole result of every intersection.
+ * </p>
+ *
+ * <p>
+ * A cursor starts before its first posting (id() returns -1). next() moves
+ * to the next posting, advance(target) to the first posting with an id >=
+ * target (and never backwards). Both return the new id, or NO_MORE_IDS if
+ * there is none.
+ * </p>
+ *
+ * <pre>
+ * PostingCursor query = PostingCursor.and(l1.cursor(),
+ *     PostingCursor.or(l2.cursor(), l3.cursor()));
+ * PostingList top10 = query.collect(10);
+ * </pre>
+ */
+public abstract class PostingCursor {
+  /**
+   * The id of a cursor behind its last posting.
+   */
+  public static final int NO_MORE_IDS = Integer.MAX_VALUE;
+
+  /**
+   * Returns the id of the current posting (-1 before the first call of
+   * next() or advance(), NO_MORE_IDS behind the last posting).
+   *
+   * @return The id of the current posting.
+   */
+  public abstract int id();
+
+  /**
+   * Moves to the next posting.
+   *
+   * @return The id of the next posting, or NO_MORE_IDS.
+   */
+  public abstract int next();
+
+  /**
+   * Moves to the first posting with an id >= target. Stays at the current
+   * posting if its id is >= target already.
+   *
+   * @param target
+   *        The id to move to.
+   *
+   * @return The id of the posting moved to, or NO_MORE_IDS.
+   */
+  public abstract int advance(int target);
+
+  /**
+   * Returns the score of the current posting.
+   *
+   * @return The score of the current posting.
+   */
+  public abstract int score();
+
+  /**
+   * Returns an upper bound for the number of postings of this cursor (used
+   * to order the cursors of an AND).
+   *
+   * @return The upper bound.
+   */
+  public abstract long cost();
+
+  /**
+   * Collects the next (at most) limit postings of this cursor into a list
+   * (with sentinel).
+   *
+   * @param limit
+   *        The maximum number of postings to collect.
+   *
+   * @return The list of postings.
+   */
+  public PostingList collect(int limit) {
+    PostingList result = new PostingList();
+    result.reserve((int) Math.min(limit, cost()) + 1);
+    while (result.size() < limit && next() != NO_MORE_IDS) {
+      result.addPosting(id(), score());
+    }
+    result.addSentinel();
+    return result;
+  }
+
+  // ==========================================================================
+
+  /**
+   * Returns a cursor over the given posting list.
+   *
+   * @param list
+   *        The posting list.
+   *
+   * @return The cursor.
+   */
+  public static PostingCursor of(PostingListView list) {
+    return new ListCursor(list);
+  }
+
+  /**
+   * Returns a cursor over the postings contained in all given cursors (with
+   * the scores summed up).
+   *
+   * @param cursors
+   *        The cursors (not positioned yet).
+   *
+   * @return The cursor.
+   */
+  public static PostingCursor and(PostingCursor... cursors) {
+    return new AndCursor(cursors);
+  }
+
+  /**
+   * Returns a cursor over the postings contained in any of the given
+   * cursors (with the scores of equal ids summed up).
+   *
+   * @param cursors
+   *        The cursors (not positioned yet).
+   *
+   * @return The cursor.
+   */
+  public static PostingCursor or(PostingCursor... cursors) {
+    return new OrCursor(cursors);
+  }
+
+  // ==========================================================================
+
+  /**
+   * A cursor over a posting list. advance() gallops from the current
+   * position.
+   */
+  protected static class ListCursor extends PostingCursor {
+    /**
+     * The posting list.
+     */
+    protected PostingListView list;
+
+    /**
+     * The current position in the list.
+     */
+    protected int pos = -1;
+
+    /**
+     * The id of the current posting.
+     */
+    protected int id = -1;
+
+    /**
+     * Creates a cursor over the given list.
+     *
+     * @param list
+     *        The posting list.
+     */
+    public ListCursor(PostingListView list) {
+      this.list = list;
+    }
+
+    @Override
+    public int id() {
+      return id;
+    }
+
+    @Override
+    public int next() {
+      pos = Math.min(pos + 1, list.size());
+      return id = pos < list.size() ? list.getId(pos) : NO_MORE_IDS;
+    }
+
+    @Override
+    public int advance(int target) {
+      if (id >= target) {
+        return id;
+      }
+      pos = PostingList.gallop(list, Math.max(pos, 0), target);
+      return id = pos < list.size() ? list.getId(pos) : NO_MORE_IDS;
+    }
+
+    @Override
+    public int score() {
+      return list.getScore(pos);
+    }
+
+    @Override
+    public long cost() {
+      return list.size();
+    }
+  }
+
+  /**
+   * The AND of several cursors. The cursor with the fewest postings leads:
+   * each of its ids is a candidate, the others are advanced to it. If one of
+   * them overshoots, the lead is advanced to the id found there, so the
+   * cursors leapfrog each other like in PostingList.intersectAll().
+   */
+  protected static class AndCursor extends PostingCursor {
+    /**
+     * The cursors, ordered by cost (the first one leads).
+     */
+    protected PostingCursor[] cursors;
+
+    /**
+     * The id of the current posting.
+     */
+    protected int id = -1;
+
+    /**
+     * Creates the AND of the given cursors.
+     *
+     * @param cursors
+     *        The cursors (not positioned yet).
+     */
+    public AndCursor(PostingCursor... cursors) {
+      this.cursors = cursors.clone();
+      Arrays.sort(this.cursors, Comparator.comparingLong(PostingCursor::cost));
+    }
+
+    @Override
+    public int id() {
+      return id;
+    }
+
+    @Override
+    public int next() {
+      return id = align(cursors.length == 0 ? NO_MORE_IDS
+          : cursors[0].next());
+    }
+
+    @Override
+    public int advance(int target) {
+      if (id >= target) {
+        return id;
+      }
+      return id = align(cursors.length == 0 ? NO_MORE_IDS
+          : cursors[0].advance(target));
+    }
+
+    /**
+     * Advances the other cursors to the given candidate of the lead, until
+     * all are on the same id.
+     */
+    private int align(int candidate) {
+      int i = 1;
+      while (candidate != NO_MORE_IDS && i < cursors.length) {
+        int other = cursors[i].advance(candidate);
+        if (other > candidate) {
+          candidate = cursors[0].advance(other);
+          i = 1;
+        } else {
+          i++;
+        }
+      }
+      return candidate;
+    }
+
+    @Override
+    public int score() {
+      int score = 0;
+      for (PostingCursor cursor : cursors) {
+        score += cursor.score();
+      }
+      return score;
+    }
+
+    @Override
+    public long cost() {
+      return cursors.length == 0 ? 0 : cursors[0].cost();
+    }
+  }
+
+  /**
+   * The OR of several cursors. The current id is the smallest id of the
+   * cursors; next() moves all cursors on it. Each step looks at all cursors,
+   * which is fine for the few words of a query (see PostingList.union() for
+   * many lists).
+   */
+  protected static class OrCursor extends PostingCursor {
+    /**
+     * The cursors.
+     */
+    protected PostingCursor[] cursors;
+
+    /**
+     * The id of the current posting.
+     */
+    protected int id = -1;
+
+    /**
+     * Creates the OR of the given cursors.
+     *
+     * @param cursors
+     *        The cursors (not positioned yet).
+     */
+    public OrCursor(PostingCursor... cursors) {
+      this.cursors = cursors.clone();
+    }
+
+    @Override
+    public int id() {
+      return id;
+    }
+
+    @Override
+    public int next() {
+      return id = advanceAll(id == -1 ? -1 : id + 1);
+    }
+
+    @Override
+    public int advance(int target) {
+      if (id >= target) {
+        return id;
+      }
+      return id = advanceAll(target);
+    }
+
+    /**
+     * Advances all cursors to the given target (or just to their first
+     * posting if it is -1) and returns the smallest id.
+     */
+    private int advanceAll(int target) {
+      int min = NO_MORE_IDS;
+      for (PostingCursor cursor : cursors) {
+        int other = target == -1 ? cursor.next() : cursor.advance(target);
+        min = Math.min(min, other);
+      }
+      return min;
+    }
+
+    @Override
+    public int score() {
+      int score = 0;
+      for (PostingCursor cursor : cursors) {
+        if (cursor.id() == id) {
+          score += cursor.score();
+        }
+      }
+      return score;
+    }
+
+    @Override
+    public long cost() {
+      long cost = 0;
+      for (PostingCursor cursor : cursors) {
+        cost += cursor.cost();
+      }
+      return cost;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the PostingCursor class.
+ */
+public class PostingCursorTest {
+  /**
+   * Returns the list of the multiples of m up to max (with score 1).
+   */
+  private static PostingList multiples(int m, int max) {
+    PostingList list = new PostingList();
+    list.reserve(max / m + 1);
+    for (int id = m; id <= max; id += m) {
+      list.addPosting(id, 1);
+    }
+    list.addSentinel();
+    return list;
+  }
+
+  /**
+   * Tests for the methods next() and advance() of a list cursor.
+   */
+  @Test
+  public void testListCursor() {
+    PostingList l1 = new PostingList();
+    l1.readFromFile("example1.txt");
+    PostingCursor cursor = l1.cursor();
+    Assert.assertEquals(-1, cursor.id());
+    Assert.assertEquals(2, cursor.next());
+    Assert.assertEquals(5, cursor.score());
+    Assert.assertEquals(2, cursor.advance(1));
+    Assert.assertEquals(6, cursor.advance(4));
+    Assert.assertEquals(2, cursor.score());
+    Assert.assertEquals(PostingCursor.NO_MORE_IDS, cursor.next());
+    Assert.assertEquals(PostingCursor.NO_MORE_IDS, cursor.next());
+
+    cursor = l1.cursor();
+    Assert.assertEquals(3, cursor.advance(3));
+    Assert.assertEquals(PostingCursor.NO_MORE_IDS, cursor.advance(7));
+    Assert.assertEquals(PostingCursor.NO_MORE_IDS,
+        new PostingList().cursor().next());
+  }
+
+  /**
+   * Tests for the method and().
+   */
+  @Test
+  public void testAnd() {
+    PostingList l1 = new PostingList();
+    PostingList l2 = new PostingList();
+    PostingList l3 = new PostingList();
+    l1.readFromFile("example1.txt");
+    l2.readFromFile("example2.txt");
+    l3.readFromFile("example3.txt");
+    Assert.assertEquals("[(2, 9), (6, 5)]",
+        PostingCursor.and(l1.cursor(), l2.cursor()).collect(10).toString());
+    Assert.assertEquals("[]", PostingCursor.and(l1.cursor(), l2.cursor(),
+        l3.cursor()).collect(10).toString());
+    Assert.assertEquals("[]", PostingCursor.and().collect(10).toString());
+
+    // Multiples of 2, 3 and 5 => multiples of 30, against intersectAll().
+    PostingList l4 = multiples(2, 6000);
+    PostingList l5 = multiples(3, 6000);
+    PostingList l6 = multiples(5, 6000);
+    Assert.assertEquals(PostingList.intersectAll(l4, l5, l6).toString(),
+        PostingCursor.and(l4.cursor(), l5.cursor(), l6.cursor())
+            .collect(Integer.MAX_VALUE).toString());
+
+    // Advance and stop early.
+    PostingCursor cursor = PostingCursor.and(l4.cursor(), l5.cursor(),
+        l6.cursor());
+    Assert.assertEquals(60, cursor.advance(31));
+    Assert.assertEquals(3, cursor.score());
+    Assert.assertEquals(90, cursor.next());
+    Assert.assertEquals("[(120, 3), (150, 3)]", cursor.collect(2).toString());
+  }
+
+  /**
+   * Tests for the method or().
+   */
+  @Test
+  public void testOr() {
+    PostingList l1 = new PostingList();
+    PostingList l2 = new PostingList();
+    PostingList l3 = new PostingList();
+    l1.readFromFile("example1.txt");
+    l2.readFromFile("example2.txt");
+    l3.readFromFile("example3.txt");
+    Assert.assertEquals("[(1, 1), (2, 9), (3, 1), (4, 3), (5, 1), (6, 5), "
+        + "(7, 2)]", PostingCursor.or(l1.cursor(), l2.cursor(), l3.cursor())
+            .collect(10).toString());
+    Assert.assertEquals("[(1, 1), (2, 9), (3, 1)]", PostingCursor.or(
+        l1.cursor(), l2.cursor(), l3.cursor()).collect(3).toString());
+    Assert.assertEquals("[]", PostingCursor.or().collect(10).toString());
+
+    // Against union(), and nested in an AND: multiples of 6 or 10 that are
+    // multiples of 5 => multiples of 10 or 30.
+    PostingList l4 = multiples(6, 3000);
+    PostingList l5 = multiples(10, 3000);
+    PostingList l6 = multiples(5, 3000);
+    Assert.assertEquals(PostingList.union(l4, l5).toString(),
+        PostingCursor.or(l4.cursor(), l5.cursor())
+            .collect(Integer.MAX_VALUE).toString());
+    PostingList expected = PostingList.intersectAll(PostingList.union(l4, l5),
+        l6);
+    Assert.assertEquals(expected.toString(), PostingCursor.and(
+        PostingCursor.or(l4.cursor(), l5.cursor()), l6.cursor())
+            .collect(Integer.MAX_VALUE).toString());
+
+    PostingCursor cursor = PostingCursor.or(l4.cursor(), l5.cursor());
+    Assert.assertEquals(60, cursor.advance(55));
+    Assert.assertEquals(2, cursor.score());
+    Assert.assertEquals(66, cursor.next());
+    Assert.assertEquals(1, cursor.score());
+  }
+}
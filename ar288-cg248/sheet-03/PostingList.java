@@ -2,17 +2,52 @@
 // Chair of Algorithms and Data Structures.
 // Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.charset.Charset;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
 
 
 /**
- * A list of postings of form (docId, score).
+ * A list of postings of form (docId, score), backed by arrays. The
+ * intersection and union methods take their input lists as PostingListView,
+ * so they also work on read-only lists like MappedPostingList.
  */
-public class PostingList {
+public class PostingList extends PostingListView {
+  /**
+   * Whether the Java Vector API (module jdk.incubator.vector) is available,
+   * see intersectSimd().
+   */
+  protected static final boolean VECTOR_API = ModuleLayer.boot()
+      .findModule("jdk.incubator.vector").isPresent();
+
+  /**
+   * The minimum size of the smaller list for which intersect() switches to
+   * the parallel intersection (if the zipper would be used and there is more
+   * than one thread in the common fork/join pool). Can be set with the
+   * system property "postinglist.parallelThreshold".
+   */
+  protected static int parallelThreshold = Integer.getInteger(
+      "postinglist.parallelThreshold", 1 << 20);
+
+  /**
+   * The minimum ratio of the sizes of the larger and the smaller list for
+   * which intersect() probes the ids of the smaller list in the ProbeIndex
+   * of the larger one. Can be set with the system property
+   * "postinglist.probeSkew".
+   */
+  protected static int probeSkewThreshold = Integer.getInteger(
+      "postinglist.probeSkew", 256);
+
+  /**
+   * The minimum size of the larger list for which intersect() probes (only
+   * the lists of frequent terms are worth building and caching a ProbeIndex
+   * for). Can be set with the system property "postinglist.probeMinSize".
+   */
+  protected static int probeMinSize = Integer.getInteger(
+      "postinglist.probeMinSize", 1 << 16);
+
   /**
    * The docIds of the postings in this list.
    */
@@ -28,11 +63,6 @@ public class PostingList {
    */
   protected int capacity;
 
-  /**
-   * The number of postings in this list.
-   */
-  protected int numPostings;
-
   // ==========================================================================
 
   /**
@@ -42,34 +72,24 @@ public class PostingList {
    *        The path to the file to read.
    */
   public void readFromFile(String fileName) {
-    Charset charset = Charset.forName("UTF-8");
-    try (BufferedReader br = Files.newBufferedReader(Paths.get(fileName),
-            charset)) {
-      // Read the number of postings in the file from the first line.
-      int numPostings = Integer.parseInt(br.readLine());
-
-      // Reserve enough space for the postings.
-      reserve(numPostings + 1);
-
-      // Read the file line by line, each in the format <id>WHITESPACE<score>.
-      String line;
-      while ((line = br.readLine()) != null) {
-        // Split the line into <id> and <score>.
-        String[] parts = line.split("\\s+");
-        int id = Integer.parseInt(parts[0]);
-        int score = Integer.parseInt(parts[1]);
-
-        // Add the posting (id, score) to this list.
-        addPosting(id, score);
-      }
-      addPosting(Integer.MAX_VALUE, 0);
-      this.numPostings = this.numPostings - 1;
+    try {
+      PostingListParser.parse(fileName, this);
     } catch (IOException e) {
       System.err.println("Couldn't read the file: " + e.getMessage());
       System.exit(1);
     }
   }
 
+  @Override
+  protected void writeIds(IntBuffer buffer) {
+    buffer.put(this.ids, 0, size());
+  }
+
+  @Override
+  protected void writeScores(IntBuffer buffer) {
+    buffer.put(this.scores, 0, size());
+  }
+
   // ==========================================================================
 
   /**
@@ -82,14 +102,36 @@ public class PostingList {
    *
    * @return The intersection of the two lists.
    */
-  public static PostingList intersectBaseline(PostingList l1, PostingList l2) {
+  public static PostingList intersectBaseline(PostingListView l1,
+      PostingListView l2) {
     PostingList result = new PostingList();
-    result.reserve(Math.min(l1.size(), l2.size()));
+    intersectBaseline(l1, l2, result);
+    return result;
+  }
+
+  /**
+   * Like intersectBaseline(l1, l2), but writes the intersection into the given
+   * result (reusing its arrays if they are large enough) instead of into a new
+   * list.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param result
+   *        The list to write the intersection to.
+   *
+   * @return The number of postings in the intersection.
+   */
+  public static int intersectBaseline(PostingListView l1,
+      PostingListView l2, PostingList result) {
+    result.reset(Math.min(l1.size(), l2.size()));
 
     int i1 = 0;
     int i2 = 0;
     while (i1 < l1.size() && i2 < l2.size()) {
       while (i1 < l1.size() && l1.getId(i1) < l2.getId(i2)) {
+        OpCounters.comparisons(1);
         i1++;
       }
 
@@ -98,6 +140,7 @@ public class PostingList {
       }
 
       while (i2 < l2.size() && l2.getId(i2) < l1.getId(i1)) {
+        OpCounters.comparisons(1);
         i2++;
       }
 
@@ -105,13 +148,14 @@ public class PostingList {
         break;
       }
 
+      OpCounters.comparisons(1);
       if (l1.getId(i1) == l2.getId(i2)) {
         result.addPosting(l1.getId(i1), l1.getScore(i1) + l2.getScore(i2));
         i1++;
         i2++;
       }
     }
-    return result;
+    return OpCounters.output(result);
   }
 
   // Implement a new method for intersecting two posting lists that
@@ -125,119 +169,85 @@ public class PostingList {
   // implementation.
 
   /**
-   * <p>
-   * Intersects the two given posting lists using an improved algorithm that
-   * choses from four non-trivial ideas presented in the lecture.
-   * </p>
+   * Intersects the two given posting lists with the algorithm that is
+   * expected to be the fastest for their sizes, see IntersectSelector.
    *
-   * <p>
-   *     Note: I just noticed that I have runtime issues related to the
-   *     halting problem. My runtime calculations don't take this into account!
-   * </p>
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
    *
-   * <p>
-   * 1. Sentinels.
-   * 2. BinarySearch (with sentinels and recursive).
-   * 3. BinarySearch with shifting lower bound.
-   * 4. Galloping binary search.
-   *</p>
+   * @return The intersection of the two lists.
+   */
+  public static PostingList intersect(PostingListView l1,
+      PostingListView l2) {
+    return intersect(l1, l2, IntersectSelector.DEFAULT_SELECTIVITY);
+  }
+
+  /**
+   * Intersects the two given posting lists with the algorithm that is
+   * expected to be the fastest for their sizes and the given selectivity,
+   * see IntersectSelector.
    *
    * @param l1
    *        The first posting list.
    * @param l2
    *        The second posting list.
+   * @param selectivity
+   *        The expected fraction of the smaller list that is in the result.
    *
    * @return The intersection of the two lists.
    */
-  public static PostingList intersect(PostingList l1, PostingList l2) {
-
-    double n = 0;
-    double k = 0;
-
-    int sw = 3;
-
-    if (l1.size() < l2.size()) {
-      k = l1.size();
-      n = l2.size();
-
-    } else {
-      k = l2.size();
-      n = l1.size();
-    }
-
-    // time of 0
-    double zipWorst = n + k;
-
-    // time of 1 and 2
-    // double binBest = k * (Math.log(n) / Math.log(2));
-    double binWorst = k * (Math.log(n - k) / Math.log(2));
-
-    // time of 1 and 2
-    double gallopingBin = k * (Math.log(n) / Math.log(2) - k);
-
-    double best = Math.min(zipWorst, binWorst);
-    best = Math.min(best, gallopingBin);
-
-    // Highest complexity (not assymptotic complexity).
-    if (gallopingBin == best) {
-      sw = 3;
-    }
-
-    // Medium complexity (not assymptotic complexity).
-    if (binWorst == best) {
-      // 1 or 2, whichever is faster...
-      sw = 2;
-    }
-
-    // Smallest complexity (not assymptotic complexity).
-    if (zipWorst == best) {
-      sw = 0;
-    }
+  public static PostingList intersect(PostingListView l1,
+      PostingListView l2,
+      double selectivity) {
+    PostingList result = new PostingList();
+    intersect(l1, l2, selectivity, result);
+    return result;
+  }
 
-    // sw = 0;
-
-    switch (sw) {
-      // Recursive binary search.
-      // Makes use of a shrinking list to be searched
-      // => better than O(k * log_2(n)) and worse than O(k * log_2(n - k)):
-      case 1 :
-        int i1 = 0;
-        int lb = 0;
-        int ub = l2.size();
-        int mb = (ub + lb) / 2;
-
-        PostingList result = new PostingList();
-        result.reserve(Math.min(l1.size(), l2.size()));
-        return intersectBinarySearchRecursive(l1, l2, i1, lb, ub, mb, result,
-                0, 0);
-
-      // Binary search with loops instead of recursion.
-      // Makes use of a shrinking list to be searched
-      // => better than O(k * log_2(n)) and worse than O(k * log_2(n - k)):
-      case 2 :
-        return intersectBinarySearchUsingSentinels(l1, l2);
-
-      // Galloping binary search.
-      // The run time is: O(k * (2*log_2(n) - 1)) = O(k * log_2(n) - k)
-      // => Assymptotically always better than galloping linear search.
-      // => Assymptotically also always better than the linear search.
-      case 3:
-        return intersectGallopingBinarySearch(l1, l2);
-
-      default :
-        break;
+  /**
+   * Like intersect(l1, l2, selectivity), but writes the intersection into
+   * the given result (reusing its arrays if they are large enough) instead
+   * of into a new list. No memory is allocated once the result is large
+   * enough (except for the tasks of the parallel intersection).
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param selectivity
+   *        The expected fraction of the smaller list that is in the result.
+   * @param result
+   *        The list to write the intersection to.
+   *
+   * @return The number of postings in the intersection.
+   */
+  public static int intersect(PostingListView l1, PostingListView l2,
+      double selectivity, PostingList result) {
+    switch (IntersectSelector.get().choose(l1.size(), l2.size(),
+        selectivity)) {
+      case BINARY_SEARCH:
+        return intersectBinarySearchUsingSentinels(l1, l2, result);
+      case GALLOPING:
+        return intersectGallopingBinarySearch(l1, l2, result);
+      case PROBE:
+        return intersectProbe(l1, l2, result);
+      case PARALLEL:
+        return ParallelIntersect.intersect(l1, l2, result);
+      default:
+        // O(n + k), but n ids at once with SIMD (if available).
+        return intersectSimd(l1, l2, result);
     }
-
-    // Worst case: O(n + k)
-    return intersectZipper(l1, l2);
   }
 
   /**
    * <p>
    * Intersect the binary two posting lists using a binary search. Sentinels
-   * are also used, but it was not possible to completely avoid if
-   * statements because control variables were needed to avoid getting stuck
-   * in loops. The lists are swapped if l1 is longer than l2...</p>
+   * are also used: the sentinel of l1 ends the outer loop, and the sentinel
+   * of l2 (at position l2.size()) is larger than any id searched for, so the
+   * search range always contains a position with an id >= the searched id.
+   * The lists are swapped if l1 is longer than l2...</p>
    *
    * <p>
    * Worst case scenario:
@@ -259,162 +269,294 @@ public class PostingList {
    * PostingList intersection of the two PostingLists l1 and l2.
    */
   public static PostingList intersectBinarySearchUsingSentinels(
-          PostingList l1,
-          PostingList
-                  l2)  {
+      PostingListView l1, PostingListView l2) {
+    PostingList result = new PostingList();
+    intersectBinarySearchUsingSentinels(l1, l2, result);
+    return result;
+  }
+
+  /**
+   * Like intersectBinarySearchUsingSentinels(l1, l2), but writes the
+   * intersection into the given result (reusing its arrays if they are large
+   * enough) instead of into a new list.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param result
+   *        The list to write the intersection to.
+   *
+   * @return The number of postings in the intersection.
+   */
+  public static int intersectBinarySearchUsingSentinels(
+      PostingListView l1, PostingListView l2, PostingList result) {
     // Swap to make sure l1 is smaller.
     if (l1.size() > l2.size()) {
-      return intersectBinarySearchUsingSentinels(l2, l1);
+      return intersectBinarySearchUsingSentinels(l2, l1, result);
     }
 
     int i1 = 0;
     int lb = 0;
-    int ub = l2.size();
+    int ub;
     int mb;
-    int old;
-    int switches = 0;
 
-    PostingList result = new PostingList();
-    result.reserve(l1.size());
+    result.reset(l1.size());
 
     while (l1.getId(i1) < Integer.MAX_VALUE) {
-      switches = 0;
-      mb = (ub + lb) / 2;
-      System.out.println("    lb: " + lb + "    mb " + mb + "    ub " + ub);
-      while (l2.getId(mb) - l1.getId(i1) != 0 && switches < 2) {
-
-        while (l1.getId(i1) < l2.getId(mb) && switches < 2) {
-          old = mb;
-          mb = (lb + mb) / 2;
-
-          if (old - mb < 2) {
-            switches++;
-          }
-        }
-
-        while (l1.getId(i1) > l2.getId(mb) && switches < 2) {
-          old = mb;
-          mb = (ub + mb) / 2;
-
-          if (mb - old < 2) {
-            switches++;
-          }
+      // Search for the first position in l2[lb..l2.size()] with an id >=
+      // l1.getId(i1).
+      ub = l2.size();
+      while (lb < ub) {
+        mb = (lb + ub) >>> 1;
+        OpCounters.binarySearchStep();
+        if (l2.getId(mb) < l1.getId(i1)) {
+          lb = mb + 1;
+        } else {
+          ub = mb;
         }
       }
 
-      System.out.println("l1: " + l1.getId(i1));
-      System.out.println("l2: " + l2.getId(mb));
-
-      if (l1.getId(i1) == l2.getId(mb)) {
-        result.addPosting(l1.getId(i1), l1.getScore(i1) + l2.getScore(mb));
-
-        // Only search the remainder of the list in the next
-        // iteration.
-        lb = mb;
+      OpCounters.comparisons(1);
+      if (l1.getId(i1) == l2.getId(lb)) {
+        result.addPosting(l1.getId(i1), l1.getScore(i1) + l2.getScore(lb));
       }
 
+      // Only search the remainder of the list in the next iteration.
       i1++;
     }
-    return result;
+    return OpCounters.output(result);
   }
 
 
   /**
-   * An intersect method using binary a recursive binary search. Notice that
-   * lower bound increases to ensure that only the remaining part of the list
-   * is searched in future iterations. l1 and l2 are swapped if l1 is longer
-   * than l2.
+   * Intersects the two given posting lists by searching each id of the
+   * smaller list in the larger list with a recursive binary search. The
+   * search only covers the part of the larger list behind the position
+   * where the previous search ended. The recursion depth is the depth of one
+   * binary search (log_2(n)), not the number of postings. The lists are
+   * swapped if l1 is longer than l2.
    *
    * @param l1
-   * The first (smaller) list.
+   *        The first posting list.
    * @param l2
-   * The second (larger) list.
-   * @param i1
-   * The current position in the shorter list.
-   * @param lb
-   * The (slowly increasing) lower bound of the range that still has to be
-  searched.
-   * @param ub
-   * The (not changing) upper bound of the range that still has to be searched.
-   * @param mb
-   * The current position of the binary search.
-   * @param result
-   * The PostingList that is to be modified.
-   * @param switches
-   * A control variable that ensures that the recursion aborts and it doesn't
-  toggle arround a non existant element the list that is to be searched.
-  This variable also ensures that the last variable (Integer.MAX_VALUE)
-  does not get added to the intersection.
-   * @param state
-   * A control variable to decide if it should operate as a recursive binary
-  search in O(k * log(n)) or if it should operate as a part of my
-  galloping binary search...
-   * @return
-   * PostingList intersection of l1 and l2.
+   *        The second posting list.
+   *
+   * @return The intersection of l1 and l2.
    */
-  public static PostingList intersectBinarySearchRecursive(PostingList l1,
-                                                           PostingList l2,
-                                                           int i1, int lb,
-                                                           int ub, int mb,
-                                                           PostingList result,
-                                                           int switches, int
-                                                                   state) {
-    int old;
-
-    //    System.out.println("\n Searching for: " + l1.getId(i1));
+  public static PostingList intersectBinarySearchRecursive(
+      PostingListView l1, PostingListView l2) {
+    PostingList result = new PostingList();
+    intersectBinarySearchRecursive(l1, l2, result);
+    return result;
+  }
 
+  /**
+   * Like intersectBinarySearchRecursive(l1, l2), but writes the intersection
+   * into the given result (reusing its arrays if they are large enough)
+   * instead of into a new list.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param result
+   *        The list to write the intersection to.
+   *
+   * @return The number of postings in the intersection.
+   */
+  public static int intersectBinarySearchRecursive(PostingListView l1,
+      PostingListView l2, PostingList result) {
     // Swap to make sure l1 is smaller.
     if (l1.size() > l2.size()) {
-      return intersectBinarySearchRecursive(l2, l1, 0, 0, l1.size(), (0
-              + l1.size()) / 2, result, 0, state);
+      return intersectBinarySearchRecursive(l2, l1, result);
     }
 
-    if (l1.getId(i1) < l2.getId(mb)) {
-      old = mb;
-      mb = (lb + mb) / 2;
+    result.reset(l1.size());
 
-      //      System.out.println("old: " + old + "  mb: " + mb + "  switches:
-      // " + switches);
-
-      //      if (switches < 4) {
-      if (switches < Math.log(ub - lb) / Math.log(2)) {
-        return intersectBinarySearchRecursive(l1, l2, i1, lb, ub, mb,
-                result, ++switches, state);
+    int lb = 0;
+    for (int i1 = 0; i1 < l1.size() && lb < l2.size(); i1++) {
+      lb = lowerBound(l2, l1.getId(i1), lb, l2.size());
+      OpCounters.comparisons(1);
+      if (lb < l2.size() && l1.getId(i1) == l2.getId(lb)) {
+        result.addPosting(l1.getId(i1), l1.getScore(i1) + l2.getScore(lb));
       }
     }
+    return OpCounters.output(result);
+  }
 
-    if (l1.getId(i1) > l2.getId(mb)) {
-      old = mb;
-      mb = ((ub + mb) / 2);
-
-      //      System.out.println("old: " + old + "  mb: " + mb + "  switches:
-      // " + switches);
-
-      //      if (switches < 4) {
-      if (switches < Math.log(ub - lb) / Math.log(2)) {
-        return intersectBinarySearchRecursive(l1, l2, i1, lb, ub, mb,
-                result, ++switches, state);
-      }
+  /**
+   * Returns the first position in list[lb..ub) with an id >= the given id
+   * (or ub if there is none), by a recursive binary search.
+   *
+   * @param list
+   *        The posting list to search in.
+   * @param id
+   *        The id to search for.
+   * @param lb
+   *        The lower bound of the range to search (inclusive).
+   * @param ub
+   *        The upper bound of the range to search (exclusive).
+   *
+   * @return The position of the first id >= the given id.
+   */
+  private static int lowerBound(PostingListView list, int id, int lb,
+      int ub) {
+    if (lb >= ub) {
+      return lb;
     }
-
-    if (l1.getId(i1) == l2.getId(mb)) {
-      result.addPosting(l1.getId(i1), l1.getScore(i1) + l2.getScore(mb));
-      // Only search through the remaining list in future:
-      lb = mb;
+    int mb = (lb + ub) >>> 1;
+    OpCounters.binarySearchStep();
+    if (list.getId(mb) < id) {
+      return lowerBound(list, id, mb + 1, ub);
     }
+    return lowerBound(list, id, lb, mb);
+  }
 
-    if (l1.getId(i1) < Integer.MAX_VALUE && state == 0) {
-      i1++;
-      return intersectBinarySearchRecursive(l1, l2, i1, lb, ub, mb, result,
-              0, state);
+  /**
+   * Intersects the two given posting lists with SIMD instructions, see
+   * SimdIntersect. This is the zipper algorithm, but comparing a whole block
+   * of ids of one list with a block of ids of the other list at once, so it
+   * pays off for lists of similar length. Falls back to intersectZipper() if
+   * the JVM was not started with --add-modules jdk.incubator.vector, or if
+   * one of the lists is not backed by arrays (a MappedPostingList).
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   *
+   * @return The intersection of the two lists.
+   */
+  public static PostingList intersectSimd(PostingListView l1,
+      PostingListView l2) {
+    PostingList result = new PostingList();
+    intersectSimd(l1, l2, result);
+    return result;
+  }
+
+  /**
+   * Like intersectSimd(l1, l2), but writes the intersection into the given
+   * result (reusing its arrays if they are large enough) instead of into a
+   * new list.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param result
+   *        The list to write the intersection to.
+   *
+   * @return The number of postings in the intersection.
+   */
+  public static int intersectSimd(PostingListView l1,
+      PostingListView l2, PostingList result) {
+    // SimdIntersect reads the arrays of the lists directly.
+    if (VECTOR_API && l1 instanceof PostingList
+        && l2 instanceof PostingList) {
+      return SimdIntersect.intersect((PostingList) l1, (PostingList) l2,
+          result);
     }
+    return intersectZipper(l1, l2, result);
+  }
 
+  /**
+   * Intersects the two given posting lists in parallel on the common
+   * fork/join pool, see ParallelIntersect.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   *
+   * @return The intersection of the two lists.
+   */
+  public static PostingList intersectParallel(PostingListView l1,
+      PostingListView l2) {
+    return ParallelIntersect.intersect(l1, l2);
+  }
 
+  /**
+   * Intersects the two given posting lists by looking up each id of the
+   * smaller list in the ProbeIndex (a bitset or a hash table) of the larger
+   * list, in O(1) per id. The index is built on the first call and cached
+   * by the larger list.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   *
+   * @return The intersection of the two lists.
+   */
+  public static PostingList intersectProbe(PostingListView l1,
+      PostingListView l2) {
+    PostingList result = new PostingList();
+    intersectProbe(l1, l2, result);
     return result;
   }
 
+  /**
+   * Like intersectProbe(l1, l2), but writes the intersection into the given
+   * result (reusing its arrays if they are large enough) instead of into a
+   * new list.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param result
+   *        The list to write the intersection to.
+   *
+   * @return The number of postings in the intersection.
+   */
+  public static int intersectProbe(PostingListView l1,
+      PostingListView l2, PostingList result) {
+    PostingListView small = l1.size() <= l2.size() ? l1 : l2;
+    PostingListView large = small == l1 ? l2 : l1;
+    result.reset(small.size());
+    ProbeIndex index = large.getProbeIndex();
+    for (int i = 0; i < small.size(); i++) {
+      OpCounters.probe();
+      int j = index.find(small.getId(i));
+      if (j >= 0) {
+        result.addPosting(small.getId(i), small.getScore(i)
+            + large.getScore(j));
+      }
+    }
+    return OpCounters.output(result);
+  }
 
+  /**
+   * Returns the k postings of the intersection of the two given posting lists
+   * with the highest scores, skipping blocks that can't make it into the top
+   * k, see TopKIntersect.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param k
+   *        The number of postings to return.
+   *
+   * @return The (at most) k postings, sorted by score (descending) and id
+   *         (ascending).
+   */
+  public static PostingList intersectTopK(PostingListView l1,
+      PostingListView l2, int k) {
+    return TopKIntersect.intersect(l1, l2, k);
+  }
 
+  /**
+   * Sets the minimum size of the smaller list for which intersect() uses the
+   * parallel intersection.
+   *
+   * @param threshold
+   *        The new threshold.
+   */
+  public static void setParallelThreshold(int threshold) {
+    parallelThreshold = threshold;
+  }
 
   /**
    * Intersects the two given posting lists using an improved algorithm that
@@ -424,22 +566,45 @@ public class PostingList {
    * @param l2
    * @return
    */
-  public static PostingList intersectZipper(PostingList l1, PostingList l2) {
+  public static PostingList intersectZipper(PostingListView l1,
+      PostingListView l2) {
     PostingList result = new PostingList();
+    intersectZipper(l1, l2, result);
+    return result;
+  }
 
-    result.reserve(Math.min(l1.size(), l2.size()));
+  /**
+   * Like intersectZipper(l1, l2), but writes the intersection into the given
+   * result (reusing its arrays if they are large enough) instead of into a new
+   * list.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param result
+   *        The list to write the intersection to.
+   *
+   * @return The number of postings in the intersection.
+   */
+  public static int intersectZipper(PostingListView l1,
+      PostingListView l2, PostingList result) {
+    result.reset(Math.min(l1.size(), l2.size()));
 
     int i1 = 0;
     int i2 = 0;
     while (true) {
       while (l1.getId(i1) < l2.getId(i2)) {
+        OpCounters.comparisons(1);
         i1++;
       }
 
       while (l2.getId(i2) < l1.getId(i1)) {
+        OpCounters.comparisons(1);
         i2++;
       }
 
+      OpCounters.comparisons(1);
       if (l1.getId(i1) == l2.getId(i2)) {
         if (l1.getId(i1) == Integer.MAX_VALUE) {
           break;
@@ -452,7 +617,7 @@ public class PostingList {
         }
       }
     }
-    return result;
+    return OpCounters.output(result);
   }
 
   /**
@@ -518,55 +683,378 @@ public class PostingList {
    * @return
    * PostingList intersection of 1 and 2.
    */
-  public static PostingList intersectGallopingBinarySearch(PostingList l1,
-                                                           PostingList l2) {
+  public static PostingList intersectGallopingBinarySearch(
+      PostingListView l1, PostingListView l2) {
+    PostingList result = new PostingList();
+    intersectGallopingBinarySearch(l1, l2, result);
+    return result;
+  }
+
+  /**
+   * Like intersectGallopingBinarySearch(l1, l2), but writes the intersection
+   * into the given result (reusing its arrays if they are large enough) instead
+   * of into a new list.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param result
+   *        The list to write the intersection to.
+   *
+   * @return The number of postings in the intersection.
+   */
+  public static int intersectGallopingBinarySearch(
+      PostingListView l1, PostingListView l2, PostingList result) {
     // Swap to make sure l1 is smaller.
     if (l1.size() > l2.size()) {
-      return intersectGallopingBinarySearch(l2, l1);
+      return intersectGallopingBinarySearch(l2, l1, result);
     }
 
-    PostingList result = new PostingList();
-    result.reserve(Math.min(l1.size(), l2.size()));
+    result.reset(Math.min(l1.size(), l2.size()));
 
     int i1 = 0;
-    int i2 = l2.size();
+    int i2 = 0;
     int lb = 0;
     int mb = 0;
     int ub = 0;
     int jump = 1;
 
     while (l1.getId(i1) < Integer.MAX_VALUE) {
+      // Galloping: double the jump until l2.getId(ub) >= l1.getId(i1). The
+      // sentinel of l2 (at position l2.size()) stops the galloping at the
+      // latest. Afterwards l2.getId(lb - 1) < l1.getId(i1) <= l2.getId(ub).
       jump = 1;
+      lb = i2;
+      ub = i2;
+      while (l2.getId(ub) < l1.getId(i1)) {
+        OpCounters.gallopStep();
+        lb = ub + 1;
+        ub = Math.min(ub + jump, l2.size());
+        jump = 2 * jump;
+      }
+
+      // Binary search between lb and ub.
+      while (lb < ub) {
+        mb = (lb + ub) >>> 1;
+        OpCounters.binarySearchStep();
+        if (l2.getId(mb) < l1.getId(i1)) {
+          lb = mb + 1;
+        } else {
+          ub = mb;
+        }
+      }
 
+      OpCounters.comparisons(1);
+      if (l1.getId(i1) == l2.getId(lb)) {
+        result.addPosting(l1.getId(i1), l1.getScore(i1) + l2.getScore(lb));
+      }
+
+      // Only gallop through the remaining list in future.
       i2 = lb;
-      while (l1.getId(i1) > l2.getId(i2)) {
-        lb = i2;
-        i2 = i2 + jump;
+      i1++;
+    }
 
-        if (i2 > l2.size()) {
-          i2 = l2.size();
-          break;
-        }
+    return OpCounters.output(result);
+  }
 
-        if (l1.getId(i1) == l2.getId(i2)) {
-          i2 = i2 + jump;
-          break;
+  /**
+   * <p>
+   * Intersects any number of posting lists at once (for conjunctive queries
+   * with more than two words), without computing intermediate results.
+   * </p>
+   *
+   * <p>
+   * The lists are ordered by size. Each id of the smallest list is a
+   * candidate, which is searched in the other lists in order of their size
+   * by galloping (from the position where the previous search in that list
+   * stopped). If a list does not contain the candidate, the id found there
+   * is larger, and the next candidate is the first id >= that id in the
+   * smallest list, which is found by galloping, too. So the work adapts to
+   * how the lists interleave, not to their sizes: an id of the smallest
+   * list that is missing in the second list is never searched in the
+   * others.
+   * </p>
+   *
+   * @param lists
+   *        The posting lists.
+   *
+   * @return The intersection of all lists, with the scores summed up.
+   */
+  public static PostingList intersectAll(PostingListView... lists) {
+    PostingList result = new PostingList();
+    if (lists.length == 0) {
+      result.reserve(0);
+      return result;
+    }
+
+    PostingListView[] sorted = lists.clone();
+    Arrays.sort(sorted, Comparator.comparingInt(PostingListView::size));
+    int k = sorted.length;
+    int[] pos = new int[k];
+    PostingListView smallest = sorted[0];
+    result.reserve(smallest.size());
+
+    while (pos[0] < smallest.size()) {
+      int candidate = smallest.getId(pos[0]);
+      int j = 1;
+      while (j < k) {
+        pos[j] = gallop(sorted[j], pos[j], candidate);
+        if (pos[j] == sorted[j].size()) {
+          return result;
+        }
+        int id = sorted[j].getId(pos[j]);
+        if (id > candidate) {
+          // The candidate is missing in list j, continue with the next
+          // candidate >= id, starting again with the second list.
+          pos[0] = gallop(smallest, pos[0] + 1, id);
+          if (pos[0] == smallest.size()) {
+            return result;
+          }
+          candidate = smallest.getId(pos[0]);
+          j = 1;
+        } else {
+          j++;
         }
+      }
 
-        jump = 2 * jump;
+      // The candidate is contained in all lists.
+      int score = 0;
+      for (int i = 0; i < k; i++) {
+        score += sorted[i].getScore(pos[i]);
       }
+      result.addPosting(candidate, score);
+      pos[0]++;
+    }
+    return result;
+  }
 
-      ub = i2;
-      mb = (lb + ub) / 2;
+  /**
+   * <p>
+   * Computes the union of any number of posting lists (for disjunctive
+   * queries), with the scores of equal ids summed up. The result is written
+   * into one list, reserved for the total size of the input up front, and
+   * ends with a sentinel (so it can be intersected further).
+   * </p>
+   *
+   * <p>
+   * Two lists are merged with a branch-light zipper, more lists with a
+   * loser tree: the tree holds the current id of each list in its leaves
+   * and the loser of each match in its inner nodes, so after taking the
+   * smallest id, only the matches on the path of its list are replayed
+   * (log2(k) comparisons, no swaps as in a heap).
+   * </p>
+   *
+   * @param lists
+   *        The posting lists.
+   *
+   * @return The union of all lists, with the scores summed up.
+   */
+  public static PostingList union(PostingListView... lists) {
+    long total = 0;
+    for (PostingListView list : lists) {
+      total += list.size();
+    }
+    PostingList result = new PostingList();
+    result.reserve((int) Math.min(total + 1, Integer.MAX_VALUE - 8));
+    if (lists.length == 2) {
+      unionZipper(lists[0], lists[1], result);
+    } else if (lists.length > 0) {
+      unionLoserTree(lists, result);
+    }
+    result.addSentinel();
+    return result;
+  }
 
-      result = intersectBinarySearchRecursive(l1, l2, i1, lb, ub, mb, result,
-              0, 1);
-      i1++;
+  /**
+   * Merges two lists into the given (reserved) result. Where to take the
+   * next posting from is computed from the comparison instead of being
+   * branched on, which the processor couldn't predict.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param result
+   *        The list to append the union to.
+   */
+  protected static void unionZipper(PostingListView l1,
+      PostingListView l2, PostingList result) {
+    int[] ids = result.ids;
+    int[] scores = result.scores;
+    int n = result.numPostings;
+    int i1 = 0;
+    int i2 = 0;
+    while (i1 < l1.size() && i2 < l2.size()) {
+      int id1 = l1.getId(i1);
+      int id2 = l2.getId(i2);
+      int take1 = id1 <= id2 ? 1 : 0;
+      int take2 = id1 >= id2 ? 1 : 0;
+      ids[n] = take1 == 1 ? id1 : id2;
+      scores[n] = take1 * l1.getScore(i1) + take2 * l2.getScore(i2);
+      i1 += take1;
+      i2 += take2;
+      n++;
+    }
+    for (; i1 < l1.size(); i1++, n++) {
+      ids[n] = l1.getId(i1);
+      scores[n] = l1.getScore(i1);
+    }
+    for (; i2 < l2.size(); i2++, n++) {
+      ids[n] = l2.getId(i2);
+      scores[n] = l2.getScore(i2);
     }
+    result.numPostings = n;
+  }
+
+  /**
+   * Merges the given lists into the given (reserved) result with a loser
+   * tree.
+   *
+   * @param lists
+   *        The posting lists.
+   * @param result
+   *        The list to append the union to.
+   */
+  protected static void unionLoserTree(PostingListView[] lists,
+      PostingList result) {
+    int k = lists.length;
+    // The number of leaves, a power of 2. Leaves >= k are always empty.
+    int m = Integer.highestOneBit(Math.max(1, k - 1)) << 1;
+    int[] pos = new int[k];
+    int[] keys = new int[m];
+    for (int i = 0; i < m; i++) {
+      keys[i] = i < k && lists[i].size() > 0 ? lists[i].getId(0)
+          : Integer.MAX_VALUE;
+    }
+
+    // tree[j] is the loser of the match in inner node j, tree[0] the
+    // overall winner. The children of node j are 2j and 2j + 1, leaf i is
+    // node m + i.
+    int[] tree = new int[m];
+    int[] winners = new int[2 * m];
+    for (int i = 0; i < m; i++) {
+      winners[m + i] = i;
+    }
+    for (int j = m - 1; j > 0; j--) {
+      int a = winners[2 * j];
+      int b = winners[2 * j + 1];
+      boolean aWins = keys[a] <= keys[b];
+      winners[j] = aWins ? a : b;
+      tree[j] = aWins ? b : a;
+    }
+    tree[0] = winners[1];
+
+    int[] ids = result.ids;
+    int[] scores = result.scores;
+    int n = result.numPostings;
+    int winner = tree[0];
+    while (keys[winner] != Integer.MAX_VALUE) {
+      int id = keys[winner];
+      int score = lists[winner].getScore(pos[winner]);
+      if (n > result.numPostings && ids[n - 1] == id) {
+        scores[n - 1] += score;
+      } else {
+        ids[n] = id;
+        scores[n] = score;
+        n++;
+      }
 
+      // Advance the winning list and replay its path to the root.
+      int p = ++pos[winner];
+      keys[winner] = p < lists[winner].size() ? lists[winner].getId(p)
+          : Integer.MAX_VALUE;
+      for (int node = (winner + m) >>> 1; node > 0; node >>>= 1) {
+        int loser = tree[node];
+        if (keys[loser] < keys[winner]) {
+          tree[node] = winner;
+          winner = loser;
+        }
+      }
+    }
+    result.numPostings = n;
+  }
+
+  /**
+   * Computes the union of the given lists with a PriorityQueue of the
+   * current postings of the lists (the naive way, for comparison with
+   * union()).
+   *
+   * @param lists
+   *        The posting lists.
+   *
+   * @return The union of all lists, with the scores summed up.
+   */
+  public static PostingList unionPriorityQueue(PostingListView... lists) {
+    long total = 0;
+    for (PostingListView list : lists) {
+      total += list.size();
+    }
+    PostingList result = new PostingList();
+    result.reserve((int) Math.min(total + 1, Integer.MAX_VALUE - 8));
+
+    // The queue holds the index of a list and the position in it.
+    PriorityQueue<int[]> queue = new PriorityQueue<>(Math.max(1,
+        lists.length), Comparator.comparingInt(e -> lists[e[0]].getId(e[1])));
+    for (int i = 0; i < lists.length; i++) {
+      if (lists[i].size() > 0) {
+        queue.add(new int[] {i, 0});
+      }
+    }
+    while (!queue.isEmpty()) {
+      int[] entry = queue.poll();
+      PostingListView list = lists[entry[0]];
+      int id = list.getId(entry[1]);
+      int n = result.size();
+      if (n > 0 && result.getId(n - 1) == id) {
+        result.scores[n - 1] += list.getScore(entry[1]);
+      } else {
+        result.addPosting(id, list.getScore(entry[1]));
+      }
+      if (++entry[1] < list.size()) {
+        queue.add(entry);
+      }
+    }
+    result.addSentinel();
     return result;
   }
 
+  /**
+   * Finds the first position >= from in the given list with an id >= key,
+   * by doubling the step size until such an id is found and then doing a
+   * binary search in the last step. Doesn't rely on the sentinel.
+   *
+   * @param list
+   *        The posting list to search.
+   * @param from
+   *        The position to start the search from.
+   * @param key
+   *        The id to search for.
+   *
+   * @return The position, or list.size() if all ids from there on are < key.
+   */
+  protected static int gallop(PostingListView list, int from, int key) {
+    int lb = from;
+    int ub = from;
+    int jump = 1;
+    while (ub < list.size() && list.getId(ub) < key) {
+      OpCounters.gallopStep();
+      lb = ub + 1;
+      ub = Math.min(ub + jump, list.size());
+      jump = 2 * jump;
+    }
+    while (lb < ub) {
+      int mb = (lb + ub) >>> 1;
+      OpCounters.binarySearchStep();
+      if (list.getId(mb) < key) {
+        lb = mb + 1;
+      } else {
+        ub = mb;
+      }
+    }
+    return lb;
+  }
+
 
   // ==========================================================================
 
@@ -581,6 +1069,26 @@ public class PostingList {
     this.scores = new int[n];
     this.capacity = n;
     this.numPostings = 0;
+    this.blockMaxScores = null;
+    this.probeIndex = null;
+  }
+
+  /**
+   * Empties this list and makes sure that there is space for n postings.
+   * Unlike reserve(), the arrays are only replaced if they are too small,
+   * so a list can be reused as result of many intersections without
+   * allocating memory.
+   *
+   * @param n
+   *        The number of postings.
+   */
+  public void reset(int n) {
+    if (this.ids == null || this.capacity < n) {
+      reserve(n);
+    }
+    this.numPostings = 0;
+    this.blockMaxScores = null;
+    this.probeIndex = null;
   }
 
   /**
@@ -598,51 +1106,22 @@ public class PostingList {
   }
 
   /**
-   * Returns the id of the i-th posting.
-   *
-   * @param i
-   *        The index of the posting.
-   *
-   * @return The id of the i-th posting.
+   * Appends the sentinel posting (Integer.MAX_VALUE, 0) behind the last
+   * posting of this list. The sentinel is not counted by size(), so there
+   * must be space reserved for one posting more than the list holds.
    */
+  public void addSentinel() {
+    this.ids[this.numPostings] = Integer.MAX_VALUE;
+    this.scores[this.numPostings] = 0;
+  }
+
+  @Override
   public int getId(int i) {
     return this.ids[i];
   }
 
-  /**
-   * Returns the score of the i-th posting.
-   *
-   * @param i
-   *        The index of the posting.
-   *
-   * @return The score of the i-th posting.
-   */
+  @Override
   public int getScore(int i) {
     return this.scores[i];
   }
-
-  /**
-   * Returns the number of postings in this list.
-   *
-   * @return The number of postings in this list.
-   */
-  public int size() {
-    return this.numPostings;
-  }
-
-  // ==========================================================================
-
-  @Override
-  public String toString() {
-    StringBuilder sb = new StringBuilder();
-    sb.append("[");
-    for (int i = 0; i < size(); i++) {
-      sb.append("(" + getId(i) + ", " + getScore(i) + ")");
-      if (i < size() - 1) {
-        sb.append(", ");
-      }
-    }
-    sb.append("]");
-    return sb.toString();
-  }
 }
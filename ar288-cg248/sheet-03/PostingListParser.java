@@ -0,0 +1,301 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Parses posting list text files (the number of postings in the first line,
+ * then one line "id WHITESPACE score" per posting) directly from the bytes
+ * of the memory-mapped file, without decoding lines into Strings. Lines may
+ * end with '\n', "\r\n" or '\r'.
+ * </p>
+ *
+ * <p>
+ * The lines after the first one are split into chunks of about equal size
+ * (each starting behind a line break), which are processed in parallel on
+ * the common fork/join pool in two passes: the first counts the postings of
+ * each chunk, which gives the position of the first posting of each chunk
+ * in the list; the second parses the digits of each chunk straight into the
+ * ids and scores arrays at that position. So the chunks are stitched
+ * together without any copying and without allocations per line.
+ * </p>
+ *
+ * <p>
+ * A line without a digit (e.g. an empty line at the end) is not a posting.
+ * Ids and scores must fit into an int (at most 10 digits, at most
+ * Integer.MAX_VALUE in absolute value). A file can have at most 2^31 - 1
+ * bytes (the maximum size of a single mapping).
+ * </p>
+ */
+public class PostingListParser {
+  /**
+   * The minimum number of bytes of a chunk. Smaller files are parsed in one
+   * chunk.
+   */
+  public static final int MIN_CHUNK_SIZE = 1 << 20;
+
+  /**
+   * Reads the given file into the given posting list (with sentinel),
+   * replacing its contents.
+   *
+   * @param fileName
+   *        The path to the file to read.
+   * @param list
+   *        The list to read the postings into.
+   *
+   * @throws IOException
+   *         If the file can't be read or is not a posting list file.
+   */
+  public static void parse(String fileName, PostingList list)
+      throws IOException {
+    parse(fileName, list, 0);
+  }
+
+  /**
+   * Reads the given file into the given posting list (with sentinel),
+   * replacing its contents, using the given number of chunks.
+   *
+   * @param fileName
+   *        The path to the file to read.
+   * @param list
+   *        The list to read the postings into.
+   * @param numChunks
+   *        The number of chunks to split the file into, 0 for four per
+   *        thread of the common pool (but chunks of at least MIN_CHUNK_SIZE
+   *        bytes).
+   *
+   * @throws IOException
+   *         If the file can't be read or is not a posting list file.
+   */
+  public static void parse(String fileName, PostingList list, int numChunks)
+      throws IOException {
+    MappedByteBuffer bytes;
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+            StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("File too large: " + channel.size());
+      }
+      // The mapping stays valid after the channel is closed.
+      bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    // Skip the first line (the number of postings is counted below).
+    int size = bytes.limit();
+    int start = 0;
+    while (start < size && bytes.get(start) != '\n'
+        && bytes.get(start) != '\r') {
+      start++;
+    }
+    start = Math.min(start + 1, size);
+
+    // Split the rest into chunks that start behind a line break.
+    if (numChunks <= 0) {
+      numChunks = (int) Math.max(1, Math.min(
+          4L * ForkJoinPool.getCommonPoolParallelism(),
+          ((long) size - start) / MIN_CHUNK_SIZE));
+    }
+    Chunk[] chunks = new Chunk[numChunks];
+    for (int c = 0; c < numChunks; c++) {
+      int from = c == 0 ? start
+          : (int) (start + ((long) size - start) * c / numChunks);
+      if (c > 0) {
+        from = Math.max(from, chunks[c - 1].start);
+        while (from < size && bytes.get(from - 1) != '\n'
+            && bytes.get(from - 1) != '\r') {
+          from++;
+        }
+      }
+      chunks[c] = new Chunk(bytes, from, list);
+    }
+    for (int c = 0; c < numChunks; c++) {
+      chunks[c].end = c + 1 < numChunks ? chunks[c + 1].start : size;
+    }
+
+    try {
+      // First pass: count the postings of each chunk.
+      ForkJoinTask.invokeAll(chunks);
+      long numPostings = 0;
+      for (Chunk chunk : chunks) {
+        chunk.offset = (int) numPostings;
+        numPostings += chunk.numPostings;
+      }
+      if (numPostings >= Integer.MAX_VALUE - 8) {
+        throw new IOException("Too many postings: " + numPostings);
+      }
+
+      // Second pass: parse the postings of each chunk into the list.
+      list.reserve((int) numPostings + 1);
+      for (Chunk chunk : chunks) {
+        chunk.reinitialize();
+        chunk.parse = true;
+      }
+      ForkJoinTask.invokeAll(chunks);
+      list.numPostings = (int) numPostings;
+      list.addSentinel();
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  // ==========================================================================
+
+  /**
+   * A range of lines of the file, which counts or parses its postings.
+   */
+  protected static class Chunk extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The bytes of the file.
+     */
+    protected MappedByteBuffer bytes;
+
+    /**
+     * The range of the chunk in the bytes.
+     */
+    protected int start;
+    protected int end;
+
+    /**
+     * The list to parse the postings into.
+     */
+    protected PostingList list;
+
+    /**
+     * False for the counting pass, true for the parsing pass.
+     */
+    protected boolean parse;
+
+    /**
+     * The number of postings in this chunk (after the counting pass).
+     */
+    protected int numPostings;
+
+    /**
+     * The position of the first posting of this chunk in the list.
+     */
+    protected int offset;
+
+    /**
+     * Creates the chunk starting at the given position.
+     *
+     * @param bytes
+     *        The bytes of the file.
+     * @param start
+     *        The start of the chunk.
+     * @param list
+     *        The list to parse the postings into.
+     */
+    public Chunk(MappedByteBuffer bytes, int start, PostingList list) {
+      this.bytes = bytes;
+      this.start = start;
+      this.list = list;
+    }
+
+    @Override
+    protected void compute() {
+      if (parse) {
+        parse();
+      } else {
+        count();
+      }
+    }
+
+    /**
+     * Counts the lines of this chunk that contain a digit.
+     */
+    protected void count() {
+      int count = 0;
+      boolean digit = false;
+      for (int i = start; i < end; i++) {
+        byte b = bytes.get(i);
+        if (b == '\n' || b == '\r') {
+          count += digit ? 1 : 0;
+          digit = false;
+        } else if (b >= '0' && b <= '9') {
+          digit = true;
+        }
+      }
+      this.numPostings = count + (digit ? 1 : 0);
+    }
+
+    /**
+     * Parses the postings of this chunk into the list, starting at offset.
+     */
+    protected void parse() {
+      int[] ids = list.ids;
+      int[] scores = list.scores;
+      int n = offset;
+      int i = start;
+      while (i < end) {
+        // Skip whitespace (and empty lines) up to the id.
+        byte b = bytes.get(i);
+        if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+          i++;
+          continue;
+        }
+        int lineStart = i;
+
+        // The id.
+        boolean negative = b == '-';
+        i += negative ? 1 : 0;
+        long id = 0;
+        int digits = 0;
+        while (i < end && (b = bytes.get(i)) >= '0' && b <= '9') {
+          id = 10 * id + (b - '0');
+          digits++;
+          i++;
+        }
+        if (digits == 0 || digits > 10 || id > Integer.MAX_VALUE) {
+          throw new IllegalArgumentException("Invalid posting at byte "
+              + lineStart);
+        }
+        ids[n] = (int) (negative ? -id : id);
+
+        // At least one space or tab, then the score.
+        int spaces = 0;
+        while (i < end && ((b = bytes.get(i)) == ' ' || b == '\t')) {
+          spaces++;
+          i++;
+        }
+        if (spaces == 0) {
+          throw new IllegalArgumentException("Invalid posting at byte "
+              + lineStart);
+        }
+        negative = i < end && bytes.get(i) == '-';
+        i += negative ? 1 : 0;
+        long score = 0;
+        digits = 0;
+        while (i < end && (b = bytes.get(i)) >= '0' && b <= '9') {
+          score = 10 * score + (b - '0');
+          digits++;
+          i++;
+        }
+        if (digits == 0 || digits > 10 || score > Integer.MAX_VALUE) {
+          throw new IllegalArgumentException("Invalid posting at byte "
+              + lineStart);
+        }
+        scores[n] = (int) (negative ? -score : score);
+        n++;
+
+        // Anything else on the line must be whitespace.
+        while (i < end && (b = bytes.get(i)) != '\n' && b != '\r') {
+          if (b != ' ' && b != '\t') {
+            throw new IllegalArgumentException("Invalid posting at byte "
+                + lineStart);
+          }
+          i++;
+        }
+      }
+    }
+  }
+}
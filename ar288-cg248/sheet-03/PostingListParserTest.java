@@ -0,0 +1,81 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the PostingListParser class.
+ */
+public class PostingListParserTest {
+  /**
+   * Writes the given text to a temporary file and returns its path.
+   */
+  private static String createFile(String text) throws IOException {
+    File file = File.createTempFile("PostingListParserTest", ".txt");
+    file.deleteOnExit();
+    Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    return file.getPath();
+  }
+
+  /**
+   * Tests for the method parse().
+   */
+  @Test
+  public void testParse() throws IOException {
+    PostingList list = new PostingList();
+    PostingListParser.parse("example1.txt", list);
+    Assert.assertEquals("[(2, 5), (3, 1), (6, 2)]", list.toString());
+    Assert.assertEquals(Integer.MAX_VALUE, list.getId(list.size()));
+
+    // Windows line breaks, tabs, several spaces, an empty line and no line
+    // break at the end, with the chunk borders at all kinds of places.
+    StringBuilder text = new StringBuilder("100\r\n");
+    StringBuilder expected = new StringBuilder("[");
+    for (int i = 1; i <= 100; i++) {
+      text.append(i * 11).append(i % 3 == 0 ? "\t" : "  ").append(i % 7)
+          .append(i == 50 ? "\r\n\r\n" : i == 100 ? "" : "\n");
+      expected.append(i == 1 ? "" : ", ").append("(").append(i * 11)
+          .append(", ").append(i % 7).append(")");
+    }
+    expected.append("]");
+    String fileName = createFile(text.toString());
+    for (int numChunks = 1; numChunks <= 13; numChunks++) {
+      PostingListParser.parse(fileName, list, numChunks);
+      Assert.assertEquals(expected.toString(), list.toString());
+    }
+
+    PostingListParser.parse(createFile("0\n"), list);
+    Assert.assertEquals("[]", list.toString());
+
+    // Old Mac line breaks and the largest ids and scores.
+    PostingListParser.parse(createFile("2\r1 -2147483647\r2147483647 0\r"),
+        list);
+    Assert.assertEquals("[(1, -2147483647), (2147483647, 0)]",
+        list.toString());
+  }
+
+  /**
+   * Tests for the method parse() on invalid files.
+   */
+  @Test
+  public void testParseInvalid() {
+    for (String text : new String[] {"2\n1 2\n3\n", "2\n1 2\n3 x\n",
+        "1\nx 2\n", "1\n1 2 3\n", "1\n1-2\n", "1\n1 2\r3\n",
+        "1\n2147483648 1\n", "1\n1 -2147483648\n",
+        "1\n00000000001 1\n", "1\n1 99999999999999999999\n"}) {
+      try {
+        PostingListParser.parse(createFile(text), new PostingList());
+        Assert.fail("No exception for " + text);
+      } catch (IOException e) {
+        // Expected.
+      }
+    }
+  }
+}
@@ -94,45 +94,44 @@ public class PostingListTest {
   }
 
   /**
-   * Tests for the method intersectBinarySearchRecursive(). Notice that lower
-   * bound increases to ensure that only the remaining part of the list is
-   * searched in future iterations.
+   * Tests for the method intersectSimd().
    */
   @Test
-  public void testIntersectBinarySearchRecursive() {
+  public void testIntersectSimd() {
     PostingList l1 = new PostingList();
     PostingList l2 = new PostingList();
     PostingList l3 = new PostingList();
     l1.readFromFile("example1.txt");
     l2.readFromFile("example2.txt");
     l3.readFromFile("example3.txt");
-
-    int i1 = 0;
-    int lb = 0;
-    int ub = l2.size();
-    int mb = (ub + lb) / 2;
-
-    PostingList result = new PostingList();
-    result.reserve(Math.min(l1.size(), l2.size()));
-
-    PostingList result1 = PostingList.intersectBinarySearchRecursive(l1, l2,
-            i1, lb, ub, mb, result, -1, 0);
+    PostingList result1 = PostingList.intersectSimd(l1, l2);
+    PostingList result2 = PostingList.intersectSimd(l1, l3);
     Assert.assertEquals("[(2, 9), (6, 5)]", result1.toString());
+    Assert.assertEquals("[]", result2.toString());
+  }
 
-    lb = i1 = 0;
-    ub = l2.size();
-    mb = (ub + lb) / 2;
-    result.reserve(Math.min(l1.size(), l3.size()));
+  /**
+   * Tests for the method intersectBinarySearchRecursive().
+   */
+  @Test
+  public void testIntersectBinarySearchRecursive() {
+    PostingList l1 = new PostingList();
+    PostingList l2 = new PostingList();
+    PostingList l3 = new PostingList();
+    l1.readFromFile("example1.txt");
+    l2.readFromFile("example2.txt");
+    l3.readFromFile("example3.txt");
 
-    PostingList result2 = PostingList.intersectBinarySearchRecursive(l1, l3,
-            i1, lb, ub, mb, result, -1, 0);
+    PostingList result1 = PostingList.intersectBinarySearchRecursive(l1, l2);
+    PostingList result2 = PostingList.intersectBinarySearchRecursive(l1, l3);
+    Assert.assertEquals("[(2, 9), (6, 5)]", result1.toString());
     Assert.assertEquals("[]", result2.toString());
+    Assert.assertEquals("[(2, 9), (6, 5)]",
+        PostingList.intersectBinarySearchRecursive(l2, l1).toString());
   }
 
   /**
-   * Tests for the method intersectBinarySearchRecursive(). Notice that lower
-   * bound increases to ensure that only the remaining part of the list is
-   * searched in future iterations.
+   * Tests for the method intersectGallopingBinarySearch().
    */
   @Test
   public void testIntersectGallopingBinarySearch() {
@@ -149,6 +148,214 @@ public class PostingListTest {
     Assert.assertEquals("[]", result2.toString());
   }
 
+  /**
+   * Tests for the method intersectProbe().
+   */
+  @Test
+  public void testIntersectProbe() {
+    PostingList l1 = new PostingList();
+    PostingList l2 = new PostingList();
+    PostingList l3 = new PostingList();
+    l1.readFromFile("example1.txt");
+    l2.readFromFile("example2.txt");
+    l3.readFromFile("example3.txt");
+    Assert.assertEquals("[(2, 9), (6, 5)]",
+        PostingList.intersectProbe(l1, l2).toString());
+    Assert.assertEquals("[]", PostingList.intersectProbe(l1, l3).toString());
+
+    // The index of a list is cached until the list is changed.
+    ProbeIndex index = l2.getProbeIndex();
+    Assert.assertSame(index, l2.getProbeIndex());
+    l2.readFromFile("example1.txt");
+    Assert.assertNotSame(index, l2.getProbeIndex());
+    Assert.assertEquals(l1.size(), PostingList.intersectProbe(l1, l2,
+        new PostingList()));
+  }
+
+  /**
+   * Tests the intersection methods against intersectBaseline() on two larger
+   * lists, where the result is neither empty nor the whole smaller list.
+   */
+  @Test
+  public void testIntersectLargeLists() {
+    PostingList l1 = new PostingList();
+    PostingList l2 = new PostingList();
+    l1.reserve(1001);
+    l2.reserve(20001);
+    for (int i = 1; i <= 1000; i++) {
+      l1.addPosting(7 * i, i % 5);
+    }
+    for (int i = 1; i <= 20000; i++) {
+      l2.addPosting(3 * i, i % 3);
+    }
+    l1.addSentinel();
+    l2.addSentinel();
+
+    String expected = PostingList.intersectBaseline(l1, l2).toString();
+    Assert.assertEquals(expected,
+        PostingList.intersectZipper(l1, l2).toString());
+    Assert.assertEquals(expected,
+        PostingList.intersectSimd(l1, l2).toString());
+    Assert.assertEquals(expected,
+        PostingList.intersectSimd(l2, l1).toString());
+    Assert.assertEquals(expected,
+        PostingList.intersectParallel(l1, l2).toString());
+    Assert.assertEquals(expected,
+        PostingList.intersectBinarySearchUsingSentinels(l1, l2).toString());
+    Assert.assertEquals(expected,
+        PostingList.intersectBinarySearchRecursive(l1, l2).toString());
+    Assert.assertEquals(expected,
+        PostingList.intersectBinarySearchRecursive(l2, l1).toString());
+    Assert.assertEquals(expected,
+        PostingList.intersectGallopingBinarySearch(l1, l2).toString());
+    Assert.assertEquals(expected,
+        PostingList.intersectGallopingBinarySearch(l2, l1).toString());
+    Assert.assertEquals(expected,
+        PostingList.intersectProbe(l1, l2).toString());
+    Assert.assertEquals(expected,
+        PostingList.intersectProbe(l2, l1).toString());
+    Assert.assertEquals(expected, PostingList.intersect(l1, l2).toString());
+  }
+
+  /**
+   * Tests for the method intersectAll().
+   */
+  @Test
+  public void testIntersectAll() {
+    PostingList l1 = new PostingList();
+    PostingList l2 = new PostingList();
+    PostingList l3 = new PostingList();
+    l1.readFromFile("example1.txt");
+    l2.readFromFile("example2.txt");
+    l3.readFromFile("example3.txt");
+    Assert.assertEquals("[(2, 9), (6, 5)]",
+        PostingList.intersectAll(l1, l2).toString());
+    Assert.assertEquals("[(2, 14), (6, 7)]",
+        PostingList.intersectAll(l2, l1, l1).toString());
+    Assert.assertEquals("[]", PostingList.intersectAll(l1, l2, l3).toString());
+    Assert.assertEquals(l3.toString(), PostingList.intersectAll(l3).toString());
+    Assert.assertEquals("[]", PostingList.intersectAll().toString());
+
+    // Multiples of 2, 3 and 5 => multiples of 30.
+    PostingList l4 = new PostingList();
+    PostingList l5 = new PostingList();
+    PostingList l6 = new PostingList();
+    l4.reserve(3001);
+    l5.reserve(2001);
+    l6.reserve(1201);
+    for (int i = 1; i <= 3000; i++) {
+      l4.addPosting(2 * i, 1);
+    }
+    for (int i = 1; i <= 2000; i++) {
+      l5.addPosting(3 * i, 2);
+    }
+    for (int i = 1; i <= 1200; i++) {
+      l6.addPosting(5 * i, 3);
+    }
+    PostingList result = PostingList.intersectAll(l4, l5, l6);
+    Assert.assertEquals(200, result.size());
+    Assert.assertEquals(30, result.getId(0));
+    Assert.assertEquals(6000, result.getId(199));
+    Assert.assertEquals(6, result.getScore(199));
+  }
+
+  /**
+   * Tests for the intersection methods that write into a given result, and
+   * for the method reset().
+   */
+  @Test
+  public void testIntersectIntoResult() {
+    PostingList l1 = new PostingList();
+    PostingList l2 = new PostingList();
+    PostingList l3 = new PostingList();
+    l1.readFromFile("example1.txt");
+    l2.readFromFile("example2.txt");
+    l3.readFromFile("example3.txt");
+    PostingList l4 = new PostingList();
+    PostingList l5 = new PostingList();
+    l4.reserve(1001);
+    l5.reserve(3001);
+    for (int i = 1; i <= 1000; i++) {
+      l4.addPosting(7 * i, i % 5);
+    }
+    for (int i = 1; i <= 3000; i++) {
+      l5.addPosting(3 * i, i % 3);
+    }
+    l4.addSentinel();
+    l5.addSentinel();
+    String expected = PostingList.intersectBaseline(l4, l5).toString();
+
+    // The same result for all calls: first a large one, then the small ones
+    // must not see the postings of the large one. The result is reserved for
+    // the largest call up front (intersectSimd() needs a block of ints more
+    // than the smaller list), so no call may replace its arrays.
+    PostingList result = new PostingList();
+    result.reserve(1000 + 64);
+    int[] ids = result.ids;
+    Assert.assertEquals(333, PostingList.intersectBaseline(l4, l5, result));
+    Assert.assertEquals(expected, result.toString());
+    Assert.assertSame(ids, result.ids);
+    Assert.assertEquals(2, PostingList.intersectZipper(l1, l2, result));
+    Assert.assertEquals("[(2, 9), (6, 5)]", result.toString());
+    Assert.assertSame(ids, result.ids);
+    Assert.assertEquals(0, PostingList.intersectSimd(l1, l3, result));
+    Assert.assertEquals("[]", result.toString());
+    Assert.assertSame(ids, result.ids);
+    Assert.assertEquals(333, PostingList.intersectSimd(l4, l5, result));
+    Assert.assertEquals(expected, result.toString());
+    Assert.assertSame(ids, result.ids);
+    Assert.assertEquals(2, PostingList.intersectGallopingBinarySearch(l1, l2,
+        result));
+    Assert.assertEquals("[(2, 9), (6, 5)]", result.toString());
+    Assert.assertSame(ids, result.ids);
+    Assert.assertEquals(333, PostingList.intersectBinarySearchUsingSentinels(
+        l4, l5, result));
+    Assert.assertEquals(expected, result.toString());
+    Assert.assertSame(ids, result.ids);
+    Assert.assertEquals(333, PostingList.intersect(l5, l4, 0.1, result));
+    Assert.assertEquals(expected, result.toString());
+    Assert.assertSame(ids, result.ids);
+  }
+
+  /**
+   * Tests for the methods union() and unionPriorityQueue().
+   */
+  @Test
+  public void testUnion() {
+    PostingList l1 = new PostingList();
+    PostingList l2 = new PostingList();
+    PostingList l3 = new PostingList();
+    l1.readFromFile("example1.txt");
+    l2.readFromFile("example2.txt");
+    l3.readFromFile("example3.txt");
+    Assert.assertEquals("[(1, 1), (2, 9), (3, 1), (4, 3), (6, 5)]",
+        PostingList.union(l1, l2).toString());
+    Assert.assertEquals("[(1, 1), (2, 9), (3, 1), (4, 3), (5, 1), (6, 5), "
+        + "(7, 2)]", PostingList.union(l1, l2, l3).toString());
+    Assert.assertEquals("[(2, 5), (3, 1), (6, 2)]",
+        PostingList.union(l1).toString());
+    Assert.assertEquals("[]", PostingList.union().toString());
+    Assert.assertEquals(Integer.MAX_VALUE,
+        PostingList.union(l1, l2).getId(5));
+
+    // Lists of multiples of 2, 3, ..., k + 1 (with an empty one), against
+    // the PriorityQueue merge.
+    for (int k = 1; k <= 9; k++) {
+      PostingList[] lists = new PostingList[k];
+      for (int j = 0; j < k; j++) {
+        int size = j == 3 ? 0 : 1000 / (j + 2);
+        lists[j] = new PostingList();
+        lists[j].reserve(size + 1);
+        for (int i = 1; i <= size; i++) {
+          lists[j].addPosting((j + 2) * i, j + 1);
+        }
+        lists[j].addSentinel();
+      }
+      Assert.assertEquals(PostingList.unionPriorityQueue(lists).toString(),
+          PostingList.union(lists).toString());
+    }
+  }
+
   /**
    * +++ IMPORTANT +++
    *
@@ -0,0 +1,215 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * The read-only part of a posting list: its postings of form (docId, score),
+ * sorted by docId and followed by the sentinel (Integer.MAX_VALUE, 0).
+ * </p>
+ *
+ * <p>
+ * The intersection and union methods of PostingList read their input lists
+ * only via getId(), getScore() and size(), so they take them as
+ * PostingListView and work on each implementation: PostingList (backed by
+ * arrays) and MappedPostingList (backed by a memory-mapped file). Only
+ * PostingList has the methods to add postings, so only a PostingList can be
+ * passed where a list is written to (e.g. as the result of an intersection).
+ * </p>
+ */
+public abstract class PostingListView {
+  /**
+   * The first int of a binary posting list file ("PLST").
+   */
+  public static final int BINARY_MAGIC = 0x504C5354;
+
+  /**
+   * The number of postings of a block in blockMaxScores.
+   */
+  public static final int BLOCK_SIZE = 64;
+
+  /**
+   * The number of postings in this list.
+   */
+  protected int numPostings;
+
+  /**
+   * The maximum score of each block of BLOCK_SIZE postings, see
+   * getBlockMaxScores(). Computed on demand, null if not computed yet (or
+   * the list was changed).
+   */
+  protected int[] blockMaxScores;
+
+  /**
+   * The size of this list when blockMaxScores was computed.
+   */
+  protected int blockMaxSize;
+
+  /**
+   * The index for probing ids in this list, see getProbeIndex(). Built on
+   * demand, null if not built yet (or the list was changed).
+   */
+  protected ProbeIndex probeIndex;
+
+  // ==========================================================================
+
+  /**
+   * Writes this posting list to the given file in the binary format read by
+   * MappedPostingList: the int BINARY_MAGIC, the number n of postings, the
+   * n + 1 ids (including the sentinel) and the n + 1 scores, all in little
+   * endian byte order.
+   *
+   * @param fileName
+   *        The path to the file to write.
+   */
+  public void writeToBinaryFile(String fileName) {
+    long numBytes = 4L * (2 + 2 * (size() + 1));
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+            StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      IntBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+          numBytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+      buffer.put(BINARY_MAGIC);
+      buffer.put(size());
+      writeIds(buffer);
+      buffer.put(Integer.MAX_VALUE);
+      writeScores(buffer);
+      buffer.put(0);
+    } catch (IOException e) {
+      System.err.println("Couldn't write the file: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Writes the ids of this list (without the sentinel) to the given buffer.
+   *
+   * @param buffer
+   *        The buffer to write to.
+   */
+  protected void writeIds(IntBuffer buffer) {
+    for (int i = 0; i < size(); i++) {
+      buffer.put(getId(i));
+    }
+  }
+
+  /**
+   * Writes the scores of this list (without the sentinel) to the given
+   * buffer.
+   *
+   * @param buffer
+   *        The buffer to write to.
+   */
+  protected void writeScores(IntBuffer buffer) {
+    for (int i = 0; i < size(); i++) {
+      buffer.put(getScore(i));
+    }
+  }
+
+  // ==========================================================================
+
+  /**
+   * Returns the id of the i-th posting (Integer.MAX_VALUE for i = size()).
+   *
+   * @param i
+   *        The index of the posting.
+   *
+   * @return The id of the i-th posting.
+   */
+  public abstract int getId(int i);
+
+  /**
+   * Returns the score of the i-th posting.
+   *
+   * @param i
+   *        The index of the posting.
+   *
+   * @return The score of the i-th posting.
+   */
+  public abstract int getScore(int i);
+
+  /**
+   * Returns the number of postings in this list.
+   *
+   * @return The number of postings in this list.
+   */
+  public int size() {
+    return this.numPostings;
+  }
+
+  /**
+   * Returns the maximum score of each block of BLOCK_SIZE postings of this
+   * list (the last block may be shorter). The array is computed on the first
+   * call and then kept until the list is changed (by reserve(), reset() or
+   * adding postings).
+   *
+   * @return The maximum scores of the blocks.
+   */
+  public int[] getBlockMaxScores() {
+    int numBlocks = (size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    int[] blockMax = this.blockMaxScores;
+    if (blockMax == null || this.blockMaxSize != size()) {
+      blockMax = new int[numBlocks];
+      for (int b = 0; b < numBlocks; b++) {
+        int max = Integer.MIN_VALUE;
+        int end = Math.min(size(), (b + 1) * BLOCK_SIZE);
+        for (int i = b * BLOCK_SIZE; i < end; i++) {
+          max = Math.max(max, getScore(i));
+        }
+        blockMax[b] = max;
+      }
+      this.blockMaxScores = blockMax;
+      this.blockMaxSize = size();
+    }
+    return blockMax;
+  }
+
+  /**
+   * Returns the index for probing ids in this list. It is built on the first
+   * call and then kept until the list is changed (by reserve(), reset() or
+   * adding postings).
+   *
+   * @return The index.
+   */
+  public ProbeIndex getProbeIndex() {
+    ProbeIndex index = this.probeIndex;
+    if (index == null || index.size() != size()) {
+      index = new ProbeIndex(this);
+      this.probeIndex = index;
+    }
+    return index;
+  }
+
+  /**
+   * Returns a cursor over the postings of this list, for lazy query
+   * evaluation (see PostingCursor).
+   *
+   * @return The cursor.
+   */
+  public PostingCursor cursor() {
+    return PostingCursor.of(this);
+  }
+
+  // ==========================================================================
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("[");
+    for (int i = 0; i < size(); i++) {
+      sb.append("(" + getId(i) + ", " + getScore(i) + ")");
+      if (i < size() - 1) {
+        sb.append(", ");
+      }
+    }
+    sb.append("]");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,186 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+/**
+ * <p>
+ * An index of a (large) posting list, which finds the position of an id in
+ * the list in O(1), for intersecting it with a much smaller list by probing
+ * each id of the smaller list (see PostingList.intersectProbe()).
+ * </p>
+ *
+ * <p>
+ * If the ids of the list are dense enough (their range is at most
+ * MAX_RANGE_PER_POSTING times the size of the list), the index is a bitset
+ * over the range of the ids, plus the number of bits set before each 64-bit
+ * word, like a bitmap container of HybridPostingList. The position of an id
+ * is then its rank in the bitset. Otherwise, the index is an open-addressing
+ * hash table (with linear probing) of the positions, keyed by their ids, with
+ * a load factor of at most 1/2.
+ * </p>
+ *
+ * <p>
+ * Building the index takes O(n), so it is cached by the list (see
+ * PostingList.getProbeIndex()) and only built for frequent terms, whose
+ * lists are intersected with many other lists.
+ * </p>
+ */
+public class ProbeIndex {
+  /**
+   * The maximum range of the ids per posting for the bitset. The bitset and
+   * the ranks then need at most 6 bytes per posting (compared to 8 for the
+   * ids and the scores of the list).
+   */
+  public static final int MAX_RANGE_PER_POSTING = 32;
+
+  /**
+   * The indexed list.
+   */
+  protected final PostingListView list;
+
+  /**
+   * The size of the list when the index was built.
+   */
+  protected final int size;
+
+  /**
+   * The smallest id of the list (the id of the first bit of the bitset).
+   */
+  protected final int base;
+
+  /**
+   * The bitset of the ids minus base (null for the hash table).
+   */
+  protected final long[] bitset;
+
+  /**
+   * The number of bits set before each word of the bitset.
+   */
+  protected final int[] ranks;
+
+  /**
+   * The hash table of the positions plus 1 (0 for an empty slot), null for
+   * the bitset.
+   */
+  protected final int[] table;
+
+  /**
+   * The number of bits to shift a hash code to get a slot of the table.
+   */
+  protected final int shift;
+
+  /**
+   * Builds the index of the given list.
+   *
+   * @param list
+   *        The posting list to index.
+   */
+  public ProbeIndex(PostingListView list) {
+    this.list = list;
+    this.size = list.size();
+    this.base = size == 0 ? 0 : list.getId(0);
+    long range = size == 0 ? 0 : (long) list.getId(size - 1) - base + 1;
+    if (range <= (long) MAX_RANGE_PER_POSTING * size) {
+      long[] bitset = new long[(int) ((range + 63) >>> 6)];
+      for (int i = 0; i < size; i++) {
+        int offset = list.getId(i) - base;
+        bitset[offset >>> 6] |= 1L << offset;
+      }
+      int[] ranks = new int[bitset.length];
+      int count = 0;
+      for (int w = 0; w < bitset.length; w++) {
+        ranks[w] = count;
+        count += Long.bitCount(bitset[w]);
+      }
+      this.bitset = bitset;
+      this.ranks = ranks;
+      this.table = null;
+      this.shift = 0;
+    } else {
+      // At least twice as many slots as postings.
+      int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, size));
+      int[] table = new int[1 << (bits + 1)];
+      int shift = 32 - (bits + 1);
+      int mask = table.length - 1;
+      for (int i = 0; i < size; i++) {
+        int slot = hash(list.getId(i), shift);
+        while (table[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        table[slot] = i + 1;
+      }
+      this.bitset = null;
+      this.ranks = null;
+      this.table = table;
+      this.shift = shift;
+    }
+  }
+
+  /**
+   * Returns the position of the given id in the list.
+   *
+   * @param id
+   *        The id to find.
+   *
+   * @return The position of the id, or -1 if it is not in the list.
+   */
+  public int find(int id) {
+    if (bitset != null) {
+      long offset = (long) id - base;
+      if (offset < 0 || offset >= 64L * bitset.length) {
+        return -1;
+      }
+      int w = (int) (offset >>> 6);
+      long word = bitset[w];
+      // Shifts of longs only use the lowest 6 bits of the shift distance.
+      long bit = 1L << offset;
+      if ((word & bit) == 0) {
+        return -1;
+      }
+      return ranks[w] + Long.bitCount(word & (bit - 1));
+    }
+    int mask = table.length - 1;
+    for (int slot = hash(id, shift); table[slot] != 0;
+        slot = (slot + 1) & mask) {
+      if (list.getId(table[slot] - 1) == id) {
+        return table[slot] - 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the slot of the given id (Fibonacci hashing: the upper bits of
+   * the id times 2^32 / golden ratio).
+   */
+  private static int hash(int id, int shift) {
+    return (id * 0x9E3779B9) >>> shift;
+  }
+
+  /**
+   * Returns true if this index is a bitset (false for a hash table).
+   *
+   * @return True if this index is a bitset.
+   */
+  public boolean isBitset() {
+    return bitset != null;
+  }
+
+  /**
+   * Returns the size of the list when the index was built.
+   *
+   * @return The size of the indexed list.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the (approximate) number of bytes needed by this index.
+   *
+   * @return The number of bytes needed by this index.
+   */
+  public long sizeInBytes() {
+    return bitset != null ? 12L * bitset.length : 4L * table.length;
+  }
+}
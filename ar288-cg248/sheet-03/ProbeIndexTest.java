@@ -0,0 +1,57 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the ProbeIndex class.
+ */
+public class ProbeIndexTest {
+  /**
+   * Returns the list of the ids from + i * step for i < n (with sentinel).
+   */
+  private static PostingList createList(int from, int step, int n) {
+    PostingList list = new PostingList();
+    list.reserve(n + 1);
+    for (int i = 0; i < n; i++) {
+      list.addPosting(from + i * step, i);
+    }
+    list.addSentinel();
+    return list;
+  }
+
+  /**
+   * Tests for the method find(), on a bitset and on a hash table.
+   */
+  @Test
+  public void testFind() {
+    for (int step : new int[] {1, 3, 64, 1000}) {
+      PostingList list = createList(100, step, 5000);
+      ProbeIndex index = new ProbeIndex(list);
+      Assert.assertEquals(step <= ProbeIndex.MAX_RANGE_PER_POSTING,
+          index.isBitset());
+      for (int i = 0; i < list.size(); i++) {
+        Assert.assertEquals(i, index.find(list.getId(i)));
+        if (step > 1) {
+          Assert.assertEquals(-1, index.find(list.getId(i) + 1));
+        }
+      }
+      Assert.assertEquals(-1, index.find(99));
+      Assert.assertEquals(-1, index.find(-1));
+      Assert.assertEquals(-1, index.find(Integer.MIN_VALUE));
+      Assert.assertEquals(-1, index.find(Integer.MAX_VALUE));
+    }
+    Assert.assertEquals(-1, new ProbeIndex(new PostingList()).find(0));
+
+    // Negative ids in the hash table, ids that collide in the lower bits.
+    PostingList list = createList(-(1 << 30), 1 << 20, 2000);
+    ProbeIndex index = new ProbeIndex(list);
+    Assert.assertFalse(index.isBitset());
+    for (int i = 0; i < list.size(); i++) {
+      Assert.assertEquals(i, index.find(list.getId(i)));
+    }
+    Assert.assertEquals(-1, index.find(1));
+  }
+}
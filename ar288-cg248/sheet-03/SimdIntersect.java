@@ -0,0 +1,157 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <p>
+ * Intersects two posting lists with the (incubating) Java Vector API. Only
+ * use this class via PostingList.intersectSimd(), which falls back to the
+ * scalar zipper if the module jdk.incubator.vector is not available (it must
+ * be enabled with --add-modules jdk.incubator.vector).
+ * </p>
+ *
+ * <p>
+ * The lists are processed in blocks of n ids, where n is the number of int
+ * lanes of the machine (8 with AVX2, 16 with AVX-512, 4 with NEON). A block
+ * of l1 is compared with a block of l2 by comparing it n times with the
+ * block of l2, rotated by one lane each time. The scores of the block of l2
+ * are rotated along, so for each match the score to add is already in the
+ * right lane. This finds all common ids of the two blocks without a single
+ * branch that depends on the ids. Then the block with the smaller last id is
+ * replaced by the next block of its list (or both blocks, if the last ids
+ * are equal), just like in the zipper algorithm.
+ * </p>
+ */
+public class SimdIntersect {
+  /**
+   * The preferred int vector shape of the machine.
+   */
+  protected static final VectorSpecies<Integer> SPECIES =
+      IntVector.SPECIES_PREFERRED;
+
+  /**
+   * The shuffle that rotates a vector by one lane.
+   */
+  protected static final VectorShuffle<Integer> ROTATE =
+      VectorShuffle.iota(SPECIES, 1, 1, true);
+
+  /**
+   * The vector with 0 in all lanes.
+   */
+  protected static final IntVector ZERO = IntVector.zero(SPECIES);
+
+  /**
+   * The vector with 2^i in lane i, used to turn a lane mask into a bit mask
+   * (VectorMask.toLong() is not an intrinsic in JDK 17 and thus very slow).
+   */
+  protected static final IntVector LANE_BITS = IntVector.broadcast(SPECIES, 1)
+      .lanewise(VectorOperators.LSHL, ZERO.addIndex(1));
+
+  /**
+   * Intersects the two given posting lists block-wise, see above.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   *
+   * @return The intersection of the two lists.
+   */
+  public static PostingList intersect(PostingList l1, PostingList l2) {
+    PostingList result = new PostingList();
+    intersect(l1, l2, result);
+    return result;
+  }
+
+  /**
+   * Like intersect(l1, l2), but writes the intersection into the given
+   * result (reusing its arrays if they are large enough) instead of into a
+   * new list.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param result
+   *        The list to write the intersection to.
+   *
+   * @return The number of postings in the intersection.
+   */
+  public static int intersect(PostingList l1, PostingList l2,
+      PostingList result) {
+    int n = SPECIES.length();
+    // The n ints behind the postings of the result hold the sums of the
+    // scores of the current blocks.
+    result.reset(Math.min(l1.size(), l2.size()) + n);
+    int[] sums = result.scores;
+
+    int i1 = 0;
+    int i2 = 0;
+    while (i1 + n <= l1.size() && i2 + n <= l2.size()) {
+      IntVector ids1 = IntVector.fromArray(SPECIES, l1.ids, i1);
+      IntVector ids2 = IntVector.fromArray(SPECIES, l2.ids, i2);
+      IntVector scores2 = IntVector.fromArray(SPECIES, l2.scores, i2);
+      // n vector comparisons of n lanes each.
+      OpCounters.comparisons(n * n);
+
+      // Compare each id of the block of l1 with each id of the block of l2
+      // and pick the score of the matching posting of l2.
+      VectorMask<Integer> matches = ids1.eq(ids2);
+      IntVector matchingScores2 = scores2;
+      for (int r = 1; r < n; r++) {
+        ids2 = ids2.rearrange(ROTATE);
+        scores2 = scores2.rearrange(ROTATE);
+        VectorMask<Integer> rotatedMatches = ids1.eq(ids2);
+        matchingScores2 = matchingScores2.blend(scores2, rotatedMatches);
+        matches = matches.or(rotatedMatches);
+      }
+
+      int lanes = ZERO.blend(LANE_BITS, matches)
+          .reduceLanes(VectorOperators.OR);
+      if (lanes != 0) {
+        // The sum of a lane is read before any posting is written to its
+        // position (the i-th match of the block goes to position base + i,
+        // with i <= lane).
+        int base = result.size();
+        IntVector.fromArray(SPECIES, l1.scores, i1).add(matchingScores2)
+            .intoArray(sums, base);
+        do {
+          int lane = Integer.numberOfTrailingZeros(lanes);
+          result.addPosting(l1.getId(i1 + lane), sums[base + lane]);
+          lanes &= lanes - 1;
+        } while (lanes != 0);
+      }
+
+      int last1 = l1.getId(i1 + n - 1);
+      int last2 = l2.getId(i2 + n - 1);
+      if (last1 <= last2) {
+        i1 += n;
+      }
+      if (last2 <= last1) {
+        i2 += n;
+      }
+    }
+
+    // Less than n ids are left in one of the lists, intersect the rest with
+    // the basic zipper algorithm.
+    while (i1 < l1.size() && i2 < l2.size()) {
+      OpCounters.comparisons(1);
+      if (l1.getId(i1) < l2.getId(i2)) {
+        i1++;
+      } else if (l1.getId(i1) > l2.getId(i2)) {
+        i2++;
+      } else {
+        result.addPosting(l1.getId(i1), l1.getScore(i1) + l2.getScore(i2));
+        i1++;
+        i2++;
+      }
+    }
+    return OpCounters.output(result);
+  }
+}
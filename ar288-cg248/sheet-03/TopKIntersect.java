@@ -0,0 +1,166 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Computes only the k postings of the intersection of two posting lists
+ * with the highest (summed) scores, for ranked AND queries.
+ * </p>
+ *
+ * <p>
+ * The smaller list is processed block by block (of PostingList.BLOCK_SIZE
+ * postings). For each block, an upper bound of the scores of its matches is
+ * its maximum score plus the maximum score of the blocks of the larger list
+ * that overlap its id range (both from getBlockMaxScores()). The best k
+ * matches found so far are kept in a min-heap; a block whose upper bound
+ * can't beat the k-th best score is skipped without looking at its ids
+ * (block-max WAND). The same bound is also checked per posting, with the
+ * score of the posting instead of the maximum of its block. Matches in the
+ * blocks that are not skipped are found by galloping in the larger list.
+ * </p>
+ *
+ * <p>
+ * The result is exactly the first k postings of the full intersection
+ * sorted by score (descending) and id (ascending) for equal scores: as the
+ * ids are processed in ascending order, a later match only replaces one in
+ * the heap if its score is strictly larger, so a bound equal to the k-th
+ * best score is enough to skip.
+ * </p>
+ */
+public class TopKIntersect {
+  /**
+   * Returns the k postings of the intersection of the two given lists with
+   * the highest scores.
+   *
+   * @param l1
+   *        The first posting list.
+   * @param l2
+   *        The second posting list.
+   * @param k
+   *        The number of postings to return.
+   *
+   * @return The (at most) k postings, sorted by score (descending) and id
+   *         (ascending), without sentinel.
+   */
+  public static PostingList intersect(PostingListView l1, PostingListView l2,
+      int k) {
+    // Make sure that l1 is the smaller list.
+    if (l1.size() > l2.size()) {
+      return intersect(l2, l1, k);
+    }
+    k = Math.max(0, Math.min(k, l1.size()));
+
+    // The heap of the best matches so far, see key().
+    long[] heap = new long[k];
+    int heapSize = 0;
+
+    int[] blockMax1 = l1.getBlockMaxScores();
+    int[] blockMax2 = l2.getBlockMaxScores();
+    int n1 = l1.size();
+    int n2 = l2.size();
+    int i2 = 0;
+    for (int b = 0; b < blockMax1.length && i2 < n2 && k > 0; b++) {
+      int from1 = b * PostingList.BLOCK_SIZE;
+      int to1 = Math.min(n1, from1 + PostingList.BLOCK_SIZE);
+      int last = l1.getId(to1 - 1);
+      i2 = PostingList.gallop(l2, i2, l1.getId(from1));
+      if (i2 == n2) {
+        break;
+      }
+      if (l2.getId(i2) > last) {
+        continue;
+      }
+
+      // The maximum score of the blocks of l2 overlapping [first, last].
+      int max2 = Integer.MIN_VALUE;
+      for (int b2 = i2 / PostingList.BLOCK_SIZE; b2 < blockMax2.length
+          && l2.getId(b2 * PostingList.BLOCK_SIZE) <= last; b2++) {
+        max2 = Math.max(max2, blockMax2[b2]);
+      }
+      if (heapSize == k && (long) blockMax1[b] + max2 <= minScore(heap)) {
+        continue;
+      }
+
+      for (int i1 = from1; i1 < to1 && i2 < n2; i1++) {
+        if (heapSize == k && (long) l1.getScore(i1) + max2 <= minScore(heap)) {
+          continue;
+        }
+        int id = l1.getId(i1);
+        i2 = PostingList.gallop(l2, i2, id);
+        if (i2 == n2 || l2.getId(i2) != id) {
+          continue;
+        }
+        long key = key(id, l1.getScore(i1) + l2.getScore(i2));
+        if (heapSize < k) {
+          heap[heapSize] = key;
+          siftUp(heap, heapSize++);
+        } else if (key > heap[0]) {
+          heap[0] = key;
+          siftDown(heap, heapSize);
+        }
+      }
+    }
+
+    // The heap in descending order of the keys.
+    Arrays.sort(heap, 0, heapSize);
+    PostingList result = new PostingList();
+    result.reserve(heapSize);
+    for (int i = heapSize - 1; i >= 0; i--) {
+      result.addPosting(~(int) heap[i], (int) (heap[i] >> 32));
+    }
+    return result;
+  }
+
+  // ==========================================================================
+
+  /**
+   * Returns the heap key of the given match: the score in the upper 32 bits
+   * and the complement of the id in the lower ones. So a key is larger if
+   * the score is larger, or if the score is equal and the id is smaller.
+   */
+  private static long key(int id, int score) {
+    return ((long) score << 32) | (~id & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Returns the score of the smallest key in the given heap.
+   */
+  private static int minScore(long[] heap) {
+    return (int) (heap[0] >> 32);
+  }
+
+  /**
+   * Moves the key at position i of the given min-heap up to its place.
+   */
+  private static void siftUp(long[] heap, int i) {
+    long key = heap[i];
+    while (i > 0 && heap[(i - 1) >>> 1] > key) {
+      heap[i] = heap[(i - 1) >>> 1];
+      i = (i - 1) >>> 1;
+    }
+    heap[i] = key;
+  }
+
+  /**
+   * Moves the key at the root of the given min-heap down to its place.
+   */
+  private static void siftDown(long[] heap, int size) {
+    long key = heap[0];
+    int i = 0;
+    while (2 * i + 1 < size) {
+      int child = 2 * i + 1;
+      if (child + 1 < size && heap[child + 1] < heap[child]) {
+        child++;
+      }
+      if (heap[child] >= key) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = key;
+  }
+}
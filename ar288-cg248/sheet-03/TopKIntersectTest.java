@@ -0,0 +1,82 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the TopKIntersect class.
+ */
+public class TopKIntersectTest {
+  /**
+   * Returns the first k postings of the full intersection of the given lists,
+   * sorted by score (descending) and id (ascending).
+   */
+  private static String expected(PostingList l1, PostingList l2, int k) {
+    PostingList all = PostingList.intersectBaseline(l1, l2);
+    Integer[] order = new Integer[all.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> all.getScore(a) != all.getScore(b)
+        ? Integer.compare(all.getScore(b), all.getScore(a))
+        : Integer.compare(all.getId(a), all.getId(b)));
+    PostingList top = new PostingList();
+    top.reserve(Math.min(k, order.length));
+    for (int i = 0; i < Math.min(k, order.length); i++) {
+      top.addPosting(all.getId(order[i]), all.getScore(order[i]));
+    }
+    return top.toString();
+  }
+
+  /**
+   * Returns a random list of ids below n with gaps of 1 to 2 * step - 1 (with
+   * sentinel).
+   */
+  private static PostingList randomList(Random random, int n, int step,
+      int maxScore) {
+    PostingList list = new PostingList();
+    list.reserve(n + 1);
+    for (int id = random.nextInt(step); id < n; id += 1 + random.nextInt(
+        2 * step - 1)) {
+      list.addPosting(id, random.nextInt(maxScore + 1));
+    }
+    list.addSentinel();
+    return list;
+  }
+
+  /**
+   * Tests for the method intersect().
+   */
+  @Test
+  public void testIntersect() {
+    PostingList l1 = new PostingList();
+    PostingList l2 = new PostingList();
+    l1.readFromFile("example1.txt");
+    l2.readFromFile("example2.txt");
+    Assert.assertEquals("[(2, 9), (6, 5)]",
+        TopKIntersect.intersect(l1, l2, 10).toString());
+    Assert.assertEquals("[(2, 9)]",
+        PostingList.intersectTopK(l2, l1, 1).toString());
+    Assert.assertEquals("[]", TopKIntersect.intersect(l1, l2, 0).toString());
+
+    // Random lists of different sizes and score ranges (few distinct scores
+    // give many ties), against the full intersection.
+    Random random = new Random(42);
+    for (int round = 0; round < 40; round++) {
+      int step1 = 1 + random.nextInt(4);
+      int step2 = 1 + random.nextInt(round % 2 == 0 ? 4 : 200);
+      int maxScore = round % 3 == 0 ? 3 : 1000;
+      PostingList r1 = randomList(random, 50000, step1, maxScore);
+      PostingList r2 = randomList(random, 50000, step2, maxScore);
+      for (int k : new int[] {1, 10, 100, 100000}) {
+        Assert.assertEquals(expected(r1, r2, k),
+            TopKIntersect.intersect(r1, r2, k).toString());
+      }
+    }
+  }
+}
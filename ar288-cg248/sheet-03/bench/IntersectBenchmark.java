@@ -0,0 +1,531 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>
+ * JMH benchmarks for the intersection algorithms of the PostingList class
+ * (and of CompressedPostingList and HybridPostingList).
+ * Each benchmark is run in throughput mode (ops/s) and in sample mode
+ * (latency percentiles); the GC profiler, which is added by main(), reports
+ * the allocation rate.
+ * </p>
+ *
+ * <p>
+ * The two input lists are generated synthetically. The ids of the large list
+ * are all even; an id of the small list is either taken from the large list
+ * (a hit) or is the odd id right behind one of them (a miss), so the number
+ * of hits is exactly controlled by the "density" parameter.
+ * </p>
+ *
+ * <p>
+ * JMH refuses benchmarks in the default package, and the default package
+ * (where PostingList lives) cannot be imported from a named one. So the
+ * PostingList methods are bound through static final method handles, which
+ * the JIT inlines just like direct calls.
+ * </p>
+ *
+ * <p>
+ * Run it with "ant bench" (see build.xml). Any JMH command line option can
+ * be passed via -Dbench-args, e.g. -Dbench-args="-p ratio=100 -p
+ * distribution=uniform". The other benchmark classes in bench/ are run by
+ * naming them, e.g. -Dbench-args="UnionBenchmark".
+ * </p>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class IntersectBenchmark {
+  /**
+   * The PostingList class (in the default package).
+   */
+  private static final Class<?> POSTING_LIST = findClass("PostingList");
+
+  /**
+   * The PostingListView class (in the default package), the type of the
+   * input lists of the methods of PostingList.
+   */
+  static final Class<?> VIEW = findClass("PostingListView");
+
+  /**
+   * The CompressedPostingList class (in the default package).
+   */
+  private static final Class<?> COMPRESSED = findClass(
+      "CompressedPostingList");
+
+  /**
+   * The HybridPostingList class (in the default package).
+   */
+  private static final Class<?> HYBRID = findClass("HybridPostingList");
+
+  /**
+   * PostingList(), typed as ()Object.
+   */
+  private static final MethodHandle NEW_LIST = findConstructor(POSTING_LIST);
+
+  /**
+   * CompressedPostingList(PostingListView), typed as (Object)Object.
+   */
+  private static final MethodHandle COMPRESS = findConstructor(COMPRESSED,
+      VIEW);
+
+  /**
+   * HybridPostingList(PostingListView), typed as (Object)Object.
+   */
+  private static final MethodHandle TO_HYBRID = findConstructor(HYBRID,
+      VIEW);
+
+  /**
+   * PostingList.reserve(int), typed as (Object, int)void.
+   */
+  private static final MethodHandle RESERVE = findVirtual("reserve",
+      int.class);
+
+  /**
+   * PostingList.addPosting(int, int), typed as (Object, int, int)void.
+   */
+  private static final MethodHandle ADD_POSTING = findVirtual("addPosting",
+      int.class, int.class);
+
+  /**
+   * PostingList.addSentinel(), typed as (Object)void.
+   */
+  private static final MethodHandle ADD_SENTINEL = findVirtual("addSentinel");
+
+  /**
+   * The intersection methods, typed as (Object, Object)Object.
+   */
+  private static final MethodHandle BASELINE = findIntersect(POSTING_LIST,
+      "intersectBaseline");
+  private static final MethodHandle ZIPPER = findIntersect(POSTING_LIST,
+      "intersectZipper");
+  private static final MethodHandle SIMD = findIntersect(POSTING_LIST,
+      "intersectSimd");
+  private static final MethodHandle PARALLEL = findIntersect(POSTING_LIST,
+      "intersectParallel");
+  private static final MethodHandle SENTINELS = findIntersect(POSTING_LIST,
+      "intersectBinarySearchUsingSentinels");
+  private static final MethodHandle RECURSIVE = findIntersect(POSTING_LIST,
+      "intersectBinarySearchRecursive");
+  private static final MethodHandle GALLOPING = findIntersect(POSTING_LIST,
+      "intersectGallopingBinarySearch");
+  private static final MethodHandle COMPRESSED_ZIPPER = findIntersect(
+      COMPRESSED, "intersectZipper");
+  private static final MethodHandle COMPRESSED_GALLOPING = findIntersect(
+      COMPRESSED, "intersectGalloping");
+  private static final MethodHandle HYBRID_INTERSECT = findIntersect(HYBRID,
+      "intersect");
+
+  /**
+   * The intersection methods that write into a given result, typed as
+   * (Object, Object, Object)int.
+   */
+  private static final MethodHandle SIMD_INTO = findIntersectInto(
+      "intersectSimd", VIEW, VIEW, POSTING_LIST);
+  private static final MethodHandle GALLOPING_INTO = findIntersectInto(
+      "intersectGallopingBinarySearch", VIEW, VIEW, POSTING_LIST);
+  private static final MethodHandle PROBE_INTO = findIntersectInto(
+      "intersectProbe", VIEW, VIEW, POSTING_LIST);
+
+  /**
+   * The number of postings in the larger list.
+   */
+  @Param({"100000"})
+  public int largeSize;
+
+  /**
+   * The size of the larger list divided by the size of the smaller list.
+   */
+  @Param({"1", "10", "100", "1000"})
+  public int ratio;
+
+  /**
+   * The fraction of ids of the smaller list that also occur in the larger
+   * list (= size of the result / size of the smaller list).
+   */
+  @Param({"0.01", "0.1", "0.5", "1.0"})
+  public double density;
+
+  /**
+   * The distribution of the ids: "uniform" spreads the ids with random gaps
+   * over the id space, "clustered" puts them into runs of consecutive ids.
+   */
+  @Param({"uniform", "clustered"})
+  public String distribution;
+
+  /**
+   * The smaller of the two lists to intersect.
+   */
+  protected Object small;
+
+  /**
+   * The larger of the two lists to intersect.
+   */
+  protected Object large;
+
+  /**
+   * The smaller list, compressed.
+   */
+  protected Object smallCompressed;
+
+  /**
+   * The larger list, compressed.
+   */
+  protected Object largeCompressed;
+
+  /**
+   * The smaller list, as hybrid list.
+   */
+  protected Object smallHybrid;
+
+  /**
+   * The larger list, as hybrid list.
+   */
+  protected Object largeHybrid;
+
+  /**
+   * The list the *IntoResult benchmarks write to (reused by all calls).
+   */
+  protected Object result;
+
+  /**
+   * The number of postings in the smaller list.
+   */
+  protected int smallSize;
+
+  // ==========================================================================
+
+  /**
+   * Generates the two posting lists for the current parameters.
+   */
+  @Setup(Level.Trial)
+  public void setup() throws Throwable {
+    Random random = new Random(42);
+
+    // Generate the (even) ids of the larger list.
+    int[] largeIds = new int[largeSize];
+    int base = 0;
+    for (int i = 0; i < largeSize; i++) {
+      if ("clustered".equals(distribution)) {
+        // Start a new run of consecutive ids with probability 1/64.
+        base += random.nextInt(64) == 0 ? 1 + random.nextInt(1024) : 1;
+      } else {
+        base += 1 + random.nextInt(7);
+      }
+      largeIds[i] = 2 * base;
+    }
+    large = (Object) NEW_LIST.invokeExact();
+    RESERVE.invokeExact(large, largeSize + 1);
+    for (int i = 0; i < largeSize; i++) {
+      ADD_POSTING.invokeExact(large, largeIds[i], 1 + random.nextInt(100));
+    }
+    ADD_SENTINEL.invokeExact(large);
+
+    // Pick the positions of the larger list the smaller list refers to.
+    smallSize = Math.max(1, largeSize / ratio);
+    boolean[] picked = new boolean[largeSize];
+    int numPicked = 0;
+    while (numPicked < smallSize) {
+      int pos = random.nextInt(largeSize);
+      if (!picked[pos]) {
+        picked[pos] = true;
+        numPicked++;
+      }
+    }
+
+    // Decide for each picked position whether it is a hit or a miss, such
+    // that there are exactly round(smallSize * density) hits.
+    int hitsLeft = (int) Math.round(smallSize * density);
+    int left = smallSize;
+    small = (Object) NEW_LIST.invokeExact();
+    RESERVE.invokeExact(small, smallSize + 1);
+    for (int i = 0; i < largeSize; i++) {
+      if (!picked[i]) {
+        continue;
+      }
+      boolean hit = random.nextInt(left) < hitsLeft;
+      ADD_POSTING.invokeExact(small, hit ? largeIds[i] : largeIds[i] + 1,
+          1 + random.nextInt(100));
+      if (hit) {
+        hitsLeft--;
+      }
+      left--;
+    }
+    ADD_SENTINEL.invokeExact(small);
+
+    smallCompressed = (Object) COMPRESS.invokeExact(small);
+    largeCompressed = (Object) COMPRESS.invokeExact(large);
+    smallHybrid = (Object) TO_HYBRID.invokeExact(small);
+    result = (Object) NEW_LIST.invokeExact();
+    largeHybrid = (Object) TO_HYBRID.invokeExact(large);
+  }
+
+  // ==========================================================================
+
+  /**
+   * Benchmarks PostingList.intersectBaseline().
+   *
+   * @return The intersection (consumed by JMH to prevent dead code
+   *         elimination).
+   */
+  @Benchmark
+  public Object intersectBaseline() throws Throwable {
+    return (Object) BASELINE.invokeExact(small, large);
+  }
+
+  /**
+   * Benchmarks PostingList.intersectZipper().
+   *
+   * @return The intersection.
+   */
+  @Benchmark
+  public Object intersectZipper() throws Throwable {
+    return (Object) ZIPPER.invokeExact(small, large);
+  }
+
+  /**
+   * Benchmarks PostingList.intersectSimd().
+   *
+   * @return The intersection.
+   */
+  @Benchmark
+  public Object intersectSimd() throws Throwable {
+    return (Object) SIMD.invokeExact(small, large);
+  }
+
+  /**
+   * Benchmarks PostingList.intersectSimd() into a reused result (this
+   * allocates nothing once the result is large enough).
+   *
+   * @return The size of the intersection.
+   */
+  @Benchmark
+  public int intersectSimdIntoResult() throws Throwable {
+    return (int) SIMD_INTO.invokeExact(small, large, result);
+  }
+
+  /**
+   * Benchmarks PostingList.intersectGallopingBinarySearch() into a reused
+   * result.
+   *
+   * @return The size of the intersection.
+   */
+  @Benchmark
+  public int intersectGallopingIntoResult() throws Throwable {
+    return (int) GALLOPING_INTO.invokeExact(small, large, result);
+  }
+
+  /**
+   * Benchmarks PostingList.intersectProbe() into a reused result (the
+   * ProbeIndex of the large list is built in the first call and then
+   * cached).
+   *
+   * @return The size of the intersection.
+   */
+  @Benchmark
+  public int intersectProbeIntoResult() throws Throwable {
+    return (int) PROBE_INTO.invokeExact(small, large, result);
+  }
+
+  /**
+   * Benchmarks PostingList.intersectParallel().
+   *
+   * @return The intersection.
+   */
+  @Benchmark
+  public Object intersectParallel() throws Throwable {
+    return (Object) PARALLEL.invokeExact(small, large);
+  }
+
+  /**
+   * Benchmarks CompressedPostingList.intersectZipper().
+   *
+   * @return The intersection.
+   */
+  @Benchmark
+  public Object intersectCompressedZipper() throws Throwable {
+    return (Object) COMPRESSED_ZIPPER.invokeExact(smallCompressed,
+        largeCompressed);
+  }
+
+  /**
+   * Benchmarks CompressedPostingList.intersectGalloping().
+   *
+   * @return The intersection.
+   */
+  @Benchmark
+  public Object intersectCompressedGalloping() throws Throwable {
+    return (Object) COMPRESSED_GALLOPING.invokeExact(smallCompressed,
+        largeCompressed);
+  }
+
+  /**
+   * Benchmarks HybridPostingList.intersect().
+   *
+   * @return The intersection.
+   */
+  @Benchmark
+  public Object intersectHybrid() throws Throwable {
+    return (Object) HYBRID_INTERSECT.invokeExact(smallHybrid, largeHybrid);
+  }
+
+  /**
+   * Benchmarks PostingList.intersectBinarySearchUsingSentinels().
+   *
+   * @return The intersection.
+   */
+  @Benchmark
+  public Object intersectBinarySearchUsingSentinels() throws Throwable {
+    return (Object) SENTINELS.invokeExact(small, large);
+  }
+
+  /**
+   * Benchmarks PostingList.intersectBinarySearchRecursive().
+   *
+   * @return The intersection.
+   */
+  @Benchmark
+  public Object intersectBinarySearchRecursive() throws Throwable {
+    return (Object) RECURSIVE.invokeExact(small, large);
+  }
+
+  /**
+   * Benchmarks PostingList.intersectGallopingBinarySearch().
+   *
+   * @return The intersection.
+   */
+  @Benchmark
+  public Object intersectGallopingBinarySearch() throws Throwable {
+    return (Object) GALLOPING.invokeExact(small, large);
+  }
+
+  // ==========================================================================
+
+  /**
+   * Loads the class with the given name from the default package.
+   */
+  static Class<?> findClass(String name) {
+    try {
+      return Class.forName(name);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Finds the constructor of the given class with the given parameter types,
+   * with all types erased to Object.
+   */
+  static MethodHandle findConstructor(Class<?> owner,
+      Class<?>... params) {
+    try {
+      MethodHandle handle = MethodHandles.lookup().findConstructor(owner,
+          MethodType.methodType(void.class, params));
+      return handle.asType(handle.type().erase());
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Finds the void instance method of PostingList with the given name and
+   * parameter types, with the receiver typed as Object.
+   */
+  static MethodHandle findVirtual(String name, Class<?>... params) {
+    try {
+      MethodHandle handle = MethodHandles.lookup().findVirtual(POSTING_LIST,
+          name, MethodType.methodType(void.class, params));
+      return handle.asType(handle.type().changeParameterType(0,
+          Object.class));
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Finds the static intersection method of the given class with the given
+   * name and parameter types (two lists of the given class by default, two
+   * PostingListViews for PostingList), returning a PostingList. All lists
+   * are typed as Object.
+   */
+  static MethodHandle findIntersect(Class<?> owner, String name,
+      Class<?>... params) {
+    if (params.length == 0) {
+      Class<?> input = owner == POSTING_LIST ? VIEW : owner;
+      params = new Class<?>[] {input, input};
+    }
+    try {
+      // With fixed arity, the array of a varargs method is passed as is.
+      MethodHandle handle = MethodHandles.lookup().findStatic(owner,
+          name, MethodType.methodType(POSTING_LIST, params)).asFixedArity();
+      return handle.asType(handle.type().erase());
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Finds the static method of PostingList with the given name and
+   * parameter types that writes an intersection into a given result and
+   * returns its size. All lists are typed as Object.
+   */
+  static MethodHandle findIntersectInto(String name, Class<?>... params) {
+    try {
+      MethodHandle handle = MethodHandles.lookup().findStatic(POSTING_LIST,
+          name, MethodType.methodType(int.class, params));
+      return handle.asType(handle.type().erase());
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Runs the benchmarks of this class (all of them, unless a benchmark
+   * pattern is given) with the GC profiler enabled.
+   *
+   * @param args
+   *        Additional JMH command line options.
+   */
+  public static void main(String[] args) throws RunnerException,
+      CommandLineOptionException {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    OptionsBuilder builder = new OptionsBuilder();
+    builder.parent(commandLine);
+    if (commandLine.getIncludes().isEmpty()) {
+      builder.include(IntersectBenchmark.class.getSimpleName());
+    }
+    Options options = builder.addProfiler(GCProfiler.class).build();
+    new Runner(options).run();
+  }
+}
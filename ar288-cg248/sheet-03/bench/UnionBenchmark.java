@@ -0,0 +1,145 @@
+// Copyright 2017, University of Freiburg,
+// Chair of Algorithms and Data Structures.
+// Author: Claudius Korzen <korzen@cs.uni-freiburg.de>.
+
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Array;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * JMH benchmarks for the union of k posting lists: PostingList.union()
+ * (zipper for k = 2, loser tree otherwise) against the PriorityQueue merge
+ * PostingList.unionPriorityQueue().
+ * </p>
+ *
+ * <p>
+ * The lists have random gaps between 1 and 2k, so that about half of the
+ * ids of a list also occur in another one. Run it with "ant bench
+ * -Dbench-args=UnionBenchmark" (see IntersectBenchmark).
+ * </p>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UnionBenchmark {
+  /**
+   * The PostingList class (in the default package).
+   */
+  private static final Class<?> POSTING_LIST = IntersectBenchmark.findClass(
+      "PostingList");
+
+  /**
+   * PostingList(), typed as ()Object.
+   */
+  private static final MethodHandle NEW_LIST =
+      IntersectBenchmark.findConstructor(POSTING_LIST);
+
+  /**
+   * PostingList.reserve(int), typed as (Object, int)void.
+   */
+  private static final MethodHandle RESERVE = IntersectBenchmark.findVirtual(
+      "reserve", int.class);
+
+  /**
+   * PostingList.addPosting(int, int), typed as (Object, int, int)void.
+   */
+  private static final MethodHandle ADD_POSTING =
+      IntersectBenchmark.findVirtual("addPosting", int.class, int.class);
+
+  /**
+   * PostingList.addSentinel(), typed as (Object)void.
+   */
+  private static final MethodHandle ADD_SENTINEL =
+      IntersectBenchmark.findVirtual("addSentinel");
+
+  /**
+   * The union methods, typed as (Object)Object (the argument is a
+   * PostingListView[]).
+   */
+  private static final MethodHandle UNION = IntersectBenchmark.findIntersect(
+      POSTING_LIST, "union", IntersectBenchmark.VIEW.arrayType());
+  private static final MethodHandle UNION_PRIORITY_QUEUE =
+      IntersectBenchmark.findIntersect(POSTING_LIST, "unionPriorityQueue",
+          IntersectBenchmark.VIEW.arrayType());
+
+  /**
+   * The number of lists.
+   */
+  @Param({"2", "4", "16", "64"})
+  public int numLists;
+
+  /**
+   * The number of postings of each list.
+   */
+  @Param({"10000"})
+  public int listSize;
+
+  /**
+   * The lists, as PostingList[].
+   */
+  protected Object lists;
+
+  // ==========================================================================
+
+  /**
+   * Generates the lists for the current parameters.
+   */
+  @Setup(Level.Trial)
+  public void setup() throws Throwable {
+    Random random = new Random(42);
+    lists = Array.newInstance(POSTING_LIST, numLists);
+    for (int j = 0; j < numLists; j++) {
+      Object list = (Object) NEW_LIST.invokeExact();
+      RESERVE.invokeExact(list, listSize + 1);
+      int id = 0;
+      for (int i = 0; i < listSize; i++) {
+        id += 1 + random.nextInt(2 * numLists);
+        ADD_POSTING.invokeExact(list, id, 1 + random.nextInt(100));
+      }
+      ADD_SENTINEL.invokeExact(list);
+      Array.set(lists, j, list);
+    }
+  }
+
+  // ==========================================================================
+
+  /**
+   * Benchmarks PostingList.union().
+   *
+   * @return The union.
+   */
+  @Benchmark
+  public Object union() throws Throwable {
+    return (Object) UNION.invokeExact(lists);
+  }
+
+  /**
+   * Benchmarks PostingList.unionPriorityQueue().
+   *
+   * @return The union.
+   */
+  @Benchmark
+  public Object unionPriorityQueue() throws Throwable {
+    return (Object) UNION_PRIORITY_QUEUE.invokeExact(lists);
+  }
+}
@@ -0,0 +1,487 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <p>
+ * A boolean query on an inverted index, like "film AND (animated OR short)
+ * AND NOT documentary". The operators are AND, OR and NOT (in upper case),
+ * with parentheses; NOT binds strongest, then AND, then OR, and words next
+ * to each other are implicitly combined by AND. All other words are
+ * lowercased and split like the records (see InvertedIndex.splitIntoWords()).
+ * </p>
+ *
+ * <p>
+ * The parsed query is turned into a plan of binary operations on the
+ * inverted lists: the operands of an AND are intersected in the order of
+ * their (estimated) sizes, smallest first, so the intermediate results stay
+ * small. A NOT below an AND is subtracted from the intersection of the
+ * other operands (a NOT of an OR is split into a NOT of each operand, and a
+ * NOT of a NOT cancels out), and only a NOT without other operands is
+ * subtracted from all records. For each intersection, zipper (see
+ * PostingList.intersect()) or galloping (see
+ * PostingList.intersectGalloping()) is chosen by the ratio of the estimated
+ * sizes of the operands. The sizes of the results are estimated from the
+ * document frequencies of the words (see InvertedIndex.getDocFrequency(),
+ * no list is read for planning), assuming that the words occur
+ * independently.
+ * explain() shows the plan with the estimated and the actual sizes.
+ * </p>
+ */
+public class BooleanQuery {
+  /**
+   * The ratio of the sizes of two lists from which on they are intersected
+   * by galloping instead of zipper.
+   */
+  public static final int GALLOPING_RATIO = 4;
+
+  /**
+   * The types of the nodes.
+   */
+  protected static final int WORD = 0;
+  protected static final int ALL = 1;
+  protected static final int AND = 2;
+  protected static final int OR = 3;
+  protected static final int NOT = 4;
+  protected static final int DIFFERENCE = 5;
+
+  /**
+   * The index to evaluate the query on.
+   */
+  protected InvertedIndexView index;
+
+  /**
+   * The number of records of the index (at least 1, for the estimates).
+   */
+  protected double numDocs;
+
+  /**
+   * The root of the plan.
+   */
+  protected Node root;
+
+  /**
+   * Parses the given query and plans it on the given index.
+   *
+   * @param query
+   *        The query.
+   * @param index
+   *        The index to evaluate the query on.
+   *
+   * @throws IllegalArgumentException
+   *         If the query is not a valid boolean query.
+   */
+  public BooleanQuery(String query, InvertedIndexView index) {
+    this.index = index;
+    this.numDocs = Math.max(1, index.getNumDocs());
+    this.root = plan(new Parser(query).parse());
+  }
+
+  // ==========================================================================
+
+  /**
+   * Evaluates the query: returns the list of the records that match the
+   * query, sorted by id, with the sum of the term frequencies of the
+   * matching words. Records the actual sizes of the results for explain().
+   */
+  public PostingList evaluate() {
+    return evaluate(this.root);
+  }
+
+  /**
+   * Evaluates the given node of the plan.
+   */
+  protected PostingList evaluate(Node node) {
+    PostingList result;
+    switch (node.type) {
+      case WORD:
+        result = this.index.getInvertedList(node.word);
+        if (result == null) {
+          result = new PostingList();
+        }
+        break;
+      case ALL:
+        int[] ids = new int[this.index.getNumDocs()];
+        for (int i = 0; i < ids.length; i++) {
+          ids[i] = i;
+        }
+        result = new PostingList(ids);
+        break;
+      case OR:
+        result = evaluate(node.children.get(0)).union(
+            evaluate(node.children.get(1)));
+        break;
+      default:
+        // AND or DIFFERENCE, nothing to do if the first operand is empty.
+        result = evaluate(node.children.get(0));
+        if (result.size() == 0) {
+          break;
+        }
+        PostingList other = evaluate(node.children.get(1));
+        if (node.type == DIFFERENCE) {
+          result = result.difference(other);
+        } else if (!node.galloping) {
+          result = result.intersect(other);
+        } else if (result.size() <= other.size()) {
+          result = result.intersectGalloping(other);
+        } else {
+          result = other.intersectGalloping(result);
+        }
+    }
+    node.actual = result.size();
+    return result;
+  }
+
+  /**
+   * Returns the plan, one node per line, with the operands of a node below
+   * it, and the estimated and the actual size of the result of each node
+   * (the actual size is "-" before evaluate() and for nodes that were
+   * skipped because the result was empty anyway).
+   */
+  public String explain() {
+    StringBuilder sb = new StringBuilder();
+    explain(this.root, "", sb);
+    return sb.toString();
+  }
+
+  /**
+   * Appends the given node and its operands with the given indentation to
+   * the given string builder.
+   */
+  private void explain(Node node, String indent, StringBuilder sb) {
+    sb.append(indent);
+    switch (node.type) {
+      case WORD:
+        sb.append('"').append(node.word).append('"');
+        break;
+      case ALL:
+        sb.append("ALL");
+        break;
+      case AND:
+        sb.append(node.galloping ? "AND (galloping)" : "AND (zipper)");
+        break;
+      case OR:
+        sb.append("OR");
+        break;
+      default:
+        sb.append("DIFFERENCE");
+    }
+    sb.append(": estimated ").append(Math.round(node.estimate))
+        .append(", actual ")
+        .append(node.actual >= 0 ? String.valueOf(node.actual) : "-")
+        .append('\n');
+    for (Node child : node.children) {
+      explain(child, indent + "  ", sb);
+    }
+  }
+
+  // ==========================================================================
+
+  /**
+   * Returns the plan of the given parsed node.
+   */
+  protected Node plan(Node node) {
+    if (node.type == WORD) {
+      node.estimate = this.index.getDocFrequency(node.word);
+      return node;
+    }
+    if (node.type == OR) {
+      // Flatten nested ORs, and unite the smallest lists first.
+      List<Node> operands = new ArrayList<>();
+      collectOr(node, operands);
+      operands.sort(Comparator.comparingDouble(n -> n.estimate));
+      Node result = operands.get(0);
+      for (int i = 1; i < operands.size(); i++) {
+        Node operand = operands.get(i);
+        double estimate = this.numDocs * (1 - (1 - result.estimate
+            / this.numDocs) * (1 - operand.estimate / this.numDocs));
+        result = new Node(OR, estimate, result, operand);
+      }
+      return result;
+    }
+
+    // An AND or a NOT: intersect the smallest lists first, then subtract the
+    // largest lists first.
+    List<Node> positives = new ArrayList<>();
+    List<Node> negatives = new ArrayList<>();
+    collectAnd(node, positives, negatives);
+    positives.sort(Comparator.comparingDouble(n -> n.estimate));
+    negatives.sort(Comparator.comparingDouble(n -> -n.estimate));
+    Node result;
+    if (positives.isEmpty()) {
+      result = new Node(ALL, this.numDocs);
+    } else {
+      result = positives.get(0);
+    }
+    for (int i = 1; i < positives.size(); i++) {
+      Node operand = positives.get(i);
+      double estimate = result.estimate * operand.estimate / this.numDocs;
+      double min = Math.min(result.estimate, operand.estimate);
+      double max = Math.max(result.estimate, operand.estimate);
+      result = new Node(AND, estimate, result, operand);
+      result.galloping = max >= GALLOPING_RATIO * min;
+    }
+    for (Node operand : negatives) {
+      double estimate = result.estimate * (1 - operand.estimate
+          / this.numDocs);
+      result = new Node(DIFFERENCE, estimate, result, operand);
+    }
+    return result;
+  }
+
+  /**
+   * Adds the plans of the operands of the given (nested) OR to the given
+   * list.
+   */
+  private void collectOr(Node node, List<Node> operands) {
+    if (node.type == OR) {
+      for (Node child : node.children) {
+        collectOr(child, operands);
+      }
+    } else {
+      operands.add(plan(node));
+    }
+  }
+
+  /**
+   * Adds the plans of the operands of the given (nested) AND to the given
+   * lists: of the operands to intersect, and of the operands to subtract.
+   */
+  private void collectAnd(Node node, List<Node> positives,
+      List<Node> negatives) {
+    if (node.type == AND) {
+      for (Node child : node.children) {
+        collectAnd(child, positives, negatives);
+      }
+    } else if (node.type != NOT) {
+      positives.add(plan(node));
+    } else {
+      Node child = node.children.get(0);
+      if (child.type == NOT) {
+        // NOT NOT x = x.
+        collectAnd(child.children.get(0), positives, negatives);
+      } else if (child.type == OR) {
+        // NOT (x OR y) = NOT x AND NOT y.
+        for (Node operand : child.children) {
+          collectAnd(new Node(NOT, 0, operand), positives, negatives);
+        }
+      } else {
+        negatives.add(plan(child));
+      }
+    }
+  }
+
+  // ==========================================================================
+
+  /**
+   * A node of a parsed query or of a plan.
+   */
+  protected static class Node {
+    /**
+     * The type of the node: WORD, ALL, AND, OR, NOT (only in a parsed query)
+     * or DIFFERENCE (only in a plan).
+     */
+    protected int type;
+
+    /**
+     * The word of a WORD node.
+     */
+    protected String word;
+
+    /**
+     * The operands of the node (two in a plan).
+     */
+    protected List<Node> children = new ArrayList<>();
+
+    /**
+     * The estimated size of the result of the node.
+     */
+    protected double estimate;
+
+    /**
+     * Whether an AND node intersects by galloping (otherwise by zipper).
+     */
+    protected boolean galloping;
+
+    /**
+     * The actual size of the result of the node, -1 if not evaluated.
+     */
+    protected int actual = -1;
+
+    /**
+     * Creates a node of the given type with the given estimated size and
+     * operands.
+     */
+    public Node(int type, double estimate, Node... children) {
+      this.type = type;
+      this.estimate = estimate;
+      for (Node child : children) {
+        this.children.add(child);
+      }
+    }
+  }
+
+  /**
+   * A recursive descent parser of boolean queries:
+   *
+   * <pre>
+   * or   = and { "OR" and }
+   * and  = not { [ "AND" ] not }
+   * not  = "NOT" not | "(" or ")" | word
+   * </pre>
+   */
+  protected static class Parser {
+    /**
+     * The query.
+     */
+    protected String query;
+
+    /**
+     * The tokens of the query: words, operators and parentheses.
+     */
+    protected List<String> tokens = new ArrayList<>();
+
+    /**
+     * The positions of the tokens in the query.
+     */
+    protected List<Integer> positions = new ArrayList<>();
+
+    /**
+     * The index of the next token.
+     */
+    protected int next;
+
+    /**
+     * Splits the given query into tokens.
+     *
+     * @param query
+     *        The query.
+     */
+    public Parser(String query) {
+      this.query = query;
+      int i = 0;
+      while (i < query.length()) {
+        char c = query.charAt(i);
+        if (c == '(' || c == ')') {
+          this.tokens.add(String.valueOf(c));
+          this.positions.add(i++);
+        } else if (isLetter(c)) {
+          int start = i;
+          while (i < query.length() && isLetter(query.charAt(i))) {
+            i++;
+          }
+          this.tokens.add(query.substring(start, i));
+          this.positions.add(start);
+        } else {
+          i++;
+        }
+      }
+    }
+
+    /**
+     * Returns true if the given character is part of a word (A-Z, a-z).
+     */
+    private static boolean isLetter(char c) {
+      return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Parses the query.
+     *
+     * @throws IllegalArgumentException
+     *         If the query is not a valid boolean query.
+     */
+    public Node parse() {
+      Node node = parseOr();
+      if (this.next < this.tokens.size()) {
+        throw error("Unexpected \"" + this.tokens.get(this.next) + "\"");
+      }
+      return node;
+    }
+
+    /**
+     * Parses an OR of ANDs.
+     */
+    private Node parseOr() {
+      Node node = parseAnd();
+      while (peek("OR")) {
+        this.next++;
+        if (node.type != OR) {
+          node = new Node(OR, 0, node);
+        }
+        node.children.add(parseAnd());
+      }
+      return node;
+    }
+
+    /**
+     * Parses an AND of NOTs (the AND is optional).
+     */
+    private Node parseAnd() {
+      Node node = parseNot();
+      while (this.next < this.tokens.size() && !peek(")") && !peek("OR")) {
+        if (peek("AND")) {
+          this.next++;
+        }
+        if (node.type != AND) {
+          node = new Node(AND, 0, node);
+        }
+        node.children.add(parseNot());
+      }
+      return node;
+    }
+
+    /**
+     * Parses a NOT, a query in parentheses or a word.
+     */
+    private Node parseNot() {
+      if (this.next == this.tokens.size()) {
+        throw error("Missing word");
+      }
+      String token = this.tokens.get(this.next);
+      if (token.equals("NOT")) {
+        this.next++;
+        return new Node(NOT, 0, parseNot());
+      }
+      if (token.equals("(")) {
+        this.next++;
+        Node node = parseOr();
+        if (!peek(")")) {
+          throw error("Missing \")\"");
+        }
+        this.next++;
+        return node;
+      }
+      if (token.equals(")") || token.equals("AND") || token.equals("OR")) {
+        throw error("Unexpected \"" + token + "\"");
+      }
+      this.next++;
+      Node node = new Node(WORD, 0);
+      node.word = token.toLowerCase(Locale.ROOT);
+      return node;
+    }
+
+    /**
+     * Returns true if the next token is the given one.
+     */
+    private boolean peek(String token) {
+      return this.next < this.tokens.size()
+          && this.tokens.get(this.next).equals(token);
+    }
+
+    /**
+     * Returns an exception with the given message and the position of the
+     * next token.
+     */
+    private IllegalArgumentException error(String message) {
+      int position = this.next < this.positions.size()
+          ? this.positions.get(this.next) : this.query.length();
+      return new IllegalArgumentException(message + " at position "
+          + position + " of the query: " + this.query);
+    }
+  }
+}
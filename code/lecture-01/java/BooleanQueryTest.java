@@ -0,0 +1,178 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the BooleanQuery class.
+ */
+public class BooleanQueryTest {
+  /**
+   * Tests for the constructor (parsing and planning) and explain().
+   */
+  @Test
+  public void testPlanAndExplain() throws IOException {
+    InvertedIndex ii = readFromString("Movie\tAnimated movie.\n"
+        + "Movie\tNon-animated film.\nMovie\tShort animation.\n"
+        + "Movie\tShort animated short film.\n");
+
+    // The smallest list first, NOT as difference.
+    BooleanQuery query = new BooleanQuery("movie AND animated NOT film", ii);
+    Assert.assertEquals("DIFFERENCE: estimated 2, actual -\n"
+        + "  AND (zipper): estimated 3, actual -\n"
+        + "    \"animated\": estimated 3, actual -\n"
+        + "    \"movie\": estimated 4, actual -\n"
+        + "  \"film\": estimated 2, actual -\n", query.explain());
+    Assert.assertEquals("[0]", query.evaluate().toString());
+    Assert.assertEquals("DIFFERENCE: estimated 2, actual 1\n"
+        + "  AND (zipper): estimated 3, actual 3\n"
+        + "    \"animated\": estimated 3, actual 3\n"
+        + "    \"movie\": estimated 4, actual 4\n"
+        + "  \"film\": estimated 2, actual 2\n", query.explain());
+
+    // NOT of an OR is split, NOT NOT cancels out, a NOT alone is subtracted
+    // from all records.
+    query = new BooleanQuery("NOT (film OR (animation OR non)) NOT NOT short",
+        ii);
+    Assert.assertEquals("[]", query.evaluate().toString());
+    Assert.assertEquals("DIFFERENCE: estimated 1, actual 0\n"
+        + "  DIFFERENCE: estimated 1, actual 0\n"
+        + "    DIFFERENCE: estimated 1, actual 1\n"
+        + "      \"short\": estimated 2, actual 2\n"
+        + "      \"film\": estimated 2, actual 2\n"
+        + "    \"animation\": estimated 1, actual 1\n"
+        + "  \"non\": estimated 1, actual -\n", query.explain());
+    query = new BooleanQuery("NOT short OR non", ii);
+    Assert.assertEquals("[0, 1]", query.evaluate().toString());
+    Assert.assertEquals("OR: estimated 3, actual 2\n"
+        + "  \"non\": estimated 1, actual 1\n"
+        + "  DIFFERENCE: estimated 2, actual 2\n"
+        + "    ALL: estimated 4, actual 4\n"
+        + "    \"short\": estimated 2, actual 2\n", query.explain());
+
+    // Galloping if one list is much longer than the other.
+    StringBuilder text = new StringBuilder("rare common\n");
+    for (int i = 0; i < 20; i++) {
+      text.append("common\n");
+    }
+    query = new BooleanQuery("common rare", readFromString(text.toString()));
+    Assert.assertEquals("[0]", query.evaluate().toString());
+    Assert.assertTrue(query.explain().startsWith("AND (galloping)"));
+  }
+
+  /**
+   * Tests for the constructor on invalid queries.
+   */
+  @Test
+  public void testInvalidQuery() throws IOException {
+    InvertedIndex ii = readFromString("a b\n");
+    for (String query : new String[] {"", "a AND", "(a OR b", "a)", "OR b",
+        "NOT", "a AND OR b", "()"}) {
+      try {
+        new BooleanQuery(query, ii);
+        Assert.fail(query);
+      } catch (IllegalArgumentException e) {
+        Assert.assertTrue(e.getMessage().endsWith("of the query: " + query));
+      }
+    }
+  }
+
+  /**
+   * Tests for the method evaluate(), against the records of random queries.
+   */
+  @Test
+  public void testEvaluate() throws IOException {
+    Random random = new Random(5);
+    StringBuilder text = new StringBuilder();
+    List<Set<String>> records = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      Set<String> record = new HashSet<>();
+      int length = random.nextInt(6);
+      for (int j = 0; j < length; j++) {
+        // Word i occurs in about 1 of i + 1 records.
+        String word = String.valueOf((char) ('a' + Math.min(9,
+            (int) (1 / (1 - random.nextDouble())) - 1)));
+        text.append(word).append(' ');
+        record.add(word);
+      }
+      text.append('\n');
+      records.add(record);
+    }
+    InvertedIndex ii = readFromString(text.toString());
+
+    for (int q = 0; q < 200; q++) {
+      StringBuilder query = new StringBuilder();
+      Expression expression = randomExpression(random, 3, query);
+      PostingList result = new BooleanQuery(query.toString(), ii).evaluate();
+      List<Integer> expected = new ArrayList<>();
+      for (int id = 0; id < records.size(); id++) {
+        if (expression.matches(records.get(id))) {
+          expected.add(id);
+        }
+      }
+      Assert.assertEquals(query.toString(), expected.toString(),
+          result.toString());
+    }
+  }
+
+  /**
+   * A boolean expression on the words of a record.
+   */
+  private interface Expression {
+    boolean matches(Set<String> record);
+  }
+
+  /**
+   * Appends a random query of the given depth to the given string builder,
+   * and returns its expression.
+   */
+  private static Expression randomExpression(Random random, int depth,
+      StringBuilder query) {
+    int type = depth == 0 ? 0 : random.nextInt(5);
+    if (type == 0) {
+      String word = String.valueOf((char) ('a' + random.nextInt(11)));
+      query.append(random.nextBoolean() ? word : word.toUpperCase());
+      return record -> record.contains(word);
+    }
+    if (type == 1) {
+      query.append("NOT ");
+      Expression e = randomExpression(random, depth - 1, query);
+      return record -> !e.matches(record);
+    }
+    query.append('(');
+    Expression e1 = randomExpression(random, depth - 1, query);
+    query.append(type == 2 ? " AND " : type == 3 ? " " : " OR ");
+    Expression e2 = randomExpression(random, depth - 1, query);
+    query.append(')');
+    if (type == 4) {
+      return record -> e1.matches(record) || e2.matches(record);
+    }
+    return record -> e1.matches(record) && e2.matches(record);
+  }
+
+  /**
+   * Returns the inverted index of the given text.
+   */
+  private static InvertedIndex readFromString(String text) throws IOException {
+    Path file = Files.createTempFile("BooleanQueryTest", ".txt");
+    try {
+      Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+      InvertedIndex ii = new InvertedIndex();
+      ii.readFromFile(file.toString());
+      return ii;
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
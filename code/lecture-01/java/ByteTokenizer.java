@@ -0,0 +1,152 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * Splits raw (UTF-8 or ASCII) bytes into records (lines) and the records into
+ * words, without creating any objects. A word is a maximal sequence of the
+ * ASCII letters A-Z and a-z, which are lowercased in place; all other bytes,
+ * including the bytes of non-ASCII characters, separate words. Records end at
+ * \n, \r or \r\n. These are the same words and records as with
+ * BufferedReader.readLine() and line.split("[^A-Za-z]+") on the decoded
+ * text (but the lowercasing doesn't depend on the default locale).
+ * </p>
+ *
+ * <p>
+ * Usage: call next() until it returns END. After it returned WORD, the word
+ * is at getWordStart() (inclusive) to getWordEnd() (exclusive) in the
+ * bytes.
+ * </p>
+ */
+public class ByteTokenizer {
+  /**
+   * Returned by next() if there is a word.
+   */
+  public static final int WORD = 0;
+
+  /**
+   * Returned by next() at the end of a record.
+   */
+  public static final int END_OF_RECORD = 1;
+
+  /**
+   * Returned by next() at the end of the bytes.
+   */
+  public static final int END = 2;
+
+  /**
+   * The bytes to split.
+   */
+  protected byte[] bytes;
+
+  /**
+   * The position of the next byte to read.
+   */
+  protected int position;
+
+  /**
+   * The end of the bytes to split (exclusive).
+   */
+  protected int end;
+
+  /**
+   * The start of the current record.
+   */
+  protected int recordStart;
+
+  /**
+   * The start of the current word.
+   */
+  protected int wordStart;
+
+  /**
+   * Creates a tokenizer of the given range of the given bytes (which are
+   * modified).
+   *
+   * @param bytes
+   *        The bytes.
+   * @param from
+   *        The start of the range.
+   * @param to
+   *        The end of the range (exclusive).
+   */
+  public ByteTokenizer(byte[] bytes, int from, int to) {
+    this.bytes = bytes;
+    this.position = from;
+    this.recordStart = from;
+    this.end = to;
+  }
+
+  // ==========================================================================
+
+  /**
+   * Moves to the next word or the end of the record. The last record ends at
+   * the end of the bytes if it isn't empty.
+   *
+   * @return WORD, END_OF_RECORD or END.
+   */
+  public int next() {
+    byte[] bytes = this.bytes;
+    int pos = this.position;
+    while (pos < this.end) {
+      byte b = bytes[pos];
+      // Set the lowercase bit, see below.
+      int lower = b | 0x20;
+      if (lower >= 'a' && lower <= 'z') {
+        this.wordStart = pos;
+        do {
+          bytes[pos++] = (byte) lower;
+          lower = pos < this.end ? bytes[pos] | 0x20 : 0;
+        } while (lower >= 'a' && lower <= 'z');
+        this.position = pos;
+        return WORD;
+      }
+      pos++;
+      if (b == '\n' || b == '\r') {
+        if (b == '\r' && pos < this.end && bytes[pos] == '\n') {
+          pos++;
+        }
+        this.position = pos;
+        this.recordStart = pos;
+        return END_OF_RECORD;
+      }
+    }
+    this.position = pos;
+    if (this.recordStart < this.end) {
+      this.recordStart = this.end;
+      return END_OF_RECORD;
+    }
+    return END;
+  }
+
+  /**
+   * Returns the bytes (with the words lowercased so far).
+   */
+  public byte[] getBytes() {
+    return this.bytes;
+  }
+
+  /**
+   * Returns the start of the current word.
+   */
+  public int getWordStart() {
+    return this.wordStart;
+  }
+
+  /**
+   * Returns the end of the current word (exclusive).
+   */
+  public int getWordEnd() {
+    return this.position;
+  }
+
+  /**
+   * Returns the current word as a string.
+   */
+  public String getWord() {
+    return new String(this.bytes, this.wordStart, this.position
+        - this.wordStart, StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the ByteTokenizer class.
+ */
+public class ByteTokenizerTest {
+  /**
+   * Tests for the method next().
+   */
+  @Test
+  public void testNext() throws IOException {
+    Assert.assertEquals("[[first, doc], [], [second, doc]]",
+        tokenize("First doc\n\nSECOND-doc!").toString());
+    Assert.assertEquals("[[a], [b], [c], [d]]",
+        tokenize("a\r\nb\rc\nd\n").toString());
+    Assert.assertEquals("[]", tokenize("").toString());
+    Assert.assertEquals("[[]]", tokenize("\n").toString());
+    Assert.assertEquals("[[caf], [x, y]]",
+        tokenize("caf\u00e9\nx\u212ay").toString());
+
+    // The same words and records as with readLine() and the regex.
+    Random random = new Random(5);
+    String chars = "aZqM09 .-_\t\r\n\u00e9\u00df\u212a\ud83d\ude00";
+    for (int i = 0; i < 100; i++) {
+      StringBuilder text = new StringBuilder();
+      int length = random.nextInt(200);
+      for (int j = 0; j < length; j++) {
+        int c = random.nextInt(chars.length() - 1);
+        text.append(chars.charAt(c));
+        if (Character.isHighSurrogate(chars.charAt(c))) {
+          text.append(chars.charAt(c + 1));
+        }
+      }
+      List<List<String>> expected = new ArrayList<>();
+      BufferedReader reader = new BufferedReader(new StringReader(
+          text.toString()));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        List<String> words = new ArrayList<>();
+        for (String word : line.split("[^A-Za-z]+")) {
+          if (!word.isEmpty()) {
+            words.add(word.toLowerCase());
+          }
+        }
+        expected.add(words);
+      }
+      Assert.assertEquals(expected, tokenize(text.toString()));
+    }
+  }
+
+  /**
+   * Returns the words of the records of the given text.
+   */
+  private static List<List<String>> tokenize(String text) {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    ByteTokenizer tokenizer = new ByteTokenizer(bytes, 0, bytes.length);
+    List<List<String>> records = new ArrayList<>();
+    List<String> words = new ArrayList<>();
+    int next;
+    while ((next = tokenizer.next()) != ByteTokenizer.END) {
+      if (next == ByteTokenizer.WORD) {
+        words.add(tokenizer.getWord());
+        Assert.assertEquals(tokenizer.getWord().length(),
+            tokenizer.getWordEnd() - tokenizer.getWordStart());
+      } else {
+        records.add(words);
+        words = new ArrayList<>();
+      }
+    }
+    Assert.assertEquals(ByteTokenizer.END, tokenizer.next());
+    return records;
+  }
+}
@@ -0,0 +1,634 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * An inverted index that records can be appended to at any time. New records
+ * are added to an in-memory buffer, which is flushed to an immutable segment
+ * file (see InvertedIndex.writeToSegmentFile()) when it holds
+ * maxBufferedRecords records. The segments are memory-mapped. Each segment
+ * holds a range of consecutive record ids, and the segments and the buffer
+ * are ordered by these ranges.
+ * </p>
+ *
+ * <p>
+ * A background thread merges MERGE_FACTOR adjacent segments of the same size
+ * tier into one (a segment of tier t has between maxBufferedRecords *
+ * MERGE_FACTOR^t and maxBufferedRecords * MERGE_FACTOR^(t+1) records), so
+ * there are only O(log n) segments. getInvertedList() (and so query())
+ * appends the lists of all segments and of the buffer and computes the BM25
+ * scores with the statistics of all records, so the scores are the same as
+ * in an index built from all records at once.
+ * </p>
+ *
+ * <p>
+ * The segments and the buffer are only locked to take a snapshot of them:
+ * the list of segments is replaced on each change (copy-on-write) and the
+ * lists of the buffer are copied. The lists are then decoded and scored
+ * without the lock, and segment files are written without it, so queries
+ * don't wait for each other or for a flush.
+ * </p>
+ */
+public class IncrementalInvertedIndex extends InvertedIndex
+    implements Closeable {
+  /**
+   * The number of segments of a tier that are merged.
+   */
+  public static final int MERGE_FACTOR = 4;
+
+  /**
+   * The directory of the segment files.
+   */
+  protected Path directory;
+
+  /**
+   * The number of records at which the buffer is flushed.
+   */
+  protected int maxBufferedRecords;
+
+  /**
+   * The segments, ordered by their record ids. The list is never changed but
+   * replaced (copy-on-write), so a snapshot of it stays valid.
+   */
+  protected volatile List<Segment> segments = Collections.emptyList();
+
+  /**
+   * The index of the records that are written to a segment by flush(), null
+   * if there are none. Their ids are before the ones of the buffer.
+   */
+  protected InvertedIndex flushing;
+
+  /**
+   * The id of the first record of flushing.
+   */
+  protected int flushingBaseId;
+
+  /**
+   * The buffer with the lists of the newest records (ids from 0).
+   */
+  protected Chunk buffer = new Chunk(null, 0, 0);
+
+  /**
+   * The lock that makes flush() write one segment at a time, in the order of
+   * the ids. It is taken before the lock of this index, never after.
+   */
+  protected final Object flushLock = new Object();
+
+  /**
+   * The first failure of a merge since the last call of awaitMerges(), null
+   * if there is none.
+   */
+  protected volatile IOException mergeFailure;
+
+  /**
+   * The number of records (in the segments and the buffer).
+   */
+  protected int numDocs;
+
+  /**
+   * The total length of the records.
+   */
+  protected long totalLength;
+
+  /**
+   * The thread that merges the segments.
+   */
+  protected ExecutorService merger = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "IncrementalInvertedIndex merger");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * Creates an empty index that writes its segment files to the given
+   * directory.
+   *
+   * @param directory
+   *        The directory of the segment files (created if it doesn't exist).
+   * @param maxBufferedRecords
+   *        The number of records at which the buffer is flushed.
+   */
+  public IncrementalInvertedIndex(String directory, int maxBufferedRecords)
+      throws IOException {
+    this.directory = Files.createDirectories(Paths.get(directory));
+    this.maxBufferedRecords = maxBufferedRecords;
+  }
+
+  // ==========================================================================
+
+  /**
+   * Appends the records of the given file (one record per line), see
+   * addRecord().
+   *
+   * @param file
+   *        The path of the file to process.
+   * @param numChunks
+   *        Ignored, the records are added one by one.
+   */
+  @Override
+  public void readFromFile(String file, int numChunks) {
+    try (BufferedReader reader = Files.newBufferedReader(Paths.get(file),
+        StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        addRecord(line);
+      }
+    } catch (IOException e) {
+      System.err.println("An error occured on reading the file:");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Appends the given record to the buffer, and flushes the buffer if it is
+   * full.
+   *
+   * @param record
+   *        The record.
+   *
+   * @return The id of the record.
+   */
+  public int addRecord(String record) throws IOException {
+    int id;
+    boolean full;
+    synchronized (this) {
+      this.totalLength += this.buffer.addRecord(record);
+      this.avdl = Math.max(1, (double) this.totalLength / (this.numDocs + 1));
+      id = this.numDocs++;
+      full = this.buffer.numRecords >= this.maxBufferedRecords;
+    }
+    if (full) {
+      flush();
+    }
+    return id;
+  }
+
+  /**
+   * Writes the records of the buffer to a new segment (if there are any), and
+   * starts merging the segments in the background. The buffer is replaced by
+   * an empty one under the lock, the segment file is written without it.
+   */
+  public void flush() throws IOException {
+    synchronized (this.flushLock) {
+      // The records of a flush that failed come first.
+      writeFlushing();
+      synchronized (this) {
+        if (this.buffer.numRecords == 0) {
+          return;
+        }
+        InvertedIndex ii = new InvertedIndex();
+        this.flushingBaseId = this.numDocs - this.buffer.numRecords;
+        ii.addChunks(this.buffer);
+        this.flushing = ii;
+        this.buffer = new Chunk(null, 0, 0);
+      }
+      writeFlushing();
+    }
+  }
+
+  /**
+   * Writes flushing (if not null) to a new segment and appends the segment
+   * to the segments. If writing fails, flushing is kept (and can still be
+   * queried), and written by the next flush().
+   */
+  private void writeFlushing() throws IOException {
+    InvertedIndex ii;
+    int baseId;
+    synchronized (this) {
+      ii = this.flushing;
+      baseId = this.flushingBaseId;
+    }
+    if (ii == null) {
+      return;
+    }
+    Segment segment = writeSegment(ii, baseId);
+    synchronized (this) {
+      List<Segment> segments = new ArrayList<>(this.segments);
+      segments.add(segment);
+      this.segments = segments;
+      this.flushing = null;
+    }
+    this.merger.submit(this::mergeSegments);
+  }
+
+  /**
+   * Waits until the background thread has merged all segments that were
+   * flushed so far.
+   *
+   * @throws IOException
+   *         If a merge failed since the last call (the index is still
+   *         complete, but has more segments or leftover segment files).
+   */
+  public void awaitMerges() throws IOException, InterruptedException {
+    try {
+      this.merger.submit(() -> { }).get();
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+    IOException failure = this.mergeFailure;
+    if (failure != null) {
+      this.mergeFailure = null;
+      throw failure;
+    }
+  }
+
+  /**
+   * Flushes the buffer, and waits for the merges to finish and stops the
+   * background thread. The segments stay mapped, so the index can still be
+   * queried.
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+    this.merger.shutdown();
+    try {
+      this.merger.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Merges MERGE_FACTOR adjacent segments of the same tier, as long as there
+   * are any. Runs in the background thread; the segments are only locked to
+   * find the segments to merge and to replace them by the merged segment.
+   */
+  protected void mergeSegments() {
+    while (true) {
+      List<Segment> toMerge = null;
+      synchronized (this) {
+        for (int i = 0; i + MERGE_FACTOR <= this.segments.size(); i++) {
+          int tier = tier(this.segments.get(i));
+          int j = i + 1;
+          while (j < i + MERGE_FACTOR && tier(this.segments.get(j)) == tier) {
+            j++;
+          }
+          if (j == i + MERGE_FACTOR) {
+            toMerge = new ArrayList<>(this.segments.subList(i, j));
+            break;
+          }
+        }
+      }
+      if (toMerge == null) {
+        return;
+      }
+
+      Segment merged;
+      try {
+        merged = writeSegment(merge(toMerge), toMerge.get(0).baseId);
+      } catch (IOException e) {
+        // Nothing was replaced yet, the segments stay as they are.
+        recordMergeFailure(e);
+        return;
+      }
+      synchronized (this) {
+        List<Segment> segments = new ArrayList<>(this.segments);
+        int i = segments.indexOf(toMerge.get(0));
+        segments.subList(i, i + toMerge.size()).clear();
+        segments.add(i, merged);
+        this.segments = segments;
+      }
+      // The mappings of the old segments stay valid (on Unix). If a file
+      // can't be deleted, the merged segment is used all the same, only the
+      // file is left over.
+      for (Segment segment : toMerge) {
+        try {
+          Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+          recordMergeFailure(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Keeps the given failure of a merge for awaitMerges() (unless there is an
+   * earlier one).
+   */
+  private void recordMergeFailure(IOException e) {
+    if (this.mergeFailure == null) {
+      this.mergeFailure = e;
+    }
+  }
+
+  /**
+   * Reads the given adjacent segments like the chunks of a file into a new
+   * in-memory index, with the ids of the first segment from 0. The lists are
+   * decoded without scores, the index computes them.
+   *
+   * @param segments
+   *        The segments, ordered by their record ids.
+   *
+   * @return The index of the records of the segments.
+   */
+  protected static InvertedIndex merge(List<Segment> segments) {
+    Chunk[] chunks = new Chunk[segments.size()];
+    for (int i = 0; i < chunks.length; i++) {
+      MappedInvertedIndex index = segments.get(i).index;
+      chunks[i] = new Chunk(null, 0, 0);
+      for (String word : index.getWords()) {
+        chunks[i].lists.put(word, index.getPostings(word));
+      }
+      chunks[i].numRecords = index.getNumDocs();
+      chunks[i].docLengths = new int[index.getNumDocs()];
+      for (int id = 0; id < index.getNumDocs(); id++) {
+        chunks[i].docLengths[id] = index.getDocLength(id);
+      }
+    }
+    InvertedIndex ii = new InvertedIndex();
+    ii.addChunks(chunks);
+    return ii;
+  }
+
+  /**
+   * Returns the tier of the given segment.
+   */
+  private int tier(Segment segment) {
+    int tier = 0;
+    long size = (long) this.maxBufferedRecords * MERGE_FACTOR;
+    while (segment.index.getNumDocs() >= size) {
+      tier++;
+      size *= MERGE_FACTOR;
+    }
+    return tier;
+  }
+
+  /**
+   * Writes the given index to a new segment file and maps it.
+   *
+   * @param ii
+   *        The index.
+   * @param baseId
+   *        The id of the first record of the index.
+   *
+   * @return The segment.
+   */
+  protected Segment writeSegment(InvertedIndex ii, int baseId)
+      throws IOException {
+    Path file = this.directory.resolve("segment-" + baseId + "-"
+        + (baseId + ii.getNumDocs()) + ".seg");
+    ii.writeToSegmentFile(file.toString());
+    return new Segment(new MappedInvertedIndex(file.toString()), baseId, file);
+  }
+
+  // ==========================================================================
+
+  @Override
+  public synchronized int getNumDocs() {
+    return this.numDocs;
+  }
+
+  @Override
+  public synchronized int getDocLength(int id) {
+    for (Segment segment : this.segments) {
+      if (id < segment.baseId + segment.index.getNumDocs()) {
+        return segment.index.getDocLength(id - segment.baseId);
+      }
+    }
+    if (this.flushing != null && id < this.flushingBaseId
+        + this.flushing.getNumDocs()) {
+      return this.flushing.getDocLength(id - this.flushingBaseId);
+    }
+    return this.buffer.docLengths[id - (this.numDocs
+        - this.buffer.numRecords)];
+  }
+
+  /**
+   * Returns the words of the segments and of the buffer (as a new sorted
+   * set).
+   */
+  @Override
+  public synchronized Set<String> getWords() {
+    Set<String> words = new TreeSet<>(this.buffer.lists.keySet());
+    for (Segment segment : this.segments) {
+      words.addAll(segment.index.getWords());
+    }
+    if (this.flushing != null) {
+      words.addAll(this.flushing.getWords());
+    }
+    return words;
+  }
+
+  @Override
+  public synchronized Iterable<String> getWords(String prefix) {
+    List<String> words = new ArrayList<>();
+    for (String word : getWords()) {
+      if (word.startsWith(prefix)) {
+        words.add(word);
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Returns the number of records that contain the given word: the sum of
+   * the document frequencies in the segments and in the buffer (no list is
+   * decoded).
+   *
+   * @param word
+   *        The word.
+   */
+  @Override
+  public synchronized int getDocFrequency(String word) {
+    PostingList list = this.buffer.lists.get(word);
+    int df = list != null ? list.size() : 0;
+    for (Segment segment : this.segments) {
+      df += segment.index.getDocFrequency(word);
+    }
+    if (this.flushing != null) {
+      df += this.flushing.getDocFrequency(word);
+    }
+    return df;
+  }
+
+  /**
+   * Returns the inverted list for the given word: the lists of the segments
+   * and of the buffer, appended in the order of their ids, with the BM25
+   * scores of all records. Returns null if no segment and not the buffer
+   * contains the word.
+   *
+   * @param word
+   *        The word to process.
+   */
+  @Override
+  public PostingList getInvertedList(String word) {
+    return getInvertedLists(Collections.singletonList(word)).get(0);
+  }
+
+  /**
+   * Returns the inverted lists for the given words, see getInvertedList().
+   * Takes a snapshot of the segments and of the lists of the words in the
+   * buffer under the lock, and decodes and scores the lists without it.
+   *
+   * @param words
+   *        The words.
+   */
+  @Override
+  protected List<PostingList> getInvertedLists(Collection<String> words) {
+    List<Segment> segments;
+    InvertedIndex flushing;
+    int flushingBaseId;
+    int bufferBaseId;
+    int numDocs;
+    double avdl;
+    // The lists of the buffer (and the lengths of their records) still
+    // change, so they are copied.
+    PostingList[] buffered = new PostingList[words.size()];
+    int[][] bufferedLengths = new int[words.size()][];
+    synchronized (this) {
+      segments = this.segments;
+      flushing = this.flushing;
+      flushingBaseId = this.flushingBaseId;
+      numDocs = this.numDocs;
+      bufferBaseId = numDocs - this.buffer.numRecords;
+      avdl = this.avdl;
+      int w = 0;
+      for (String word : words) {
+        PostingList list = this.buffer.lists.get(word);
+        if (list != null) {
+          buffered[w] = new PostingList(Arrays.copyOf(list.ids, list.size()),
+              Arrays.copyOf(list.tfs, list.size()));
+          bufferedLengths[w] = new int[list.size()];
+          for (int j = 0; j < list.size(); j++) {
+            bufferedLengths[w][j] = this.buffer.docLengths[list.getId(j)];
+          }
+        }
+        w++;
+      }
+    }
+
+    // The parts of each list: the segments, flushing and the buffer.
+    int numParts = segments.size() + 2;
+    PostingList[] parts = new PostingList[numParts];
+    InvertedIndexView[] indexes = new InvertedIndexView[numParts];
+    int[] baseIds = new int[numParts];
+    for (int i = 0; i < segments.size(); i++) {
+      indexes[i] = segments.get(i).index;
+      baseIds[i] = segments.get(i).baseId;
+    }
+    indexes[numParts - 2] = flushing;
+    baseIds[numParts - 2] = flushingBaseId;
+    baseIds[numParts - 1] = bufferBaseId;
+
+    List<PostingList> lists = new ArrayList<>(words.size());
+    int w = 0;
+    for (String word : words) {
+      int size = 0;
+      for (int i = 0; i < numParts; i++) {
+        if (i < segments.size()) {
+          parts[i] = segments.get(i).index.getPostings(word);
+        } else if (i == numParts - 2) {
+          parts[i] = flushing != null ? flushing.getInvertedList(word) : null;
+        } else {
+          parts[i] = buffered[w];
+        }
+        size += parts[i] != null ? parts[i].size() : 0;
+      }
+      lists.add(size > 0 ? appendParts(parts, indexes, baseIds,
+          bufferedLengths[w], size, idf(numDocs, size), avdl) : null);
+      w++;
+    }
+    return lists;
+  }
+
+  /**
+   * Appends the given parts of an inverted list, with the ids shifted by the
+   * given base ids, and computes the BM25 scores with the given statistics.
+   * The lengths of the records of a part are read from its index, the ones
+   * of the last part (the buffer) are given.
+   */
+  private static PostingList appendParts(PostingList[] parts,
+      InvertedIndexView[] indexes, int[] baseIds, int[] bufferedLengths,
+      int size, float idf, double avdl) {
+    int[] ids = new int[size];
+    int[] tfs = new int[size];
+    float[] scores = new float[size];
+    int n = 0;
+    for (int i = 0; i < parts.length; i++) {
+      for (int j = 0; parts[i] != null && j < parts[i].size(); j++) {
+        int id = parts[i].getId(j);
+        int docLength = i < parts.length - 1 ? indexes[i].getDocLength(id)
+            : bufferedLengths[j];
+        ids[n] = baseIds[i] + id;
+        tfs[n] = parts[i].getTf(j);
+        scores[n] = score(tfs[n], lengthNorm(docLength, avdl), idf);
+        n++;
+      }
+    }
+    PostingList list = new PostingList(ids, tfs);
+    list.setScores(scores, idf);
+    return list;
+  }
+
+  /**
+   * Flushes the buffer and writes all records to the given segment file, by
+   * merging all segments into one (the segments of this index stay as they
+   * are).
+   *
+   * @param file
+   *        The path of the file to write.
+   */
+  @Override
+  public void writeToSegmentFile(String file) throws IOException {
+    flush();
+    merge(this.segments).writeToSegmentFile(file);
+  }
+
+  // ==========================================================================
+
+  /**
+   * An immutable segment: a mapped segment file with the records of a range
+   * of ids.
+   */
+  protected static class Segment {
+    /**
+     * The mapped segment file.
+     */
+    protected final MappedInvertedIndex index;
+
+    /**
+     * The id of the first record of the segment.
+     */
+    protected final int baseId;
+
+    /**
+     * The path of the segment file.
+     */
+    protected final Path file;
+
+    /**
+     * Creates a segment.
+     *
+     * @param index
+     *        The mapped segment file.
+     * @param baseId
+     *        The id of the first record of the segment.
+     * @param file
+     *        The path of the segment file.
+     */
+    public Segment(MappedInvertedIndex index, int baseId, Path file) {
+      this.index = index;
+      this.baseId = baseId;
+      this.file = file;
+    }
+  }
+}
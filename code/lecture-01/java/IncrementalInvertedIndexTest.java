@@ -0,0 +1,153 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the IncrementalInvertedIndex
+ * class.
+ */
+public class IncrementalInvertedIndexTest {
+  /**
+   * Tests for the methods addRecord(), flush(), mergeSegments(),
+   * getInvertedList() and getDocFrequency().
+   */
+  @Test
+  public void testAddRecord() throws IOException, InterruptedException {
+    Random random = new Random(7);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      int length = random.nextInt(8);
+      for (int j = 0; j < length; j++) {
+        text.append((char) ('a' + random.nextInt(10))).append(' ');
+      }
+      text.append('\n');
+    }
+    Path dir = Files.createTempDirectory("IncrementalInvertedIndexTest");
+    Path file = dir.resolve("records.txt");
+    try {
+      Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+      InvertedIndex expected = new InvertedIndex();
+      expected.readFromFile(file.toString());
+
+      IncrementalInvertedIndex ii = new IncrementalInvertedIndex(
+          dir.resolve("segments").toString(), 3);
+      Assert.assertNull(ii.getInvertedList("a"));
+      Assert.assertEquals(0, ii.addRecord("b a"));
+      Assert.assertEquals("[0]", ii.getInvertedList("a").toString());
+      Assert.assertEquals(1, ii.addRecord("c"));
+      Assert.assertEquals(0, ii.segments.size());
+      Assert.assertEquals(2, ii.addRecord("a c"));
+      Assert.assertEquals(1, ii.segments.size());
+      Assert.assertEquals("[0, 2]", ii.getInvertedList("a").toString());
+      Assert.assertEquals(3, ii.addRecord("a"));
+      Assert.assertEquals("[0, 2, 3]", ii.getInvertedList("a").toString());
+      Assert.assertEquals(3, ii.getDocFrequency("a"));
+      Assert.assertEquals(0, ii.getDocFrequency("d"));
+      Assert.assertEquals("[a, b, c]", ii.getWords().toString());
+
+      ii = new IncrementalInvertedIndex(dir.resolve("segments2").toString(),
+          3);
+      ii.readFromFile(file.toString());
+      ii.awaitMerges();
+      // The 66 full buffers of 3 records are merged into one segment of 192
+      // records (tier 3), and 2 segments of tier 0 (2 records are left in the
+      // buffer).
+      Assert.assertEquals(3, ii.segments.size());
+      Assert.assertEquals(200, ii.getNumDocs());
+      Assert.assertEquals(expected.getWords(), ii.getWords());
+      for (String word : expected.getWords()) {
+        PostingList expectedList = expected.getInvertedList(word);
+        PostingList list = ii.getInvertedList(word);
+        Assert.assertEquals(expectedList.toString(), list.toString());
+        Assert.assertEquals(list.size(), ii.getDocFrequency(word));
+        Assert.assertEquals(expectedList.getMaxScore(), list.getMaxScore(),
+            1e-6);
+        for (int i = 0; i < list.size(); i++) {
+          Assert.assertEquals(expectedList.getTf(i), list.getTf(i));
+          Assert.assertEquals(expectedList.getScore(i), list.getScore(i),
+              1e-6);
+        }
+      }
+      Assert.assertEquals(expected.query("a b c", 10).toString(),
+          ii.query("a b c", 10).toString());
+      ii.close();
+      Assert.assertEquals(expected.query("d e", 10).toString(),
+          ii.query("d e", 10).toString());
+    } finally {
+      try (Stream<Path> paths = Files.walk(dir)) {
+        paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile()
+            .delete());
+      }
+    }
+  }
+
+  /**
+   * Tests for the method writeToSegmentFile().
+   */
+  @Test
+  public void testWriteToSegmentFile() throws IOException,
+      InterruptedException {
+    Path dir = Files.createTempDirectory("IncrementalInvertedIndexTest");
+    try {
+      IncrementalInvertedIndex ii = new IncrementalInvertedIndex(
+          dir.resolve("segments").toString(), 2);
+      ii.writeToSegmentFile(dir.resolve("empty.seg").toString());
+      Assert.assertEquals(0, new MappedInvertedIndex(dir.resolve("empty.seg")
+          .toString()).getNumDocs());
+
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < 11; i++) {
+        String record = i % 2 == 0 ? "a b" : i % 3 == 0 ? "b c c" : "a";
+        ii.addRecord(record);
+        text.append(record).append('\n');
+      }
+      Path file = dir.resolve("records.txt");
+      Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+      InvertedIndex expected = new InvertedIndex();
+      expected.readFromFile(file.toString());
+
+      ii.writeToSegmentFile(dir.resolve("all.seg").toString());
+      Assert.assertEquals(0, ii.buffer.numRecords);
+      MappedInvertedIndex mii = new MappedInvertedIndex(dir.resolve("all.seg")
+          .toString());
+      Assert.assertEquals(11, mii.getNumDocs());
+      Assert.assertEquals(expected.getWords(), mii.getWords());
+      for (String word : expected.getWords()) {
+        PostingList expectedList = expected.getInvertedList(word);
+        PostingList list = mii.getInvertedList(word);
+        Assert.assertEquals(expectedList.toString(), list.toString());
+        for (int i = 0; i < list.size(); i++) {
+          Assert.assertEquals(expectedList.getTf(i), list.getTf(i));
+          Assert.assertEquals(expectedList.getScore(i), list.getScore(i),
+              1e-6);
+        }
+      }
+
+      // A failed merge is reported once by awaitMerges().
+      ii.mergeFailure = new IOException("Disk full");
+      try {
+        ii.awaitMerges();
+        Assert.fail();
+      } catch (IOException e) {
+        Assert.assertEquals("Disk full", e.getMessage());
+      }
+      ii.awaitMerges();
+      ii.close();
+    } finally {
+      try (Stream<Path> paths = Files.walk(dir)) {
+        paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile()
+            .delete());
+      }
+    }
+  }
+}
@@ -1,61 +1,130 @@
 // Copyright 2017 University of Freiburg
 // Claudius Korzen <korzen@cs.uni-freiburg.de>
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
-import java.util.ArrayList;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
- * A simple inverted index as explained in lecture 1.
+ * A simple inverted index as explained in lecture 1, with BM25 scores as
+ * explained in lecture 2.
  */
-public class InvertedIndex {
+public class InvertedIndex extends InvertedIndexView {
   /**
-   * The inverted lists.
+   * The minimum number of bytes of a chunk of the file that is indexed by
+   * one task. Smaller files are indexed in one chunk.
    */
-  protected Map<String, List<Integer>> invertedLists;
+  public static final int MIN_CHUNK_SIZE = 1 << 20;
 
   /**
-   * Creates an empty inverted index.
+   * The maximum number of bytes of a chunk (which is read into memory at
+   * once).
+   */
+  public static final int MAX_CHUNK_SIZE = 1 << 28;
+
+  /**
+   * The inverted lists, by the ordinal of their word in the dictionary.
+   */
+  protected PostingList[] invertedLists;
+
+  /**
+   * The lengths of the records (number of words), by record id.
+   */
+  protected int[] docLengths = new int[0];
+
+  /**
+   * Creates an empty inverted index (without positions).
    */
   public InvertedIndex() {
-    this.invertedLists = new HashMap<>();
+    this(false);
   }
 
   /**
-   * Constructs the inverted index from given file (one record per line).
-   * 
+   * Creates an empty inverted index.
+   *
+   * @param withPositions
+   *        Whether readFromFile() stores the positions of the words in the
+   *        lists. They are kept in memory only, segment files (see
+   *        writeToSegmentFile()) have no positions.
+   */
+  public InvertedIndex(boolean withPositions) {
+    this.dictionary = new TermDictionary(Collections.emptyList());
+    this.invertedLists = new PostingList[0];
+    this.withPositions = withPositions;
+  }
+
+  /**
+   * Constructs the inverted index from given file (one record per line),
+   * in parallel on the common fork/join pool, see readFromFile(file,
+   * numChunks).
+   *
    * @param file
    *        The path of the file to process.
    */
   public void readFromFile(String file) {
-    try (BufferedReader reader = Files.newBufferedReader(Paths.get(file))) {
-      int recordId = 0;
-      String line;
-      while ((line = reader.readLine()) != null) {
-        String[] words = line.split("[^A-Za-z]+");
-        for (String word : words) {
-          word = word.toLowerCase().trim();
-
-          // Ignore the word if it is empty.
-          if (word.isEmpty()) {
-            continue;
-          }
-
-          // If word seen first time, create inverted list.
-          if (!this.invertedLists.containsKey(word)) {
-            this.invertedLists.put(word, new ArrayList<>());
-          }
-          // Append record id to inverted list.
-          this.invertedLists.get(word).add(recordId);
+    readFromFile(file, 0);
+  }
+
+  /**
+   * Constructs the inverted index from given file (one record per line).
+   * The file is split into chunks at line boundaries, and each chunk is
+   * indexed by its own task on the common fork/join pool, with record ids
+   * starting at 0. The partial lists are then appended to each other in the
+   * order of the chunks, with the ids shifted by the number of records in
+   * the chunks before. So the index is the same as if the file was read line
+   * by line. Finally, the BM25 scores are computed, see computeScores().
+   *
+   * @param file
+   *        The path of the file to process.
+   * @param numChunks
+   *        The number of chunks to split the file into, 0 for four per
+   *        thread of the common pool (but chunks of at least MIN_CHUNK_SIZE
+   *        bytes, and one chunk if the pool has only one thread).
+   */
+  public void readFromFile(String file, int numChunks) {
+    try (FileChannel channel = FileChannel.open(Paths.get(file),
+        StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (numChunks <= 0) {
+        // One chunk if there is only one thread (merging isn't for free).
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        numChunks = (int) Math.max(1, Math.min(
+            parallelism > 1 ? 4L * parallelism : 1, size / MIN_CHUNK_SIZE));
+      }
+      numChunks = (int) Math.max(numChunks,
+          (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+
+      // Each chunk (but the first) starts behind a line break.
+      Chunk[] chunks = new Chunk[numChunks];
+      long start = 0;
+      for (int c = 0; c < numChunks; c++) {
+        long end = size;
+        if (c + 1 < numChunks) {
+          end = nextLineStart(channel, Math.max(start,
+              size * (c + 1) / numChunks));
         }
-        recordId++;
+        chunks[c] = new Chunk(channel, start, end);
+        chunks[c].withPositions = this.withPositions;
+        start = end;
+      }
+      try {
+        ForkJoinTask.invokeAll(chunks);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
       }
+      addChunks(chunks);
     } catch (IOException e) {
       System.err.println("An error occured on reading the file:");
       e.printStackTrace();
@@ -63,20 +132,518 @@ public class InvertedIndex {
   }
 
   /**
-   * Returns the words within this inverted index.
+   * Appends the partial lists of the given chunks to this (empty) index in
+   * the order of the chunks, with the ids shifted by the number of records in
+   * the chunks before. Then freezes the words into the dictionary and
+   * computes the BM25 scores.
+   *
+   * @param chunks
+   *        The chunks, with the lists of their records.
    */
-  public Set<String> getWords() {
-    return this.invertedLists.keySet();
+  protected void addChunks(Chunk... chunks) {
+    Map<String, PostingList> lists = new HashMap<>();
+    int offset = 0;
+    for (Chunk chunk : chunks) {
+      this.docLengths = Arrays.copyOf(this.docLengths,
+          offset + chunk.numRecords);
+      System.arraycopy(chunk.docLengths, 0, this.docLengths, offset,
+          chunk.numRecords);
+      for (Map.Entry<String, PostingList> entry : chunk.lists.entrySet()) {
+        PostingList list = lists.get(entry.getKey());
+        if (list == null && offset == 0) {
+          // Nothing to shift, take the list as it is.
+          lists.put(entry.getKey(), entry.getValue());
+          continue;
+        }
+        if (list == null) {
+          list = new PostingList();
+          lists.put(entry.getKey(), list);
+        }
+        list.addPostings(entry.getValue(), offset);
+      }
+      chunk.lists = null;
+      offset += chunk.numRecords;
+    }
+
+    // Give back the unused capacity of the lists, in the order of the words.
+    this.dictionary = new TermDictionary(lists.keySet());
+    this.invertedLists = new PostingList[this.dictionary.size()];
+    int ordinal = 0;
+    for (String word : this.dictionary) {
+      PostingList list = lists.get(word);
+      list.trim();
+      this.invertedLists[ordinal++] = list;
+    }
+    computeScores();
+  }
+
+  /**
+   * Returns the position behind the first line break (\n) at or after the
+   * given position, or the size of the file if there is none.
+   */
+  protected static long nextLineStart(FileChannel channel, long pos)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(4096);
+    long size = channel.size();
+    while (pos < size) {
+      buffer.clear();
+      int n = channel.read(buffer, pos);
+      for (int i = 0; i < n; i++) {
+        if (buffer.get(i) == '\n') {
+          return pos + i + 1;
+        }
+      }
+      pos += Math.max(n, 0);
+    }
+    return size;
+  }
+
+  /**
+   * Computes the BM25 score of each posting, with the parameters BM25_K and
+   * BM25_B, and the inverse document frequency and the maximum score of each
+   * list (for query()):
+   * BM25 = tf * (k + 1) / (k * (1 - b + b * DL / AVDL) + tf) * log2(N / df),
+   * where DL is the length of the record and AVDL the average length of the
+   * records, N is the number of records and df the size of the list.
+   */
+  protected void computeScores() {
+    int numDocs = this.docLengths.length;
+    long totalLength = 0;
+    for (int length : this.docLengths) {
+      totalLength += length;
+    }
+    this.avdl = Math.max(1, (double) totalLength / Math.max(1, numDocs));
+
+    float[] norms = new float[numDocs];
+    for (int i = 0; i < numDocs; i++) {
+      norms[i] = lengthNorm(this.docLengths[i]);
+    }
+
+    for (PostingList list : this.invertedLists) {
+      float idf = idf(numDocs, list.size());
+      float[] scores = new float[list.size()];
+      for (int i = 0; i < list.size(); i++) {
+        scores[i] = score(list.getTf(i), norms[list.getId(i)], idf);
+      }
+      list.setScores(scores, idf);
+    }
+  }
+
+  /**
+   * Writes this inverted index to the given segment file, which can be
+   * memory-mapped by MappedInvertedIndex. All numbers are little-endian:
+   *
+   * <pre>
+   * header:   int SEGMENT_MAGIC, int numDocs, int numWords, int 0,
+   *           double avdl, long termsOffset, long postingsOffset,
+   *           long entriesOffset (offsets from the start of the file)
+   * lengths:  int[numDocs], the lengths of the records
+   * terms:    the dictionary, see TermDictionary.writeTo()
+   * postings: per word (in the order of the dictionary): the gaps between
+   *           the ids and the term frequencies, alternating, as
+   *           variable-length ints (7 bits per byte, the highest bit set in
+   *           all but the last byte)
+   * entries:  per word, and one more for the end: long offset of the
+   *           postings (from the start of the section), int df, float idf,
+   *           float maxScore
+   * </pre>
+   *
+   * The scores are not stored, they are computed from the term frequencies
+   * and the lengths of the records when the lists are read.
+   *
+   * @param file
+   *        The path of the file to write.
+   */
+  @Override
+  public void writeToSegmentFile(String file) throws IOException {
+    int numWords = this.invertedLists.length;
+    int numDocs = this.docLengths.length;
+
+    try (FileChannel channel = FileChannel.open(Paths.get(file),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 16)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      channel.position(SEGMENT_HEADER_SIZE);
+      for (int length : this.docLengths) {
+        buffer = flushIfFull(channel, buffer, 4).putInt(length);
+      }
+
+      long termsOffset = SEGMENT_HEADER_SIZE + 4L * numDocs;
+      buffer = flushIfFull(channel, buffer, this.dictionary.sizeInBytes());
+      this.dictionary.writeTo(buffer);
+
+      long postingsOffset = termsOffset + this.dictionary.sizeInBytes();
+      long[] listOffsets = new long[numWords + 1];
+      for (int i = 0; i < numWords; i++) {
+        PostingList list = this.invertedLists[i];
+        long numBytes = 0;
+        int prevId = 0;
+        for (int j = 0; j < list.size(); j++) {
+          buffer = flushIfFull(channel, buffer, 10);
+          numBytes += putVarInt(buffer, list.getId(j) - prevId);
+          numBytes += putVarInt(buffer, list.getTf(j));
+          prevId = list.getId(j);
+        }
+        listOffsets[i + 1] = listOffsets[i] + numBytes;
+      }
+
+      long entriesOffset = postingsOffset + listOffsets[numWords];
+      for (int i = 0; i <= numWords; i++) {
+        PostingList list = i < numWords ? this.invertedLists[i]
+            : new PostingList();
+        buffer = flushIfFull(channel, buffer, SEGMENT_ENTRY_SIZE);
+        buffer.putLong(listOffsets[i]).putInt(list.size())
+            .putFloat(list.getIdf()).putFloat(list.getMaxScore());
+      }
+      flushIfFull(channel, buffer, buffer.capacity());
+
+      buffer.clear();
+      buffer.putInt(SEGMENT_MAGIC).putInt(numDocs).putInt(numWords).putInt(0)
+          .putDouble(this.avdl).putLong(termsOffset).putLong(postingsOffset)
+          .putLong(entriesOffset).flip();
+      channel.write(buffer, 0);
+    }
+  }
+
+  /**
+   * Writes the given buffer to the given channel and clears it if it has
+   * less than the given number of bytes remaining (and grows it if its
+   * capacity is less than that).
+   *
+   * @return The buffer.
+   */
+  protected static ByteBuffer flushIfFull(FileChannel channel,
+      ByteBuffer buffer, int numBytes) throws IOException {
+    if (buffer.remaining() < numBytes) {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+      if (buffer.capacity() < numBytes) {
+        buffer = ByteBuffer.allocate(numBytes).order(ByteOrder.LITTLE_ENDIAN);
+      }
+    }
+    return buffer;
+  }
+
+  /**
+   * Writes the given non-negative int as variable-length int (7 bits per
+   * byte) to the given buffer.
+   *
+   * @return The number of bytes written.
+   */
+  protected static int putVarInt(ByteBuffer buffer, int value) {
+    int numBytes = 1;
+    while ((value & ~0x7F) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+      numBytes++;
+    }
+    buffer.put((byte) value);
+    return numBytes;
+  }
+
+  /**
+   * Returns the number of records.
+   */
+  @Override
+  public int getNumDocs() {
+    return this.docLengths.length;
+  }
+
+  /**
+   * Returns the length of the given record (number of words).
+   *
+   * @param id
+   *        The id of the record.
+   */
+  @Override
+  public int getDocLength(int id) {
+    return this.docLengths[id];
   }
 
   /**
    * Returns the inverted list for the given word. Returns null if this inverted
    * index doesn't contain an inverted list for the word.
-   * 
+   *
    * @param word
    *        The word to process.
    */
-  public List<Integer> getInvertedList(String word) {
-    return this.invertedLists.get(word);
+  @Override
+  public PostingList getInvertedList(String word) {
+    int ordinal = this.dictionary.ordinal(word);
+    return ordinal >= 0 ? this.invertedLists[ordinal] : null;
+  }
+
+  // ==========================================================================
+
+  /**
+   * A range of lines of the file, which builds the inverted lists of its
+   * records.
+   */
+  protected static class Chunk extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The channel of the file.
+     */
+    protected FileChannel channel;
+
+    /**
+     * The range of the chunk in the file.
+     */
+    protected long start;
+    protected long end;
+
+    /**
+     * The inverted lists of the chunk (with record ids from 0).
+     */
+    protected Map<String, PostingList> lists = new HashMap<>();
+
+    /**
+     * Whether the positions of the words are stored in the lists.
+     */
+    protected boolean withPositions;
+
+    /**
+     * A hash table of the words added by addRecords() and addRecord(), to
+     * find the list of a word by its bytes, without creating a string: the
+     * index + 1 of the word in wordLists (0 for an empty slot), by the hash
+     * of the word (open addressing with linear probing).
+     */
+    protected int[] wordSlots = new int[64];
+
+    /**
+     * The bytes of the words in the hash table, concatenated.
+     */
+    protected byte[] wordBytes = new byte[256];
+
+    /**
+     * The start of each word in wordBytes (and the end of the last word).
+     */
+    protected int[] wordStarts = new int[33];
+
+    /**
+     * The list of each word in the hash table.
+     */
+    protected PostingList[] wordLists = new PostingList[32];
+
+    /**
+     * The number of words in the hash table.
+     */
+    protected int numWords;
+
+    /**
+     * The lengths of the records in the chunk (number of words).
+     */
+    protected int[] docLengths = new int[16];
+
+    /**
+     * The number of records in the chunk.
+     */
+    protected int numRecords;
+
+    /**
+     * Creates the chunk of the given range of the file.
+     *
+     * @param channel
+     *        The channel of the file.
+     * @param start
+     *        The start of the chunk.
+     * @param end
+     *        The end of the chunk.
+     */
+    public Chunk(FileChannel channel, long start, long end) {
+      this.channel = channel;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        // Positional reads, the channel is shared by all chunks.
+        ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+        while (bytes.hasRemaining()
+            && channel.read(bytes, start + bytes.position()) >= 0) {
+          continue;
+        }
+        addRecords(new ByteTokenizer(bytes.array(), 0, bytes.position()));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * Adds the words of the records of the given tokenizer to the inverted
+     * lists of this chunk, with record ids from 0.
+     *
+     * @param tokenizer
+     *        The tokenizer of the records (one record per line).
+     */
+    protected void addRecords(ByteTokenizer tokenizer) {
+      int length = 0;
+      int next;
+      while ((next = tokenizer.next()) != ByteTokenizer.END) {
+        if (next == ByteTokenizer.WORD) {
+          addWord(tokenizer.getBytes(), tokenizer.getWordStart(),
+              tokenizer.getWordEnd(), length);
+          length++;
+        } else {
+          endRecord(length);
+          length = 0;
+        }
+      }
+    }
+
+    /**
+     * Adds the words of the given record to the inverted lists of this chunk
+     * (line breaks in the record separate words).
+     *
+     * @param record
+     *        The record.
+     *
+     * @return The length of the record (number of words).
+     */
+    protected int addRecord(String record) {
+      byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+      ByteTokenizer tokenizer = new ByteTokenizer(bytes, 0, bytes.length);
+      int length = 0;
+      int next;
+      while ((next = tokenizer.next()) != ByteTokenizer.END) {
+        if (next == ByteTokenizer.WORD) {
+          addWord(bytes, tokenizer.getWordStart(), tokenizer.getWordEnd(),
+              length);
+          length++;
+        }
+      }
+      endRecord(length);
+      return length;
+    }
+
+    /**
+     * Ends the current record with the given length.
+     */
+    private void endRecord(int length) {
+      if (numRecords == docLengths.length) {
+        docLengths = Arrays.copyOf(docLengths, 2 * numRecords);
+      }
+      docLengths[numRecords++] = length;
+    }
+
+    /**
+     * Adds the given word (in lower case) to the list of the word, in the
+     * current record. Creates a string of the word only if it is new.
+     *
+     * @param bytes
+     *        The bytes that contain the word.
+     * @param start
+     *        The start of the word.
+     * @param end
+     *        The end of the word (exclusive).
+     * @param position
+     *        The position of the word in the record (stored only if
+     *        withPositions is set).
+     */
+    protected void addWord(byte[] bytes, int start, int end, int position) {
+      int hash = 0;
+      for (int i = start; i < end; i++) {
+        hash = 31 * hash + bytes[i];
+      }
+      int mask = wordSlots.length - 1;
+      int slot = slot(hash);
+      while (wordSlots[slot] != 0) {
+        int word = wordSlots[slot] - 1;
+        if (Arrays.equals(wordBytes, wordStarts[word], wordStarts[word + 1],
+            bytes, start, end)) {
+          // Append record id to inverted list.
+          addOccurrence(wordLists[word], position);
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+
+      // If word seen first time, create inverted list.
+      PostingList list = new PostingList();
+      lists.put(new String(bytes, start, end - start,
+          StandardCharsets.US_ASCII), list);
+      addOccurrence(list, position);
+      if (numWords == wordLists.length) {
+        wordLists = Arrays.copyOf(wordLists, 2 * numWords);
+        wordStarts = Arrays.copyOf(wordStarts, 2 * numWords + 1);
+      }
+      int wordStart = wordStarts[numWords];
+      if (wordStart + end - start > wordBytes.length) {
+        wordBytes = Arrays.copyOf(wordBytes, Math.max(2 * wordBytes.length,
+            wordStart + end - start));
+      }
+      System.arraycopy(bytes, start, wordBytes, wordStart, end - start);
+      wordStarts[numWords + 1] = wordStart + end - start;
+      wordLists[numWords++] = list;
+      wordSlots[slot] = numWords;
+      if (2 * numWords > wordSlots.length) {
+        rehash();
+      }
+    }
+
+    /**
+     * Adds an occurrence of a word at the given position in the current
+     * record to the given list (with the position if withPositions is set).
+     */
+    private void addOccurrence(PostingList list, int position) {
+      if (withPositions) {
+        list.addOccurrence(numRecords, position);
+      } else {
+        list.addPosting(numRecords);
+      }
+    }
+
+    /**
+     * Returns an estimate of the heap memory used by this chunk, in bytes:
+     * the arrays of the hash table and of the record lengths, and per word
+     * the list with its arrays, the string and the entry in the map.
+     */
+    protected long sizeInBytes() {
+      long size = 4L * docLengths.length + 4L * wordSlots.length
+          + wordBytes.length + 4L * wordStarts.length + 8L * wordLists.length;
+      for (int word = 0; word < numWords; word++) {
+        size += 160 + 2L * (wordStarts[word + 1] - wordStarts[word])
+            + 8L * wordLists[word].capacity();
+      }
+      return size;
+    }
+
+    /**
+     * Doubles the size of the hash table.
+     */
+    private void rehash() {
+      wordSlots = new int[2 * wordSlots.length];
+      int mask = wordSlots.length - 1;
+      for (int word = 0; word < numWords; word++) {
+        int hash = 0;
+        for (int i = wordStarts[word]; i < wordStarts[word + 1]; i++) {
+          hash = 31 * hash + wordBytes[i];
+        }
+        int slot = slot(hash);
+        while (wordSlots[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        wordSlots[slot] = word + 1;
+      }
+    }
+
+    /**
+     * Returns the slot of the given hash in the hash table: the highest bits
+     * of the hash times 2^32 / golden ratio (Fibonacci hashing), which
+     * depend on all bits of the hash. The low bits of the hash of similar
+     * words are similar, so linear probing from them would run into long
+     * clusters.
+     */
+    private int slot(int hash) {
+      return (hash * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(
+          wordSlots.length - 1);
+    }
   }
 }
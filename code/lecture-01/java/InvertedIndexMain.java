@@ -1,7 +1,7 @@
 // Copyright 2017 University of Freiburg
 // Claudius Korzen <korzen@cs.uni-freiburg.de>
 
-import java.util.List;
+import java.io.IOException;
 
 /**
  * The main class of the inverted index.
@@ -10,19 +10,36 @@ public class InvertedIndexMain {
   /**
    * The main method.
    */
-  public static void main(String[] args) {
-    if (args.length != 1) {
-      System.out.println("Usage: java -jar InvertedIndexMain.jar <file>");
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 3) {
+      System.out.println("Usage: java -jar InvertedIndexMain.jar <file> "
+          + "[<segment file to write> [<memory budget in MB>]]");
       System.exit(1);
     }
 
+    // Segment files (see InvertedIndex.writeToSegmentFile) are only mapped.
+    // With a memory budget, the segment file is built by SpimiIndexBuilder.
     String fileName = args[0];
-    InvertedIndex ii = new InvertedIndex();
-    ii.readFromFile(fileName);
+    InvertedIndexView ii;
+    if (fileName.endsWith(".seg")) {
+      ii = new MappedInvertedIndex(fileName);
+    } else if (args.length > 2) {
+      long budget = Long.parseLong(args[2]) << 20;
+      new SpimiIndexBuilder(budget).build(fileName, args[1]);
+      ii = new MappedInvertedIndex(args[1]);
+    } else {
+      InvertedIndex index = new InvertedIndex();
+      index.readFromFile(fileName);
+      ii = index;
+    }
+    if (args.length == 2) {
+      ii.writeToSegmentFile(args[1]);
+    }
 
-    // Output the lengths of the inverted lists (= frequencies of the words).
+    // Output the lengths of the inverted lists (= number of records with the
+    // words).
     for (String word : ii.getWords()) {
-      List<Integer> list = ii.getInvertedList(word);
+      PostingList list = ii.getInvertedList(word);
       System.out.println(word + " " + (list != null ? list.size() : "0"));
     }
   }
@@ -1,8 +1,16 @@
 // Copyright 2017 University of Freiburg
 // Claudius Korzen <korzen@cs.uni-freiburg.de>
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.TreeMap;
 
 import org.junit.Assert;
@@ -20,13 +28,233 @@ public class InvertedIndexTest {
     InvertedIndex ii = new InvertedIndex();
     ii.readFromFile("example.txt");
 
-    // Convert the inverted index to a TreeMap in order to get a deterministic
-    // order of the inverted lists. But still use HashMap for the inverted
-    // index, because it is more efficient than TreeMap (efficiency does not
-    // matter in unit tests).
-    Map<String, List<Integer>> sortedLists = new TreeMap<>(ii.invertedLists);
-
     Assert.assertEquals("{doc=[0, 1, 2], first=[0], second=[1], third=[2]}",
-        sortedLists.toString());
+        toMap(ii).toString());
+    Assert.assertEquals(3, ii.getInvertedList("doc").capacity());
+  }
+
+  /**
+   * Tests for the method readFromFile(file, numChunks).
+   */
+  @Test
+  public void testReadFromFileInChunks() throws IOException {
+    // Empty lines, \r\n and lone \r line breaks, no line break at the end.
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      text.append("doc ").append(i % 2 == 0 ? "even" : "odd");
+      text.append(i % 7 == 0 ? "\n\n" : i % 5 == 0 ? "\r\n" : "\r");
+    }
+    text.append("last doc");
+    Path file = Files.createTempFile("InvertedIndexTest", ".txt");
+    try {
+      Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+
+      InvertedIndex expected = new InvertedIndex();
+      expected.readFromFile(file.toString(), 1);
+      Assert.assertEquals(51, expected.getInvertedList("doc").size());
+      Assert.assertEquals(58, expected.getInvertedList("last").getId(0));
+
+      for (int numChunks : new int[] {2, 3, 7, 100, 1000}) {
+        InvertedIndex ii = new InvertedIndex();
+        ii.readFromFile(file.toString(), numChunks);
+        Assert.assertEquals(toMap(expected).toString(), toMap(ii).toString());
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Tests for the method computeScores() (called by readFromFile()).
+   */
+  @Test
+  public void testComputeScores() throws IOException {
+    InvertedIndex ii = readFromString("Movie\tAnimated movie.\n"
+        + "Movie\tNon-animated film.\nMovie\tShort animation.\n"
+        + "Movie\tShort animated short film.\n");
+    Assert.assertArrayEquals(new int[] {3, 4, 3, 5}, ii.docLengths);
+
+    PostingList animated = ii.getInvertedList("animated");
+    Assert.assertEquals(1, animated.getTf(0));
+    Assert.assertEquals(0.415, animated.getIdf(), 0.001);
+    Assert.assertEquals(0.459, animated.getScore(0), 0.001);
+    Assert.assertEquals(0.402, animated.getScore(1), 0.001);
+    Assert.assertEquals(0.358, animated.getScore(2), 0.001);
+    Assert.assertEquals(0.459, animated.getMaxScore(), 0.001);
+    PostingList shortList = ii.getInvertedList("short");
+    Assert.assertEquals(2, shortList.getTf(1));
+    Assert.assertEquals(1.106, shortList.getScore(0), 0.001);
+    Assert.assertEquals(1.313, shortList.getScore(1), 0.001);
+    Assert.assertEquals(0, ii.getInvertedList("movie").getMaxScore(), 0);
+  }
+
+  /**
+   * Tests for the method query().
+   */
+  @Test
+  public void testQuery() throws IOException {
+    InvertedIndex ii = readFromString("Movie\tAnimated movie.\n"
+        + "Movie\tNon-animated film.\nMovie\tShort animation.\n"
+        + "Movie\tShort animated short film.\n");
+    PostingList result = ii.query("animated film", 2);
+    Assert.assertEquals("[1, 3]", result.toString());
+    Assert.assertEquals(1.371, result.getScore(0), 0.001);
+    Assert.assertEquals(1.221, result.getScore(1), 0.001);
+    Assert.assertEquals("[1, 3, 0]", ii.query("Film animated FILM", 5)
+        .toString());
+    // Equal scores are ordered by id.
+    Assert.assertEquals("[0, 1, 2]", ii.query("movie", 3).toString());
+    Assert.assertEquals("[]", ii.query("animated unknown", 0).toString());
+    Assert.assertEquals("[]", ii.query("unknown", 3).toString());
+
+    // Compare the scores with the sum of the scores of all records.
+    Random random = new Random(42);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      int length = random.nextInt(20);
+      for (int j = 0; j < length; j++) {
+        text.append((char) ('a' + (int) Math.sqrt(random.nextInt(676))))
+            .append(' ');
+      }
+      text.append('\n');
+    }
+    ii = readFromString(text.toString());
+    for (String query : new String[] {"a", "a b", "z y x", "b y c", "a m z q",
+        "c d e f g h i j k", "x x y"}) {
+      float[] scores = new float[ii.docLengths.length];
+      boolean[] matches = new boolean[ii.docLengths.length];
+      int numMatches = 0;
+      for (String word : new LinkedHashSet<>(InvertedIndex.splitIntoWords(
+          query))) {
+        PostingList list = ii.getInvertedList(word);
+        for (int i = 0; list != null && i < list.size(); i++) {
+          scores[list.getId(i)] += list.getScore(i);
+          numMatches += matches[list.getId(i)] ? 0 : 1;
+          matches[list.getId(i)] = true;
+        }
+      }
+      Arrays.sort(scores);
+      for (int k : new int[] {1, 10, 100}) {
+        result = ii.query(query, k);
+        Assert.assertEquals(Math.min(k, numMatches), result.size());
+        for (int i = 0; i < result.size(); i++) {
+          Assert.assertEquals(query, scores[scores.length - 1 - i],
+              result.getScore(i), 1e-4);
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests for the method getWords(prefix).
+   */
+  @Test
+  public void testGetWordsWithPrefix() throws IOException {
+    InvertedIndex ii = readFromString("car cart care\ncat dog\ncargo cab\n");
+    Assert.assertEquals("[cab, car, care, cargo, cart, cat, dog]",
+        ii.getWords().toString());
+    Assert.assertEquals("[car, care, cargo, cart]",
+        toList(ii.getWords("car")).toString());
+    Assert.assertEquals("[dog]", toList(ii.getWords("d")).toString());
+    Assert.assertEquals("[]", toList(ii.getWords("e")).toString());
+    Assert.assertEquals("[]", toList(ii.getWords("cars")).toString());
+    Assert.assertEquals("[0]", ii.getInvertedList("care").toString());
+    Assert.assertNull(ii.getInvertedList("ca"));
+  }
+
+  /**
+   * Tests for the methods phraseQuery() and proximityQuery() (and the
+   * positions stored by readFromFile()).
+   */
+  @Test
+  public void testPhraseQuery() throws IOException {
+    InvertedIndex ii = readFromString("The quick brown fox.\n"
+        + "The brown, quick fox.\nquick quick brown\nbrown\n", true);
+    Assert.assertEquals("[0, 2]", ii.phraseQuery("quick brown").toString());
+    Assert.assertEquals("[1]", ii.phraseQuery("Brown quick").toString());
+    Assert.assertEquals("[0]", ii.phraseQuery("the quick brown fox")
+        .toString());
+    Assert.assertEquals("[1]", ii.phraseQuery("quick fox").toString());
+    Assert.assertEquals("[0, 1]", ii.proximityQuery("quick fox", 2)
+        .toString());
+    Assert.assertEquals("[0, 1, 2]", ii.phraseQuery("quick").toString());
+    // A query of one word returns a copy of the inverted list.
+    PostingList quick = ii.phraseQuery("quick");
+    Assert.assertNotSame(ii.getInvertedList("quick"), quick);
+    Assert.assertEquals("[0, 1]", Arrays.toString(quick.getPositions(2)));
+    quick.addPosting(5);
+    Assert.assertEquals("[0, 1, 2]", ii.getInvertedList("quick").toString());
+    Assert.assertEquals("[]", ii.phraseQuery("quick dog").toString());
+    Assert.assertEquals("[]", ii.phraseQuery("").toString());
+    try {
+      readFromString("quick brown\n").phraseQuery("quick brown");
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("The index has no positions.", e.getMessage());
+    }
+
+    // The positions of the lists of the chunks are appended, too.
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 300; i++) {
+      text.append(i % 3 == 0 ? "a b c\n" : i % 3 == 1 ? "b a c a\n" : "c\n");
+    }
+    Path file = Files.createTempFile("InvertedIndexTest", ".txt");
+    try {
+      Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+      ii = new InvertedIndex(true);
+      ii.readFromFile(file.toString(), 7);
+      PostingList result = ii.phraseQuery("b a c");
+      Assert.assertEquals(100, result.size());
+      Assert.assertEquals(1, result.getId(0));
+      Assert.assertEquals(298, result.getId(99));
+      Assert.assertEquals(2, result.getPositions(99)[0]);
+      Assert.assertEquals(200, ii.proximityQuery("a c", 2).size());
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Returns the given words as a list.
+   */
+  private static List<String> toList(Iterable<String> words) {
+    List<String> list = new ArrayList<>();
+    words.forEach(list::add);
+    return list;
+  }
+
+  /**
+   * Returns the inverted lists of the given index as a map from the words to
+   * the lists, sorted by the words.
+   */
+  private static Map<String, PostingList> toMap(InvertedIndex ii) {
+    Map<String, PostingList> lists = new TreeMap<>();
+    for (String word : ii.getWords()) {
+      lists.put(word, ii.getInvertedList(word));
+    }
+    return lists;
+  }
+
+  /**
+   * Returns an inverted index of the given text.
+   */
+  private static InvertedIndex readFromString(String text) throws IOException {
+    return readFromString(text, false);
+  }
+
+  /**
+   * Returns an inverted index of the given text, with or without positions.
+   */
+  private static InvertedIndex readFromString(String text,
+      boolean withPositions) throws IOException {
+    Path file = Files.createTempFile("InvertedIndexTest", ".txt");
+    try {
+      Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+      InvertedIndex ii = new InvertedIndex(withPositions);
+      ii.readFromFile(file.toString());
+      return ii;
+    } finally {
+      Files.delete(file);
+    }
   }
 }
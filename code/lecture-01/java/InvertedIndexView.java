@@ -0,0 +1,409 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The read-only part of an inverted index: the queries (with BM25 scores as
+ * explained in lecture 2) on the inverted lists of the words. The lists are
+ * read only via getInvertedList(), so the queries work on each
+ * implementation: InvertedIndex (built in memory from a file of records),
+ * IncrementalInvertedIndex (records added at any time) and
+ * MappedInvertedIndex (a memory-mapped segment file). Only the first two
+ * have the methods to add records.
+ */
+public abstract class InvertedIndexView {
+  /**
+   * The BM25 parameter k (saturation of the term frequency).
+   */
+  public static final float BM25_K = 1.75f;
+
+  /**
+   * The BM25 parameter b (normalization by the document length).
+   */
+  public static final float BM25_B = 0.75f;
+
+  /**
+   * The first int of a segment file, see
+   * InvertedIndex.writeToSegmentFile().
+   */
+  public static final int SEGMENT_MAGIC = 0x49495347;
+
+  /**
+   * The number of bytes of the header of a segment file.
+   */
+  public static final int SEGMENT_HEADER_SIZE = 48;
+
+  /**
+   * The number of bytes of an entry of a word in a segment file.
+   */
+  public static final int SEGMENT_ENTRY_SIZE = 20;
+
+  /**
+   * The words, which map to the ordinals of their lists.
+   */
+  protected TermDictionary dictionary;
+
+  /**
+   * The average length of the records (at least 1).
+   */
+  protected double avdl = 1;
+
+  /**
+   * Whether the inverted lists have the positions of the words (for
+   * phraseQuery() and proximityQuery()).
+   */
+  protected boolean withPositions;
+
+  // ==========================================================================
+
+  /**
+   * Returns the length normalization k * (1 - b + b * DL / AVDL) of BM25 for
+   * a record of the given length.
+   *
+   * @param docLength
+   *        The length of the record.
+   */
+  protected float lengthNorm(int docLength) {
+    return lengthNorm(docLength, this.avdl);
+  }
+
+  /**
+   * Returns the length normalization of BM25 for a record of the given
+   * length, with the given average length of the records.
+   */
+  protected static float lengthNorm(int docLength, double avdl) {
+    return (float) (BM25_K * (1 - BM25_B + BM25_B * docLength / avdl));
+  }
+
+  /**
+   * Returns the BM25 score for the given term frequency, length
+   * normalization (see lengthNorm()) and inverse document frequency.
+   */
+  protected static float score(int tf, float lengthNorm, float idf) {
+    return tf * (BM25_K + 1) / (lengthNorm + tf) * idf;
+  }
+
+  /**
+   * Returns the inverse document frequency log2(N / df) of a word that
+   * occurs in df of N records.
+   *
+   * @param numDocs
+   *        The number of records N.
+   * @param df
+   *        The number of records that contain the word.
+   */
+  protected static float idf(int numDocs, int df) {
+    return (float) (Math.log((double) numDocs / df) / Math.log(2));
+  }
+
+  /**
+   * Processes the given keyword query: returns the k records with the highest
+   * sum of the BM25 scores of the (distinct) words of the query, as a list
+   * sorted by score in descending order (and by id for equal scores).
+   *
+   * <p>
+   * The records are visited in id order (document-at-a-time), and the k best
+   * so far are kept in a min-heap. The lists are sorted by their maximum
+   * score. As soon as the maximum scores of the first lists sum up to at most
+   * the smallest score in the full heap, a record that is only in these lists
+   * can't make it into the result, so only the other lists are iterated, and
+   * the first lists are only searched for the records of the other lists
+   * (MaxScore by Turtle and Flood).
+   * </p>
+   *
+   * @param query
+   *        The query.
+   * @param k
+   *        The number of records to return.
+   *
+   * @return The k best records with their scores.
+   */
+  public PostingList query(String query, int k) {
+    List<PostingList> queryLists = new ArrayList<>();
+    for (PostingList list : getInvertedLists(new LinkedHashSet<>(
+        splitIntoWords(query)))) {
+      if (list != null && list.size() > 0) {
+        queryLists.add(list);
+      }
+    }
+    queryLists.sort((l1, l2) -> Float.compare(l1.getMaxScore(),
+        l2.getMaxScore()));
+    PostingList[] lists = queryLists.toArray(new PostingList[0]);
+    int n = lists.length;
+
+    // sumMaxScores[i] is the sum of the maximum scores of lists 0..i.
+    float[] sumMaxScores = new float[n];
+    for (int i = 0; i < n; i++) {
+      sumMaxScores[i] = (i > 0 ? sumMaxScores[i - 1] : 0)
+          + lists[i].getMaxScore();
+    }
+
+    // The heap with the k best records so far, see heapKey().
+    long[] heap = new long[Math.max(k, 0)];
+    int heapSize = 0;
+    // The smallest score in the full heap, -1 while it is not full.
+    float threshold = -1;
+    // The lists 0..firstEssential-1 alone can't beat the threshold.
+    int firstEssential = 0;
+    int[] positions = new int[n];
+
+    while (k > 0 && firstEssential < n) {
+      // The next record in the essential lists.
+      int id = Integer.MAX_VALUE;
+      for (int i = firstEssential; i < n; i++) {
+        if (positions[i] < lists[i].size()) {
+          id = Math.min(id, lists[i].getId(positions[i]));
+        }
+      }
+      if (id == Integer.MAX_VALUE) {
+        break;
+      }
+      float score = 0;
+      for (int i = firstEssential; i < n; i++) {
+        if (positions[i] < lists[i].size()
+            && lists[i].getId(positions[i]) == id) {
+          score += lists[i].getScore(positions[i]++);
+        }
+      }
+      // Add the scores of the other lists, as long as the record can still
+      // beat the threshold.
+      for (int i = firstEssential - 1; i >= 0; i--) {
+        if (score + sumMaxScores[i] <= threshold) {
+          break;
+        }
+        positions[i] = lists[i].advance(positions[i], id);
+        if (positions[i] < lists[i].size()
+            && lists[i].getId(positions[i]) == id) {
+          score += lists[i].getScore(positions[i]);
+        }
+      }
+      if (score <= threshold) {
+        continue;
+      }
+
+      // Add the record to the heap (replace the smallest if it is full).
+      if (heapSize < k) {
+        heap[heapSize++] = heapKey(id, score);
+        siftUp(heap, heapSize - 1);
+      } else {
+        heap[0] = heapKey(id, score);
+        siftDown(heap, 0, heapSize);
+      }
+      if (heapSize == k) {
+        threshold = Float.intBitsToFloat((int) (heap[0] >>> 32));
+        while (firstEssential < n
+            && sumMaxScores[firstEssential] <= threshold) {
+          firstEssential++;
+        }
+      }
+    }
+
+    // Pop the heap from the smallest to the largest.
+    PostingList result = new PostingList();
+    long[] sorted = Arrays.copyOf(heap, heapSize);
+    Arrays.sort(sorted);
+    for (int i = heapSize - 1; i >= 0; i--) {
+      result.addPosting(~(int) sorted[i],
+          Float.intBitsToFloat((int) (sorted[i] >>> 32)));
+    }
+    return result;
+  }
+
+  /**
+   * Returns a key of the given record and score, which are ordered like the
+   * records by score ascending and then by id descending (the bits of a
+   * non-negative float are ordered like the float).
+   */
+  private static long heapKey(int id, float score) {
+    return ((long) Float.floatToIntBits(score) << 32) | (~id & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Moves the key at the given index of the min-heap up to its place.
+   */
+  private static void siftUp(long[] heap, int i) {
+    long key = heap[i];
+    while (i > 0 && heap[(i - 1) / 2] > key) {
+      heap[i] = heap[(i - 1) / 2];
+      i = (i - 1) / 2;
+    }
+    heap[i] = key;
+  }
+
+  /**
+   * Moves the key at the given index of the min-heap of the given size down
+   * to its place.
+   */
+  private static void siftDown(long[] heap, int i, int size) {
+    long key = heap[i];
+    while (2 * i + 1 < size) {
+      int child = 2 * i + 1;
+      if (child + 1 < size && heap[child + 1] < heap[child]) {
+        child++;
+      }
+      if (heap[child] >= key) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = key;
+  }
+
+  /**
+   * Returns the records that contain the words of the given phrase at
+   * consecutive positions, see proximityQuery().
+   *
+   * @param phrase
+   *        The phrase.
+   */
+  public PostingList phraseQuery(String phrase) {
+    return proximityQuery(phrase, 1);
+  }
+
+  /**
+   * Returns the records that contain the words of the given query in their
+   * order, each at most maxDistance positions behind the one before (see
+   * PostingList.intersectProximity()), sorted by id. The positions in the
+   * result are the ones of the last word. The result is always a new list
+   * (a copy of the inverted list for a query of one word).
+   *
+   * @param query
+   *        The query.
+   * @param maxDistance
+   *        The maximum distance of two consecutive words (at least 1).
+   *
+   * @throws IllegalStateException
+   *         If the index was built without positions.
+   */
+  public PostingList proximityQuery(String query, int maxDistance) {
+    if (!this.withPositions) {
+      throw new IllegalStateException("The index has no positions.");
+    }
+    PostingList result = null;
+    for (String word : splitIntoWords(query)) {
+      PostingList list = getInvertedList(word);
+      if (list == null) {
+        return new PostingList();
+      }
+      if (result == null) {
+        result = new PostingList();
+        result.addPostings(list, 0);
+      } else {
+        result = result.intersectProximity(list, maxDistance);
+      }
+    }
+    return result != null ? result : new PostingList();
+  }
+
+  /**
+   * Splits the given text into words (maximal sequences of ASCII letters, in
+   * lower case), see ByteTokenizer.
+   *
+   * @param text
+   *        The text to split.
+   *
+   * @return The words.
+   */
+  protected static List<String> splitIntoWords(String text) {
+    List<String> words = new ArrayList<>();
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    ByteTokenizer tokenizer = new ByteTokenizer(bytes, 0, bytes.length);
+    int next;
+    while ((next = tokenizer.next()) != ByteTokenizer.END) {
+      if (next == ByteTokenizer.WORD) {
+        words.add(tokenizer.getWord());
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Returns the number of records.
+   */
+  public abstract int getNumDocs();
+
+  /**
+   * Returns the length of the given record (number of words).
+   *
+   * @param id
+   *        The id of the record.
+   */
+  public abstract int getDocLength(int id);
+
+  /**
+   * Returns the words within this inverted index (in the order of their
+   * UTF-8 bytes).
+   */
+  public Set<String> getWords() {
+    return this.dictionary;
+  }
+
+  /**
+   * Returns the words within this inverted index that start with the given
+   * prefix (in the order of their UTF-8 bytes).
+   *
+   * @param prefix
+   *        The prefix.
+   */
+  public Iterable<String> getWords(String prefix) {
+    return this.dictionary.withPrefix(prefix);
+  }
+
+  /**
+   * Returns the number of records that contain the given word (the size of
+   * its inverted list, 0 if there is none), without reading the list.
+   *
+   * @param word
+   *        The word.
+   */
+  public int getDocFrequency(String word) {
+    PostingList list = getInvertedList(word);
+    return list != null ? list.size() : 0;
+  }
+
+  /**
+   * Returns the inverted list for the given word (with the BM25 scores).
+   * Returns null if this inverted index doesn't contain an inverted list for
+   * the word.
+   *
+   * @param word
+   *        The word to process.
+   */
+  public abstract PostingList getInvertedList(String word);
+
+  /**
+   * Returns the inverted lists for the given words (null for a word without
+   * a list), see getInvertedList(). query() reads the lists of all words of
+   * the query with one call, so an index that changes (see
+   * IncrementalInvertedIndex) can return all of them from the same state.
+   *
+   * @param words
+   *        The words.
+   */
+  protected List<PostingList> getInvertedLists(Collection<String> words) {
+    List<PostingList> lists = new ArrayList<>(words.size());
+    for (String word : words) {
+      lists.add(getInvertedList(word));
+    }
+    return lists;
+  }
+
+  /**
+   * Writes this inverted index to the given segment file, which can be
+   * memory-mapped by MappedInvertedIndex (see
+   * InvertedIndex.writeToSegmentFile() for the format).
+   *
+   * @param file
+   *        The path of the file to write.
+   */
+  public abstract void writeToSegmentFile(String file) throws IOException;
+}
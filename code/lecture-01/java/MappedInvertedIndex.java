@@ -0,0 +1,220 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only inverted index that is backed by a memory-mapped segment file
+ * written by InvertedIndex.writeToSegmentFile(). Opening the file only maps
+ * it, nothing is parsed or copied to the heap. The inverted lists are decoded
+ * (and their scores computed) on each call of getInvertedList(); the
+ * operating system loads the pages on access and keeps them in its page
+ * cache, which is shared by all processes that map the file. Each section of
+ * the file is mapped on its own, so it can have at most 2^31 - 1 bytes. The
+ * index is an InvertedIndexView, so it can be queried like an InvertedIndex,
+ * but records can't be added to it.
+ */
+public class MappedInvertedIndex extends InvertedIndexView {
+  /**
+   * The mapped segment file.
+   */
+  protected Path file;
+
+  /**
+   * The lengths of the records, mapped from the file.
+   */
+  protected IntBuffer mappedDocLengths;
+
+  /**
+   * The compressed postings, mapped from the file.
+   */
+  protected ByteBuffer postings;
+
+  /**
+   * The entries of the words, mapped from the file.
+   */
+  protected ByteBuffer entries;
+
+  /**
+   * The number of words.
+   */
+  protected int numWords;
+
+  /**
+   * Maps the given segment file.
+   *
+   * @param file
+   *        The path of the file to map.
+   */
+  public MappedInvertedIndex(String file) throws IOException {
+    this.file = Paths.get(file);
+    try (FileChannel channel = FileChannel.open(Paths.get(file),
+        StandardOpenOption.READ)) {
+      // The mappings stay valid after the channel is closed.
+      long size = channel.size();
+      ByteBuffer header = map(channel, 0, Math.min(size,
+          SEGMENT_HEADER_SIZE));
+      if (size < SEGMENT_HEADER_SIZE || header.getInt(0) != SEGMENT_MAGIC) {
+        throw new IOException("Not a segment file: " + file);
+      }
+      int numDocs = header.getInt(4);
+      this.numWords = header.getInt(8);
+      this.avdl = header.getDouble(16);
+      long termsOffset = header.getLong(24);
+      long postingsOffset = header.getLong(32);
+      long entriesOffset = header.getLong(40);
+      long entriesSize = (long) SEGMENT_ENTRY_SIZE * (this.numWords + 1);
+      if (numDocs < 0 || this.numWords < 0
+          || termsOffset != SEGMENT_HEADER_SIZE + 4L * numDocs
+          || postingsOffset < termsOffset || entriesOffset < postingsOffset
+          || entriesOffset + entriesSize != size) {
+        throw new IOException("Invalid segment file: " + file);
+      }
+      this.mappedDocLengths = map(channel, SEGMENT_HEADER_SIZE, 4L * numDocs)
+          .asIntBuffer();
+      // The block offsets of the dictionary, then the blocks.
+      ByteBuffer terms = map(channel, termsOffset, postingsOffset
+          - termsOffset);
+      int numBlocks = TermDictionary.numBlocks(this.numWords);
+      if (terms.limit() < 4L * numBlocks) {
+        throw new IOException("Invalid segment file: " + file);
+      }
+      IntBuffer blockOffsets = terms.slice(0, 4 * numBlocks)
+          .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+      ByteBuffer blocks = terms.slice(4 * numBlocks, terms.limit()
+          - 4 * numBlocks);
+      this.dictionary = new TermDictionary(blocks, blockOffsets,
+          this.numWords);
+      this.postings = map(channel, postingsOffset,
+          entriesOffset - postingsOffset);
+      this.entries = map(channel, entriesOffset, entriesSize);
+    }
+  }
+
+  /**
+   * Maps the given section of the given file (little-endian).
+   */
+  private static ByteBuffer map(FileChannel channel, long offset, long size)
+      throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, offset, size)
+        .order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  // ==========================================================================
+
+  /**
+   * Writes this inverted index to the given segment file, by copying the
+   * mapped file (there are no lists in memory to write).
+   *
+   * @param file
+   *        The path of the file to write.
+   */
+  @Override
+  public void writeToSegmentFile(String file) throws IOException {
+    Files.copy(this.file, Paths.get(file),
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Returns the number of records that contain the given word, from the
+   * entry of the word (the list is not decoded).
+   *
+   * @param word
+   *        The word.
+   */
+  @Override
+  public int getDocFrequency(String word) {
+    int i = this.dictionary.ordinal(word);
+    return i >= 0 ? this.entries.getInt(i * SEGMENT_ENTRY_SIZE + 8) : 0;
+  }
+
+  /**
+   * Returns the inverted list for the given word, decoded from the file, with
+   * the BM25 scores computed from the term frequencies. Returns null if this
+   * inverted index doesn't contain an inverted list for the word.
+   *
+   * @param word
+   *        The word to process.
+   */
+  @Override
+  public PostingList getInvertedList(String word) {
+    PostingList list = getPostings(word);
+    if (list == null) {
+      return null;
+    }
+    float idf = this.entries.getFloat(this.dictionary.ordinal(word)
+        * SEGMENT_ENTRY_SIZE + 12);
+    float[] scores = new float[list.size()];
+    for (int j = 0; j < list.size(); j++) {
+      scores[j] = score(list.getTf(j), lengthNorm(this.mappedDocLengths.get(
+          list.getId(j))), idf);
+    }
+    list.setScores(scores, idf);
+    return list;
+  }
+
+  /**
+   * Returns the ids and the term frequencies of the inverted list for the
+   * given word, decoded from the file, without scores (for callers that
+   * compute the scores with other statistics, see IncrementalInvertedIndex).
+   * Returns null if this inverted index doesn't contain an inverted list for
+   * the word.
+   *
+   * @param word
+   *        The word to process.
+   */
+  public PostingList getPostings(String word) {
+    int i = this.dictionary.ordinal(word);
+    if (i < 0) {
+      return null;
+    }
+    int entry = i * SEGMENT_ENTRY_SIZE;
+    int pos = (int) this.entries.getLong(entry);
+    int size = this.entries.getInt(entry + 8);
+
+    int[] ids = new int[size];
+    int[] tfs = new int[size];
+    int id = 0;
+    for (int j = 0; j < size; j++) {
+      // Decode the id gap and the term frequency.
+      int gap = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = this.postings.get(pos++);
+        gap |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      int tf = 0;
+      shift = 0;
+      do {
+        b = this.postings.get(pos++);
+        tf |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      id += gap;
+      ids[j] = id;
+      tfs[j] = tf;
+    }
+    return new PostingList(ids, tfs);
+  }
+
+  @Override
+  public int getNumDocs() {
+    return this.mappedDocLengths.limit();
+  }
+
+  @Override
+  public int getDocLength(int id) {
+    return this.mappedDocLengths.get(id);
+  }
+}
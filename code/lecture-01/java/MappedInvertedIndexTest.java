@@ -0,0 +1,81 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the MappedInvertedIndex class.
+ */
+public class MappedInvertedIndexTest {
+  /**
+   * Tests for the constructor (and InvertedIndex.writeToSegmentFile()),
+   * getWords(), getInvertedList(), getDocFrequency() and
+   * writeToSegmentFile().
+   */
+  @Test
+  public void testWriteAndMap() throws IOException {
+    InvertedIndex ii = new InvertedIndex();
+    ii.readFromFile("example.txt");
+    Path file = Files.createTempFile("MappedInvertedIndexTest", ".seg");
+    try {
+      ii.writeToSegmentFile(file.toString());
+      MappedInvertedIndex mii = new MappedInvertedIndex(file.toString());
+
+      Assert.assertEquals(3, mii.getNumDocs());
+      Assert.assertEquals("[doc, first, second, third]",
+          mii.getWords().toString());
+      Assert.assertEquals(new TreeSet<>(ii.getWords()), mii.getWords());
+      Assert.assertTrue(mii.getWords().contains("third"));
+      Assert.assertFalse(mii.getWords().contains("fourth"));
+      Assert.assertNull(mii.getInvertedList("fourth"));
+      Assert.assertNull(mii.getInvertedList(""));
+      Assert.assertEquals(0, mii.getDocFrequency("fourth"));
+
+      for (String word : ii.getWords()) {
+        PostingList expected = ii.getInvertedList(word);
+        PostingList actual = mii.getInvertedList(word);
+        Assert.assertEquals(expected.toString(), actual.toString());
+        Assert.assertEquals(expected.size(), mii.getDocFrequency(word));
+        Assert.assertEquals(expected.getIdf(), actual.getIdf(), 0);
+        Assert.assertEquals(expected.getMaxScore(), actual.getMaxScore(), 0);
+        for (int i = 0; i < expected.size(); i++) {
+          Assert.assertEquals(expected.getTf(i), actual.getTf(i));
+          Assert.assertEquals(expected.getScore(i), actual.getScore(i), 0);
+        }
+      }
+      Assert.assertEquals(ii.query("second doc", 2).toString(),
+          mii.query("second doc", 2).toString());
+
+      // A mapped index is written by copying its file.
+      Path copy = Files.createTempFile("MappedInvertedIndexTest", ".seg");
+      try {
+        mii.writeToSegmentFile(copy.toString());
+        Assert.assertArrayEquals(Files.readAllBytes(file),
+            Files.readAllBytes(copy));
+      } finally {
+        Files.delete(copy);
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Tests for the constructor on files that are not segment files.
+   */
+  @Test
+  public void testMapInvalidFile() throws IOException {
+    try {
+      new MappedInvertedIndex("example.txt");
+      Assert.fail();
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage().startsWith("Not a segment file"));
+    }
+  }
+}
@@ -0,0 +1,584 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.util.Arrays;
+
+/**
+ * An inverted list of record ids with term frequencies, backed by growable
+ * int arrays. A posting needs 8 bytes (plus the unused capacity until trim()
+ * is called), instead of about 20 bytes per occurrence for a boxed Integer in
+ * an ArrayList. Once the BM25 scores are computed (see setScores()), a posting
+ * needs 4 more bytes. Optionally, a list stores the positions of its word in
+ * each record (see addOccurrence()), as the gaps between them in
+ * variable-length ints, so mostly 1 byte per occurrence (plus 4 bytes per
+ * posting for the end of its positions).
+ */
+public class PostingList {
+  /**
+   * The capacity of a new list (most words of a vocabulary occur only in a
+   * few records).
+   */
+  protected static final int INITIAL_CAPACITY = 2;
+
+  /**
+   * The record ids of the postings in this list.
+   */
+  protected int[] ids;
+
+  /**
+   * The term frequencies of the postings in this list.
+   */
+  protected int[] tfs;
+
+  /**
+   * The scores of the postings in this list, null if not computed yet.
+   */
+  protected float[] scores;
+
+  /**
+   * The number of postings in this list.
+   */
+  protected int numPostings;
+
+  /**
+   * The inverse document frequency of the word of this list.
+   */
+  protected float idf;
+
+  /**
+   * The maximum score of the postings in this list.
+   */
+  protected float maxScore;
+
+  /**
+   * The positions of the postings, one after the other, each as the gap to
+   * the previous position of the posting (the first one to 0), as
+   * variable-length ints (7 bits per byte, the highest bit set in all but
+   * the last byte). Null if this list has no positions.
+   */
+  protected byte[] positions;
+
+  /**
+   * The end of the positions of each posting in positions (they start at
+   * the end of the positions of the posting before). Null if this list has
+   * no positions.
+   */
+  protected int[] positionEnds;
+
+  /**
+   * The last position added by addOccurrence().
+   */
+  protected int lastPosition;
+
+  /**
+   * Creates an empty posting list.
+   */
+  public PostingList() {
+    this.ids = new int[INITIAL_CAPACITY];
+    this.tfs = new int[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Creates a posting list with the given ids (each with term frequency 1).
+   *
+   * @param ids
+   *        The ids of the postings.
+   */
+  public PostingList(int... ids) {
+    this.ids = ids.clone();
+    this.tfs = new int[ids.length];
+    Arrays.fill(this.tfs, 1);
+    this.numPostings = ids.length;
+  }
+
+  /**
+   * Creates a posting list with the given ids and term frequencies (the
+   * arrays are not copied).
+   *
+   * @param ids
+   *        The ids of the postings.
+   * @param tfs
+   *        The term frequencies of the postings.
+   */
+  public PostingList(int[] ids, int[] tfs) {
+    this.ids = ids;
+    this.tfs = tfs;
+    this.numPostings = ids.length;
+  }
+
+  /**
+   * Adds an occurrence of the word in the record with the given id to this
+   * list: increments the term frequency of the last posting if it has the
+   * same id, and appends a posting otherwise (doubling the capacity if the
+   * list is full).
+   *
+   * @param id
+   *        The record id of the posting.
+   */
+  public void addPosting(int id) {
+    if (this.numPostings > 0 && this.ids[this.numPostings - 1] == id) {
+      this.tfs[this.numPostings - 1]++;
+      return;
+    }
+    ensureCapacity(this.numPostings + 1);
+    this.ids[this.numPostings] = id;
+    this.tfs[this.numPostings++] = 1;
+  }
+
+  /**
+   * Adds an occurrence of the word at the given position in the record with
+   * the given id to this list, like addPosting(id), and also stores the
+   * position. The positions must be added in increasing order per record.
+   *
+   * @param id
+   *        The record id of the posting.
+   * @param position
+   *        The position of the word in the record (from 0).
+   */
+  public void addOccurrence(int id, int position) {
+    if (this.positions == null) {
+      this.positions = new byte[INITIAL_CAPACITY];
+      this.positionEnds = new int[this.ids.length];
+    }
+    boolean samePosting = this.numPostings > 0
+        && this.ids[this.numPostings - 1] == id;
+    int gap = samePosting ? position - this.lastPosition : position;
+    addPosting(id);
+    this.lastPosition = position;
+
+    int last = this.numPostings - 1;
+    int end = samePosting ? this.positionEnds[last] : positionsStart(last);
+    if (end + 5 > this.positions.length) {
+      this.positions = Arrays.copyOf(this.positions, Math.max(end + 5,
+          2 * this.positions.length));
+    }
+    while ((gap & ~0x7F) != 0) {
+      this.positions[end++] = (byte) ((gap & 0x7F) | 0x80);
+      gap >>>= 7;
+    }
+    this.positions[end++] = (byte) gap;
+    this.positionEnds[last] = end;
+  }
+
+  /**
+   * Appends a posting with the given id and score (and term frequency 1) to
+   * this list, for example to a result list.
+   *
+   * @param id
+   *        The record id of the posting.
+   * @param score
+   *        The score of the posting.
+   */
+  public void addPosting(int id, float score) {
+    ensureCapacity(this.numPostings + 1);
+    if (this.scores == null) {
+      this.scores = new float[this.ids.length];
+    }
+    this.ids[this.numPostings] = id;
+    this.tfs[this.numPostings] = 1;
+    this.scores[this.numPostings++] = score;
+    this.maxScore = Math.max(this.maxScore, score);
+  }
+
+  /**
+   * Appends the postings of the given list to this list, with their ids
+   * shifted by the given offset (to merge lists of consecutive parts of the
+   * records).
+   *
+   * @param other
+   *        The list to append.
+   * @param offset
+   *        The offset to add to the ids of the other list.
+   */
+  public void addPostings(PostingList other, int offset) {
+    ensureCapacity(this.numPostings + other.numPostings);
+    if (other.positions != null) {
+      if (this.positions == null) {
+        this.positions = new byte[0];
+        this.positionEnds = new int[this.ids.length];
+      }
+      int start = positionsStart(this.numPostings);
+      int length = other.positionsStart(other.numPostings);
+      if (start + length > this.positions.length) {
+        this.positions = Arrays.copyOf(this.positions, start + length);
+      }
+      System.arraycopy(other.positions, 0, this.positions, start, length);
+      for (int i = 0; i < other.numPostings; i++) {
+        this.positionEnds[this.numPostings + i] = start
+            + other.positionEnds[i];
+      }
+    }
+    for (int i = 0; i < other.numPostings; i++) {
+      this.ids[this.numPostings] = other.ids[i] + offset;
+      this.tfs[this.numPostings++] = other.tfs[i];
+    }
+  }
+
+  /**
+   * Grows the capacity of this list to at least the given number of postings
+   * (at least doubling it).
+   */
+  private void ensureCapacity(int capacity) {
+    if (capacity > this.ids.length) {
+      capacity = Math.max(capacity, Math.max(INITIAL_CAPACITY,
+          2 * this.ids.length));
+      this.ids = Arrays.copyOf(this.ids, capacity);
+      this.tfs = Arrays.copyOf(this.tfs, capacity);
+      if (this.scores != null) {
+        this.scores = Arrays.copyOf(this.scores, capacity);
+      }
+      if (this.positionEnds != null) {
+        this.positionEnds = Arrays.copyOf(this.positionEnds, capacity);
+      }
+    }
+  }
+
+  /**
+   * Shrinks the capacity of this list to its size (once no more postings are
+   * added).
+   */
+  public void trim() {
+    if (this.ids.length != this.numPostings) {
+      this.ids = Arrays.copyOf(this.ids, this.numPostings);
+      this.tfs = Arrays.copyOf(this.tfs, this.numPostings);
+      if (this.scores != null) {
+        this.scores = Arrays.copyOf(this.scores, this.numPostings);
+      }
+      if (this.positionEnds != null) {
+        this.positionEnds = Arrays.copyOf(this.positionEnds,
+            this.numPostings);
+      }
+    }
+    if (this.positions != null) {
+      this.positions = Arrays.copyOf(this.positions,
+          positionsStart(this.numPostings));
+    }
+  }
+
+  /**
+   * Sets the scores of the postings in this list and the inverse document
+   * frequency of its word, and computes the maximum score.
+   *
+   * @param scores
+   *        The scores, one per posting.
+   * @param idf
+   *        The inverse document frequency.
+   */
+  public void setScores(float[] scores, float idf) {
+    this.scores = scores;
+    this.idf = idf;
+    this.maxScore = 0;
+    for (int i = 0; i < this.numPostings; i++) {
+      this.maxScore = Math.max(this.maxScore, scores[i]);
+    }
+  }
+
+  /**
+   * Returns the id of the i-th posting.
+   *
+   * @param i
+   *        The index of the posting.
+   */
+  public int getId(int i) {
+    return this.ids[i];
+  }
+
+  /**
+   * Returns the term frequency of the i-th posting.
+   *
+   * @param i
+   *        The index of the posting.
+   */
+  public int getTf(int i) {
+    return this.tfs[i];
+  }
+
+  /**
+   * Returns the score of the i-th posting (0 if no scores are computed).
+   *
+   * @param i
+   *        The index of the posting.
+   */
+  public float getScore(int i) {
+    return this.scores != null ? this.scores[i] : 0;
+  }
+
+  /**
+   * Returns the inverse document frequency of the word of this list.
+   */
+  public float getIdf() {
+    return this.idf;
+  }
+
+  /**
+   * Returns the maximum score of the postings in this list.
+   */
+  public float getMaxScore() {
+    return this.maxScore;
+  }
+
+  /**
+   * Returns true if this list stores the positions of its postings.
+   */
+  public boolean hasPositions() {
+    return this.positions != null;
+  }
+
+  /**
+   * Returns the positions of the word in the record of the i-th posting, in
+   * increasing order (empty if this list has no positions).
+   *
+   * @param i
+   *        The index of the posting.
+   */
+  public int[] getPositions(int i) {
+    if (this.positions == null) {
+      return new int[0];
+    }
+    int[] result = new int[this.tfs[i]];
+    return Arrays.copyOf(result, getPositions(i, result));
+  }
+
+  /**
+   * Writes the positions of the word in the record of the i-th posting to
+   * the given buffer, which must have space for getTf(i) positions.
+   *
+   * @return The number of positions written.
+   */
+  private int getPositions(int i, int[] buffer) {
+    int n = 0;
+    int position = 0;
+    int pos = positionsStart(i);
+    while (pos < this.positionEnds[i]) {
+      int gap = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = this.positions[pos++];
+        gap |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      position += gap;
+      buffer[n++] = position;
+    }
+    return n;
+  }
+
+  /**
+   * Returns the start of the positions of the i-th posting in positions.
+   */
+  private int positionsStart(int i) {
+    return i > 0 ? this.positionEnds[i - 1] : 0;
+  }
+
+  /**
+   * Returns the index of the first posting at or after the given index with
+   * an id >= the given id (or the size of this list if there is none), by
+   * galloping and binary search.
+   *
+   * @param from
+   *        The index to start from.
+   * @param id
+   *        The id to search for.
+   */
+  public int advance(int from, int id) {
+    int step = 1;
+    int lo = from;
+    int hi = from;
+    while (hi < this.numPostings && this.ids[hi] < id) {
+      lo = hi + 1;
+      hi += step;
+      step *= 2;
+    }
+    hi = Math.min(hi, this.numPostings);
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (this.ids[mid] < id) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Returns the intersection of this list and the given list, by walking
+   * through both lists in parallel (zipper), in time O(n + m). The term
+   * frequencies of the common postings are summed up.
+   *
+   * @param other
+   *        The other list.
+   */
+  public PostingList intersect(PostingList other) {
+    PostingList result = new PostingList();
+    result.ensureCapacity(Math.min(this.numPostings, other.numPostings));
+    int i = 0;
+    int j = 0;
+    while (i < this.numPostings && j < other.numPostings) {
+      if (this.ids[i] < other.ids[j]) {
+        i++;
+      } else if (this.ids[i] > other.ids[j]) {
+        j++;
+      } else {
+        result.append(this.ids[i], this.tfs[i++] + other.tfs[j++]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the intersection of this list and the given list, by searching
+   * each id of this list in the other list with advance(), in time
+   * O(n log(m / n)). Faster than intersect() if this list is much shorter
+   * than the other list. The term frequencies of the common postings are
+   * summed up.
+   *
+   * @param other
+   *        The other list.
+   */
+  public PostingList intersectGalloping(PostingList other) {
+    PostingList result = new PostingList();
+    result.ensureCapacity(Math.min(this.numPostings, other.numPostings));
+    int j = 0;
+    for (int i = 0; i < this.numPostings && j < other.numPostings; i++) {
+      j = other.advance(j, this.ids[i]);
+      if (j < other.numPostings && other.ids[j] == this.ids[i]) {
+        result.append(this.ids[i], this.tfs[i] + other.tfs[j++]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the union of this list and the given list, in time O(n + m).
+   * The term frequencies of the common postings are summed up.
+   *
+   * @param other
+   *        The other list.
+   */
+  public PostingList union(PostingList other) {
+    PostingList result = new PostingList();
+    result.ensureCapacity(this.numPostings + other.numPostings);
+    int i = 0;
+    int j = 0;
+    while (i < this.numPostings || j < other.numPostings) {
+      if (j == other.numPostings
+          || (i < this.numPostings && this.ids[i] < other.ids[j])) {
+        result.append(this.ids[i], this.tfs[i++]);
+      } else if (i == this.numPostings || this.ids[i] > other.ids[j]) {
+        result.append(other.ids[j], other.tfs[j++]);
+      } else {
+        result.append(this.ids[i], this.tfs[i++] + other.tfs[j++]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the postings of this list whose ids are not in the given list,
+   * by searching each id of this list in the other list with advance(), in
+   * time O(n log(m / n + 1)).
+   *
+   * @param other
+   *        The other list.
+   */
+  public PostingList difference(PostingList other) {
+    PostingList result = new PostingList();
+    result.ensureCapacity(this.numPostings);
+    int j = 0;
+    for (int i = 0; i < this.numPostings; i++) {
+      j = other.advance(j, this.ids[i]);
+      if (j == other.numPostings || other.ids[j] != this.ids[i]) {
+        result.append(this.ids[i], this.tfs[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the postings of the given list whose word occurs at most
+   * maxDistance positions behind the word of this list in the same record
+   * (with maxDistance 1, the two words form a phrase). Both lists must have
+   * positions. The records are intersected first, by galloping over the
+   * ids of both lists (see advance()), and only the positions of the common
+   * records are decoded. The result has the matching positions of the other
+   * list (so it can be intersected with the next word of a phrase), and
+   * their number as term frequency.
+   *
+   * @param other
+   *        The list of the following word.
+   * @param maxDistance
+   *        The maximum distance of the positions (at least 1).
+   */
+  public PostingList intersectProximity(PostingList other, int maxDistance) {
+    PostingList result = new PostingList();
+    int[] positions1 = new int[0];
+    int[] positions2 = new int[0];
+    int i = 0;
+    int j = 0;
+    while (i < this.numPostings && j < other.numPostings) {
+      if (this.ids[i] < other.ids[j]) {
+        i = advance(i, other.ids[j]);
+      } else if (this.ids[i] > other.ids[j]) {
+        j = other.advance(j, this.ids[i]);
+      } else {
+        if (positions1.length < this.tfs[i]) {
+          positions1 = new int[2 * this.tfs[i]];
+        }
+        if (positions2.length < other.tfs[j]) {
+          positions2 = new int[2 * other.tfs[j]];
+        }
+        int n1 = getPositions(i, positions1);
+        int n2 = other.getPositions(j, positions2);
+        // For each position of the other word, the last position of this
+        // word before it.
+        int k1 = 0;
+        for (int k2 = 0; k2 < n2; k2++) {
+          while (k1 + 1 < n1 && positions1[k1 + 1] < positions2[k2]) {
+            k1++;
+          }
+          int distance = positions2[k2] - positions1[k1];
+          if (distance > 0 && distance <= maxDistance) {
+            result.addOccurrence(this.ids[i], positions2[k2]);
+          }
+        }
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Appends a posting with the given id and term frequency (the capacity
+   * must suffice).
+   */
+  private void append(int id, int tf) {
+    this.ids[this.numPostings] = id;
+    this.tfs[this.numPostings++] = tf;
+  }
+
+  /**
+   * Returns the number of postings in this list.
+   */
+  public int size() {
+    return this.numPostings;
+  }
+
+  /**
+   * Returns the number of postings this list has space for.
+   */
+  public int capacity() {
+    return this.ids.length;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < this.numPostings; i++) {
+      sb.append(i == 0 ? "" : ", ").append(this.ids[i]);
+    }
+    return sb.append("]").toString();
+  }
+}
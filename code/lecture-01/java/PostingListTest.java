@@ -0,0 +1,186 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the PostingList class.
+ */
+public class PostingListTest {
+  /**
+   * Tests for the methods addPosting() and trim().
+   */
+  @Test
+  public void testAddPostingAndTrim() {
+    PostingList list = new PostingList();
+    Assert.assertEquals("[]", list.toString());
+    for (int i = 0; i < 100; i++) {
+      list.addPosting(3 * i);
+    }
+    Assert.assertEquals(100, list.size());
+    Assert.assertEquals(297, list.getId(99));
+    Assert.assertEquals(128, list.capacity());
+    list.trim();
+    Assert.assertEquals(100, list.capacity());
+    Assert.assertEquals("[0, 3, 6]", new PostingList(0, 3, 6).toString());
+
+    // Lists can grow again after trim(), also empty ones.
+    list = new PostingList();
+    list.trim();
+    list.addPosting(5);
+    Assert.assertEquals("[5]", list.toString());
+  }
+
+  /**
+   * Tests for the method addPostings().
+   */
+  @Test
+  public void testAddPostings() {
+    PostingList list = new PostingList(1, 4);
+    list.addPostings(new PostingList(0, 2, 5), 10);
+    Assert.assertEquals("[1, 4, 10, 12, 15]", list.toString());
+    list.addPostings(new PostingList(), 20);
+    Assert.assertEquals(5, list.size());
+  }
+
+  /**
+   * Tests for the term frequencies of addPosting() and for setScores().
+   */
+  @Test
+  public void testTfsAndScores() {
+    PostingList list = new PostingList();
+    list.addPosting(1);
+    list.addPosting(1);
+    list.addPosting(4);
+    list.addPosting(1);
+    Assert.assertEquals("[1, 4, 1]", list.toString());
+    Assert.assertEquals(2, list.getTf(0));
+    Assert.assertEquals(1, list.getTf(1));
+    Assert.assertEquals(0, list.getScore(0), 0);
+
+    list.setScores(new float[] {0.5f, 2, 1}, 1.5f);
+    Assert.assertEquals(2, list.getScore(1), 0);
+    Assert.assertEquals(2, list.getMaxScore(), 0);
+    Assert.assertEquals(1.5, list.getIdf(), 0);
+
+    list = new PostingList();
+    list.addPosting(3, 0.5f);
+    list.addPosting(3, 0.7f);
+    Assert.assertEquals("[3, 3]", list.toString());
+    Assert.assertEquals(0.7, list.getScore(1), 1e-6);
+    Assert.assertEquals(0.7, list.getMaxScore(), 1e-6);
+  }
+
+  /**
+   * Tests for the method advance().
+   */
+  @Test
+  public void testAdvance() {
+    PostingList list = new PostingList(2, 4, 6, 8, 10, 12, 14, 16, 18, 20);
+    Assert.assertEquals(0, list.advance(0, 1));
+    Assert.assertEquals(0, list.advance(0, 2));
+    Assert.assertEquals(1, list.advance(0, 3));
+    Assert.assertEquals(3, list.advance(3, 2));
+    Assert.assertEquals(6, list.advance(1, 13));
+    Assert.assertEquals(9, list.advance(0, 20));
+    Assert.assertEquals(10, list.advance(2, 21));
+    Assert.assertEquals(0, new PostingList().advance(0, 5));
+  }
+
+  /**
+   * Tests for the methods intersect(), intersectGalloping(), union() and
+   * difference().
+   */
+  @Test
+  public void testIntersectUnionDifference() {
+    PostingList list1 = new PostingList(new int[] {1, 3, 5, 7, 9},
+        new int[] {1, 2, 1, 3, 1});
+    PostingList list2 = new PostingList(2, 3, 4, 9, 11);
+    PostingList empty = new PostingList();
+
+    Assert.assertEquals("[3, 9]", list1.intersect(list2).toString());
+    Assert.assertEquals("[3, 9]", list1.intersectGalloping(list2).toString());
+    Assert.assertEquals("[3, 9]", list2.intersectGalloping(list1).toString());
+    Assert.assertEquals(3, list1.intersect(list2).getTf(0));
+    Assert.assertEquals(3, list2.intersectGalloping(list1).getTf(0));
+    Assert.assertEquals("[]", list1.intersect(empty).toString());
+    Assert.assertEquals("[]", empty.intersectGalloping(list1).toString());
+
+    PostingList union = list1.union(list2);
+    Assert.assertEquals("[1, 2, 3, 4, 5, 7, 9, 11]", union.toString());
+    Assert.assertEquals(3, union.getTf(2));
+    Assert.assertEquals(3, union.getTf(5));
+    Assert.assertEquals("[2, 3, 4, 9, 11]", empty.union(list2).toString());
+
+    PostingList difference = list1.difference(list2);
+    Assert.assertEquals("[1, 5, 7]", difference.toString());
+    Assert.assertEquals(3, difference.getTf(2));
+    Assert.assertEquals("[2, 4, 11]", list2.difference(list1).toString());
+    Assert.assertEquals("[]", empty.difference(list1).toString());
+    Assert.assertEquals("[1, 3, 5, 7, 9]", list1.difference(empty).toString());
+  }
+
+  /**
+   * Tests for the methods addOccurrence(), getPositions() and for the
+   * positions in addPostings() and trim().
+   */
+  @Test
+  public void testPositions() {
+    PostingList list = new PostingList();
+    Assert.assertFalse(list.hasPositions());
+    list.addOccurrence(1, 0);
+    list.addOccurrence(1, 5);
+    list.addOccurrence(1, 300);
+    list.addOccurrence(4, 2);
+    Assert.assertTrue(list.hasPositions());
+    Assert.assertEquals("[1, 4]", list.toString());
+    Assert.assertEquals(3, list.getTf(0));
+    Assert.assertEquals("[0, 5, 300]", Arrays.toString(list.getPositions(0)));
+    Assert.assertEquals("[2]", Arrays.toString(list.getPositions(1)));
+
+    PostingList other = new PostingList();
+    other.addOccurrence(0, 7);
+    other.addOccurrence(2, 1);
+    other.addOccurrence(2, 3);
+    list.addPostings(other, 10);
+    list.trim();
+    Assert.assertEquals("[1, 4, 10, 12]", list.toString());
+    Assert.assertEquals("[0, 5, 300]", Arrays.toString(list.getPositions(0)));
+    Assert.assertEquals("[7]", Arrays.toString(list.getPositions(2)));
+    Assert.assertEquals("[1, 3]", Arrays.toString(list.getPositions(3)));
+    Assert.assertEquals(0, new PostingList(1, 2).getPositions(1).length);
+  }
+
+  /**
+   * Tests for the method intersectProximity().
+   */
+  @Test
+  public void testIntersectProximity() {
+    // "a" at positions 0 and 4 in record 1, at 2 in 3, at 0 in 5.
+    PostingList a = new PostingList();
+    a.addOccurrence(1, 0);
+    a.addOccurrence(1, 4);
+    a.addOccurrence(3, 2);
+    a.addOccurrence(5, 0);
+    // "b" at 1 and 5 in record 1, at 1 in 3, at 3 in 5, and at 0 in 6.
+    PostingList b = new PostingList();
+    b.addOccurrence(1, 1);
+    b.addOccurrence(1, 5);
+    b.addOccurrence(3, 1);
+    b.addOccurrence(5, 3);
+    b.addOccurrence(6, 0);
+
+    PostingList phrase = a.intersectProximity(b, 1);
+    Assert.assertEquals("[1]", phrase.toString());
+    Assert.assertEquals(2, phrase.getTf(0));
+    Assert.assertEquals("[1, 5]", Arrays.toString(phrase.getPositions(0)));
+    Assert.assertEquals("[1, 5]", a.intersectProximity(b, 3).toString());
+    Assert.assertEquals("[3]", b.intersectProximity(a, 1).toString());
+    Assert.assertEquals("[1, 3]", b.intersectProximity(a, 3).toString());
+    Assert.assertEquals("[]", a.intersectProximity(new PostingList(), 1)
+        .toString());
+  }
+}
@@ -0,0 +1,481 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * <p>
+ * Builds the segment file of an inverted index (see
+ * InvertedIndex.writeToSegmentFile()) from a file that may be larger than the
+ * heap, by single-pass in-memory indexing (SPIMI, by Heinz and Zobel). The
+ * file is read block by block into a chunk (see InvertedIndex.Chunk). When
+ * the chunk uses more than the memory budget, its lists are written to a
+ * temporary run file, sorted by word, and a new chunk is started. Finally,
+ * the runs are merged word by word (a k-way merge with a heap of the runs by
+ * their current word), and the lists are streamed to the segment file. All
+ * files are read and written sequentially.
+ * </p>
+ *
+ * <p>
+ * The heap memory is bounded by the memory budget, plus a buffer of 64 KB
+ * per run in the merge, plus the dictionary of the segment (front-coded, see
+ * TermDictionary). The lengths of the records, which the merge needs for the
+ * maximum scores of the lists, are written to the segment file first and
+ * memory-mapped from there. The segment file is the same as if the whole
+ * file was read by InvertedIndex.readFromFile() and written by
+ * InvertedIndex.writeToSegmentFile().
+ * </p>
+ */
+public class SpimiIndexBuilder {
+  /**
+   * The maximum number of bytes of the file that are read at once.
+   */
+  public static final int MAX_BLOCK_SIZE = 1 << 20;
+
+  /**
+   * The size of the buffer of each run file.
+   */
+  public static final int RUN_BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The memory budget of a chunk, in bytes (see Chunk.sizeInBytes()).
+   */
+  protected long memoryBudget;
+
+  /**
+   * The directory of the run files.
+   */
+  protected Path directory;
+
+  /**
+   * The run files written by the last call of build().
+   */
+  protected List<Path> runFiles = new ArrayList<>();
+
+  /**
+   * Creates a builder with the given memory budget that writes its run files
+   * to the temporary directory of the system.
+   *
+   * @param memoryBudget
+   *        The memory budget of the in-memory partial index, in bytes.
+   */
+  public SpimiIndexBuilder(long memoryBudget) {
+    this(memoryBudget, System.getProperty("java.io.tmpdir"));
+  }
+
+  /**
+   * Creates a builder with the given memory budget that writes its run files
+   * to the given directory.
+   *
+   * @param memoryBudget
+   *        The memory budget of the in-memory partial index, in bytes.
+   * @param directory
+   *        The directory of the run files.
+   */
+  public SpimiIndexBuilder(long memoryBudget, String directory) {
+    this.memoryBudget = memoryBudget;
+    this.directory = Paths.get(directory);
+  }
+
+  // ==========================================================================
+
+  /**
+   * Builds the segment file of the inverted index of the given file (one
+   * record per line). The run files are deleted afterwards.
+   *
+   * @param file
+   *        The path of the file to process.
+   * @param segmentFile
+   *        The path of the segment file to write.
+   */
+  public void build(String file, String segmentFile) throws IOException {
+    this.runFiles.clear();
+    try {
+      writeRuns(file);
+      mergeRuns(segmentFile);
+    } finally {
+      for (Path runFile : this.runFiles) {
+        Files.deleteIfExists(runFile);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of run files written by the last call of build().
+   */
+  public int getNumRuns() {
+    return this.runFiles.size();
+  }
+
+  /**
+   * Reads the given file block by block (at line boundaries) into chunks,
+   * and writes each chunk to a run file when it exceeds the memory budget
+   * (and the last chunk at the end of the file).
+   *
+   * @param file
+   *        The path of the file to process.
+   */
+  protected void writeRuns(String file) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(file),
+        StandardOpenOption.READ)) {
+      long size = channel.size();
+      int blockSize = (int) Math.max(1, Math.min(MAX_BLOCK_SIZE,
+          this.memoryBudget / 4));
+      byte[] bytes = new byte[blockSize];
+      InvertedIndex.Chunk chunk = new InvertedIndex.Chunk(null, 0, 0);
+      long start = 0;
+      while (start < size) {
+        long end = InvertedIndex.nextLineStart(channel, Math.min(size,
+            start + blockSize));
+        if (end - start > bytes.length) {
+          // A line longer than a block.
+          bytes = new byte[(int) (end - start)];
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, (int) (end - start));
+        while (buffer.hasRemaining()
+            && channel.read(buffer, start + buffer.position()) >= 0) {
+          continue;
+        }
+        chunk.addRecords(new ByteTokenizer(bytes, 0, buffer.position()));
+        start = end;
+
+        if (chunk.sizeInBytes() > this.memoryBudget) {
+          writeRun(chunk);
+          chunk = new InvertedIndex.Chunk(null, 0, 0);
+        }
+      }
+      if (chunk.numRecords > 0 || this.runFiles.isEmpty()) {
+        writeRun(chunk);
+      }
+    }
+  }
+
+  /**
+   * Writes the given chunk to a new run file: int numDocs, the lengths of
+   * the records (int[numDocs]), int numWords, and per word (sorted by its
+   * bytes): the length and the bytes of the word, the size of the list, and
+   * the gaps between the ids (from 0) and the term frequencies, alternating.
+   * All lengths, sizes, gaps and frequencies are variable-length ints.
+   *
+   * @param chunk
+   *        The chunk to write.
+   */
+  protected void writeRun(InvertedIndex.Chunk chunk) throws IOException {
+    Path runFile = Files.createTempFile(this.directory, "spimi-", ".run");
+    this.runFiles.add(runFile);
+
+    // The words are ASCII, so their order is the order of their bytes.
+    String[] words = chunk.lists.keySet().toArray(new String[0]);
+    Arrays.sort(words);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        Files.newOutputStream(runFile), RUN_BUFFER_SIZE))) {
+      out.writeInt(chunk.numRecords);
+      for (int i = 0; i < chunk.numRecords; i++) {
+        out.writeInt(chunk.docLengths[i]);
+      }
+      out.writeInt(words.length);
+      for (String word : words) {
+        byte[] bytes = word.getBytes(StandardCharsets.US_ASCII);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+        PostingList list = chunk.lists.get(word);
+        writeVarInt(out, list.size());
+        int prevId = 0;
+        for (int i = 0; i < list.size(); i++) {
+          writeVarInt(out, list.getId(i) - prevId);
+          writeVarInt(out, list.getTf(i));
+          prevId = list.getId(i);
+        }
+      }
+    }
+  }
+
+  /**
+   * Merges the run files into the given segment file. First, the lengths of
+   * the records are copied from the runs to the file. Then the runs are
+   * merged word by word: the lists of a word are appended in the order of
+   * the runs (with the ids shifted by the number of records in the runs
+   * before), and the postings and the entries are written to temporary
+   * files, which are appended to the file after the dictionary.
+   *
+   * @param segmentFile
+   *        The path of the segment file to write.
+   */
+  protected void mergeRuns(String segmentFile) throws IOException {
+    Path postingsFile = Files.createTempFile(this.directory, "spimi-",
+        ".postings");
+    Path entriesFile = Files.createTempFile(this.directory, "spimi-",
+        ".entries");
+    List<Run> runs = new ArrayList<>();
+    try (FileChannel channel = FileChannel.open(Paths.get(segmentFile),
+        StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        FileChannel postings = FileChannel.open(postingsFile,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel entries = FileChannel.open(entriesFile,
+            StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // The lengths of the records.
+      ByteBuffer buffer = ByteBuffer.allocate(RUN_BUFFER_SIZE)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      channel.position(InvertedIndex.SEGMENT_HEADER_SIZE);
+      int numDocs = 0;
+      long totalLength = 0;
+      for (Path runFile : this.runFiles) {
+        Run run = new Run(runFile, numDocs);
+        runs.add(run);
+        int numRecords = run.in.readInt();
+        for (int i = 0; i < numRecords; i++) {
+          int length = run.in.readInt();
+          buffer = InvertedIndex.flushIfFull(channel, buffer, 4)
+              .putInt(length);
+          totalLength += length;
+        }
+        numDocs += numRecords;
+        run.numWords = run.in.readInt();
+      }
+      InvertedIndex.flushIfFull(channel, buffer, buffer.capacity());
+      double avdl = Math.max(1, (double) totalLength / Math.max(1, numDocs));
+      IntBuffer docLengths = channel.map(FileChannel.MapMode.READ_ONLY,
+          InvertedIndex.SEGMENT_HEADER_SIZE, 4L * numDocs)
+          .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+      // The lists, by a k-way merge of the runs.
+      PriorityQueue<Run> queue = new PriorityQueue<>();
+      for (Run run : runs) {
+        if (run.nextWord()) {
+          queue.add(run);
+        }
+      }
+      TermDictionary.Builder dictionary = new TermDictionary.Builder();
+      ByteBuffer postingsBuffer = ByteBuffer.allocate(RUN_BUFFER_SIZE)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      ByteBuffer entriesBuffer = ByteBuffer.allocate(RUN_BUFFER_SIZE)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      List<Run> group = new ArrayList<>();
+      long postingsOffset = 0;
+      int numWords = 0;
+      while (!queue.isEmpty()) {
+        // The runs with the smallest word, in the order of the runs.
+        group.clear();
+        group.add(queue.poll());
+        while (!queue.isEmpty() && queue.peek().compareTo(group.get(0)) == 0) {
+          group.add(queue.poll());
+        }
+        group.sort((r1, r2) -> Integer.compare(r1.baseId, r2.baseId));
+        Run first = group.get(0);
+        dictionary.add(first.word, first.wordLength);
+
+        int df = 0;
+        for (Run run : group) {
+          df += run.listSize;
+        }
+        float idf = InvertedIndex.idf(numDocs, df);
+        float maxScore = 0;
+        long numBytes = 0;
+        int prevId = 0;
+        for (Run run : group) {
+          int id = run.baseId;
+          for (int i = 0; i < run.listSize; i++) {
+            id += readVarInt(run.in);
+            int tf = readVarInt(run.in);
+            postingsBuffer = InvertedIndex.flushIfFull(postings,
+                postingsBuffer, 10);
+            numBytes += InvertedIndex.putVarInt(postingsBuffer, id - prevId);
+            numBytes += InvertedIndex.putVarInt(postingsBuffer, tf);
+            prevId = id;
+            float score = InvertedIndex.score(tf, InvertedIndex.lengthNorm(
+                docLengths.get(id), avdl), idf);
+            maxScore = Math.max(maxScore, score);
+          }
+        }
+        entriesBuffer = InvertedIndex.flushIfFull(entries, entriesBuffer,
+            InvertedIndex.SEGMENT_ENTRY_SIZE);
+        entriesBuffer.putLong(postingsOffset).putInt(df).putFloat(idf)
+            .putFloat(maxScore);
+        postingsOffset += numBytes;
+        numWords++;
+
+        for (Run run : group) {
+          if (run.nextWord()) {
+            queue.add(run);
+          }
+        }
+      }
+      entriesBuffer = InvertedIndex.flushIfFull(entries, entriesBuffer,
+          InvertedIndex.SEGMENT_ENTRY_SIZE);
+      entriesBuffer.putLong(postingsOffset).putInt(0).putFloat(0)
+          .putFloat(0);
+      InvertedIndex.flushIfFull(postings, postingsBuffer,
+          postingsBuffer.capacity());
+      InvertedIndex.flushIfFull(entries, entriesBuffer,
+          entriesBuffer.capacity());
+
+      // The dictionary, then the postings and the entries.
+      long termsOffset = InvertedIndex.SEGMENT_HEADER_SIZE + 4L * numDocs;
+      TermDictionary terms = dictionary.build();
+      buffer = InvertedIndex.flushIfFull(channel, buffer,
+          terms.sizeInBytes());
+      terms.writeTo(buffer);
+      InvertedIndex.flushIfFull(channel, buffer, buffer.capacity());
+      long postingsStart = termsOffset + terms.sizeInBytes();
+      long entriesStart = postingsStart + postingsOffset;
+      transfer(postings, channel, postingsStart);
+      transfer(entries, channel, entriesStart);
+
+      buffer.clear();
+      buffer.putInt(InvertedIndex.SEGMENT_MAGIC).putInt(numDocs)
+          .putInt(numWords).putInt(0).putDouble(avdl).putLong(termsOffset)
+          .putLong(postingsStart).putLong(entriesStart).flip();
+      channel.write(buffer, 0);
+    } finally {
+      for (Run run : runs) {
+        run.close();
+      }
+      Files.deleteIfExists(postingsFile);
+      Files.deleteIfExists(entriesFile);
+    }
+  }
+
+  /**
+   * Appends the given source file to the given target file at the given
+   * position.
+   */
+  private static void transfer(FileChannel source, FileChannel target,
+      long position) throws IOException {
+    long size = source.size();
+    long done = 0;
+    while (done < size) {
+      done += source.transferTo(done, size - done, target.position(position
+          + done));
+    }
+  }
+
+  /**
+   * Writes the given non-negative int as variable-length int (7 bits per
+   * byte) to the given stream.
+   */
+  private static void writeVarInt(DataOutputStream out, int value)
+      throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  /**
+   * Reads a variable-length int from the given stream.
+   */
+  private static int readVarInt(DataInputStream in) throws IOException {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return value;
+  }
+
+  // ==========================================================================
+
+  /**
+   * A run file in the merge, positioned at the list of its current word.
+   * Runs are ordered by their current word.
+   */
+  protected static class Run implements Comparable<Run>, Closeable {
+    /**
+     * The stream of the run file.
+     */
+    protected DataInputStream in;
+
+    /**
+     * The id of the first record of the run.
+     */
+    protected int baseId;
+
+    /**
+     * The number of words not read yet.
+     */
+    protected int numWords;
+
+    /**
+     * The bytes of the current word.
+     */
+    protected byte[] word = new byte[32];
+
+    /**
+     * The length of the current word.
+     */
+    protected int wordLength;
+
+    /**
+     * The size of the list of the current word.
+     */
+    protected int listSize;
+
+    /**
+     * Opens the given run file.
+     *
+     * @param file
+     *        The path of the run file.
+     * @param baseId
+     *        The id of the first record of the run.
+     */
+    public Run(Path file, int baseId) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(
+          Files.newInputStream(file), RUN_BUFFER_SIZE));
+      this.baseId = baseId;
+    }
+
+    /**
+     * Reads the next word and the size of its list (the list of the
+     * current word must have been read).
+     *
+     * @return False if there are no more words.
+     */
+    public boolean nextWord() throws IOException {
+      if (this.numWords == 0) {
+        return false;
+      }
+      this.numWords--;
+      this.wordLength = readVarInt(this.in);
+      if (this.wordLength > this.word.length) {
+        this.word = new byte[2 * this.wordLength];
+      }
+      this.in.readFully(this.word, 0, this.wordLength);
+      this.listSize = readVarInt(this.in);
+      return true;
+    }
+
+    @Override
+    public int compareTo(Run other) {
+      return Arrays.compareUnsigned(this.word, 0, this.wordLength,
+          other.word, 0, other.wordLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.in.close();
+    }
+  }
+}
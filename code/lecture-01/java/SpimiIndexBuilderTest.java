@@ -0,0 +1,74 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the SpimiIndexBuilder class.
+ */
+public class SpimiIndexBuilderTest {
+  /**
+   * Tests for the method build() (and writeRuns() and mergeRuns()).
+   */
+  @Test
+  public void testBuild() throws IOException {
+    Random random = new Random(11);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      int length = random.nextInt(12);
+      for (int j = 0; j < length; j++) {
+        // Words of different lengths, some in only a few runs.
+        int numLetters = 1 + random.nextInt(3);
+        for (int k = 0; k < numLetters; k++) {
+          text.append((char) ('A' + random.nextInt(20)));
+        }
+        text.append(' ');
+      }
+      text.append(i % 7 == 0 ? "\r\n" : "\n");
+    }
+    Path dir = Files.createTempDirectory("SpimiIndexBuilderTest");
+    Path file = dir.resolve("records.txt");
+    Path expectedFile = dir.resolve("expected.seg");
+    Path actualFile = dir.resolve("actual.seg");
+    try {
+      Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+      InvertedIndex ii = new InvertedIndex();
+      ii.readFromFile(file.toString());
+      ii.writeToSegmentFile(expectedFile.toString());
+
+      // A small budget, so there are many runs, and a budget for all.
+      for (long budget : new long[] {20000, 1L << 30}) {
+        SpimiIndexBuilder builder = new SpimiIndexBuilder(budget,
+            dir.toString());
+        builder.build(file.toString(), actualFile.toString());
+        Assert.assertEquals(budget < 1L << 30, builder.getNumRuns() > 1);
+        Assert.assertArrayEquals(Files.readAllBytes(expectedFile),
+            Files.readAllBytes(actualFile));
+
+        MappedInvertedIndex mii = new MappedInvertedIndex(
+            actualFile.toString());
+        Assert.assertEquals(3000, mii.getNumDocs());
+        Assert.assertEquals(ii.query("a bc def", 5).toString(),
+            mii.query("a bc def", 5).toString());
+      }
+      // The run files and the temporary files are deleted.
+      try (Stream<Path> files = Files.list(dir)) {
+        Assert.assertEquals(3, files.count());
+      }
+    } finally {
+      try (Stream<Path> files = Files.walk(dir)) {
+        files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile()
+            .delete());
+      }
+    }
+  }
+}
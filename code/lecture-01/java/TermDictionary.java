@@ -0,0 +1,481 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * A frozen, sorted set of terms that maps each term to its ordinal (its
+ * position in the order of the UTF-8 bytes of the terms). The terms are
+ * front-coded in blocks of BLOCK_SIZE terms: the first term of a block is
+ * stored in full, each other term as the length of the prefix it shares with
+ * the term before and the rest of its bytes. A term needs the bytes that
+ * differ from the term before plus about 2 bytes (instead of about 100 bytes
+ * for a String key in a HashMap).
+ * </p>
+ *
+ * <p>
+ * A term is looked up by a binary search on the first terms of the blocks
+ * (via the block offsets) and a scan of its block. The terms with a given
+ * prefix are a range of ordinals, which is iterated by decoding the blocks in
+ * order. The terms and the block offsets are held in buffers, so a
+ * dictionary can be mapped from a file (see MappedInvertedIndex).
+ * </p>
+ */
+public class TermDictionary extends AbstractSet<String> {
+  /**
+   * The number of terms in a block.
+   */
+  public static final int BLOCK_SIZE = 16;
+
+  /**
+   * The front-coded blocks of terms. All lengths are variable-length ints
+   * (7 bits per byte, the highest bit set in all but the last byte).
+   */
+  protected ByteBuffer blocks;
+
+  /**
+   * The offsets of the blocks in blocks.
+   */
+  protected IntBuffer blockOffsets;
+
+  /**
+   * The number of terms.
+   */
+  protected int numTerms;
+
+  /**
+   * Creates a dictionary of the given terms.
+   *
+   * @param terms
+   *        The terms (in any order, without duplicates).
+   */
+  public TermDictionary(Collection<String> terms) {
+    byte[][] sorted = new byte[terms.size()][];
+    int n = 0;
+    for (String term : terms) {
+      sorted[n++] = term.getBytes(StandardCharsets.UTF_8);
+    }
+    Arrays.sort(sorted, Arrays::compareUnsigned);
+
+    Builder builder = new Builder();
+    for (byte[] term : sorted) {
+      builder.add(term, term.length);
+    }
+    this.blocks = builder.blocks();
+    this.blockOffsets = builder.blockOffsets();
+    this.numTerms = n;
+  }
+
+  /**
+   * Creates a dictionary of the given blocks (for example mapped from a file
+   * written with writeTo()).
+   *
+   * @param blocks
+   *        The front-coded blocks of terms.
+   * @param blockOffsets
+   *        The offsets of the blocks.
+   * @param numTerms
+   *        The number of terms.
+   */
+  public TermDictionary(ByteBuffer blocks, IntBuffer blockOffsets,
+      int numTerms) {
+    this.blocks = blocks;
+    this.blockOffsets = blockOffsets;
+    this.numTerms = numTerms;
+  }
+
+  /**
+   * Returns the number of blocks of a dictionary with the given number of
+   * terms.
+   *
+   * @param numTerms
+   *        The number of terms.
+   */
+  public static int numBlocks(int numTerms) {
+    return (numTerms + BLOCK_SIZE - 1) / BLOCK_SIZE;
+  }
+
+  // ==========================================================================
+
+  /**
+   * Returns the ordinal of the given term, or -1 if the term is not in this
+   * dictionary.
+   *
+   * @param term
+   *        The term.
+   */
+  public int ordinal(String term) {
+    byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+    Cursor cursor = seek(bytes);
+    return cursor != null && cursor.ordinal < this.numTerms
+        && cursor.compareTo(bytes) == 0 ? cursor.ordinal : -1;
+  }
+
+  /**
+   * Returns the term with the given ordinal.
+   *
+   * @param ordinal
+   *        The ordinal, between 0 and size() - 1.
+   */
+  public String term(int ordinal) {
+    if (ordinal < 0 || ordinal >= this.numTerms) {
+      throw new IndexOutOfBoundsException("Ordinal: " + ordinal);
+    }
+    return cursorAt(ordinal).term();
+  }
+
+  /**
+   * Returns the terms that start with the given prefix, in order.
+   *
+   * @param prefix
+   *        The prefix.
+   */
+  public Iterable<String> withPrefix(String prefix) {
+    byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+    return () -> new Iterator<String>() {
+      Cursor cursor = seek(bytes);
+
+      @Override
+      public boolean hasNext() {
+        return cursor != null && cursor.ordinal < numTerms
+            && cursor.startsWith(bytes);
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        String term = cursor.term();
+        cursor.next();
+        return term;
+      }
+    };
+  }
+
+  /**
+   * Writes the block offsets (as little-endian ints) and the blocks of this
+   * dictionary to the given buffer.
+   *
+   * @param buffer
+   *        The buffer, with at least sizeInBytes() bytes remaining.
+   */
+  public void writeTo(ByteBuffer buffer) {
+    ByteOrder order = buffer.order();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < this.blockOffsets.limit(); i++) {
+      buffer.putInt(this.blockOffsets.get(i));
+    }
+    buffer.put(this.blocks.duplicate().clear());
+    buffer.order(order);
+  }
+
+  /**
+   * Returns the number of bytes of the block offsets and the blocks.
+   */
+  public int sizeInBytes() {
+    return 4 * this.blockOffsets.limit() + this.blocks.limit();
+  }
+
+  @Override
+  public int size() {
+    return this.numTerms;
+  }
+
+  @Override
+  public boolean contains(Object term) {
+    return term instanceof String && ordinal((String) term) >= 0;
+  }
+
+  /**
+   * Returns the terms in order.
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return withPrefix("").iterator();
+  }
+
+  // ==========================================================================
+
+  /**
+   * Returns a cursor on the first term >= the given term (with ordinal
+   * size() if there is none), or null if this dictionary is empty.
+   */
+  private Cursor seek(byte[] term) {
+    if (this.numTerms == 0) {
+      return null;
+    }
+    // The last block whose first term is < the given term.
+    int lo = 0;
+    int hi = numBlocks(this.numTerms) - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (compareFirstTerm(mid, term) < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    if (hi < 0) {
+      return new Cursor(0);
+    }
+    Cursor cursor = new Cursor(hi * BLOCK_SIZE);
+    int end = Math.min(this.numTerms, (hi + 1) * BLOCK_SIZE);
+    do {
+      cursor.next();
+    } while (cursor.ordinal < end && cursor.compareTo(term) < 0);
+    return cursor;
+  }
+
+  /**
+   * Compares the first term of the given block with the given term, like
+   * Arrays.compareUnsigned() (without decoding the block).
+   */
+  private int compareFirstTerm(int block, byte[] term) {
+    int position = this.blockOffsets.get(block);
+    int length = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = this.blocks.get(position++);
+      length |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    for (int i = 0; i < Math.min(length, term.length); i++) {
+      int cmp = Byte.compareUnsigned(this.blocks.get(position + i), term[i]);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return length - term.length;
+  }
+
+  /**
+   * Returns a cursor on the term with the given ordinal.
+   */
+  private Cursor cursorAt(int ordinal) {
+    Cursor cursor = new Cursor(ordinal / BLOCK_SIZE * BLOCK_SIZE);
+    while (cursor.ordinal < ordinal) {
+      cursor.next();
+    }
+    return cursor;
+  }
+
+  /**
+   * Writes the given non-negative int as variable-length int to the given
+   * buffer.
+   */
+  private static void putVarInt(ByteBuffer buffer, int value) {
+    while ((value & ~0x7F) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  // ==========================================================================
+
+  /**
+   * Front-codes terms that are added in sorted order, one by one (so they
+   * don't need to be in memory as strings at the same time).
+   */
+  public static class Builder {
+    /**
+     * The front-coded blocks so far.
+     */
+    protected ByteBuffer blocks = ByteBuffer.allocate(64);
+
+    /**
+     * The offsets of the blocks so far.
+     */
+    protected int[] blockOffsets = new int[4];
+
+    /**
+     * The last term added.
+     */
+    protected byte[] last = new byte[32];
+
+    /**
+     * The length of the last term added.
+     */
+    protected int lastLength;
+
+    /**
+     * The number of terms added.
+     */
+    protected int numTerms;
+
+    /**
+     * Adds the given term, which must be greater than the term added before
+     * (by its UTF-8 bytes).
+     *
+     * @param term
+     *        The bytes of the term (UTF-8).
+     * @param length
+     *        The length of the term.
+     */
+    public void add(byte[] term, int length) {
+      int prefix = 0;
+      if (this.numTerms % BLOCK_SIZE == 0) {
+        int block = this.numTerms / BLOCK_SIZE;
+        if (block == this.blockOffsets.length) {
+          this.blockOffsets = Arrays.copyOf(this.blockOffsets, 2 * block);
+        }
+        this.blockOffsets[block] = this.blocks.position();
+      } else {
+        int max = Math.min(this.lastLength, length);
+        while (prefix < max && this.last[prefix] == term[prefix]) {
+          prefix++;
+        }
+      }
+      int suffix = length - prefix;
+      if (this.blocks.remaining() < 10 + suffix) {
+        this.blocks = ByteBuffer.allocate(2 * this.blocks.capacity() + suffix)
+            .put(this.blocks.flip());
+      }
+      if (this.numTerms % BLOCK_SIZE != 0) {
+        putVarInt(this.blocks, prefix);
+      }
+      putVarInt(this.blocks, suffix);
+      this.blocks.put(term, prefix, suffix);
+
+      if (length > this.last.length) {
+        this.last = new byte[2 * length];
+      }
+      System.arraycopy(term, 0, this.last, 0, length);
+      this.lastLength = length;
+      this.numTerms++;
+    }
+
+    /**
+     * Returns the dictionary of the terms added.
+     */
+    public TermDictionary build() {
+      return new TermDictionary(blocks(), blockOffsets(), this.numTerms);
+    }
+
+    /**
+     * Returns the blocks so far (trimmed).
+     */
+    private ByteBuffer blocks() {
+      return ByteBuffer.wrap(Arrays.copyOf(this.blocks.array(),
+          this.blocks.position()));
+    }
+
+    /**
+     * Returns the block offsets so far (trimmed).
+     */
+    private IntBuffer blockOffsets() {
+      return IntBuffer.wrap(Arrays.copyOf(this.blockOffsets,
+          numBlocks(this.numTerms)));
+    }
+  }
+
+  /**
+   * Decodes the terms of a block one after another, into a reused array.
+   */
+  protected class Cursor {
+    /**
+     * The ordinal of the current term.
+     */
+    protected int ordinal;
+
+    /**
+     * The bytes of the current term.
+     */
+    protected byte[] term = new byte[32];
+
+    /**
+     * The length of the current term.
+     */
+    protected int length;
+
+    /**
+     * The position of the next term in blocks.
+     */
+    protected int position;
+
+    /**
+     * Creates a cursor on the first term of the block of the given ordinal.
+     *
+     * @param ordinal
+     *        The ordinal of a first term of a block.
+     */
+    public Cursor(int ordinal) {
+      this.ordinal = ordinal - 1;
+      this.position = blockOffsets.get(ordinal / BLOCK_SIZE);
+      next();
+    }
+
+    /**
+     * Moves to the next term (which can be in the next block).
+     */
+    public void next() {
+      this.ordinal++;
+      if (this.ordinal >= numTerms) {
+        return;
+      }
+      int prefix = 0;
+      if (this.ordinal % BLOCK_SIZE == 0) {
+        this.position = blockOffsets.get(this.ordinal / BLOCK_SIZE);
+      } else {
+        prefix = getVarInt();
+      }
+      int suffix = getVarInt();
+      if (prefix + suffix > this.term.length) {
+        this.term = Arrays.copyOf(this.term, 2 * (prefix + suffix));
+      }
+      blocks.get(this.position, this.term, prefix, suffix);
+      this.position += suffix;
+      this.length = prefix + suffix;
+    }
+
+    /**
+     * Returns the current term.
+     */
+    public String term() {
+      return new String(this.term, 0, this.length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares the current term with the given term, like
+     * Arrays.compareUnsigned().
+     */
+    public int compareTo(byte[] other) {
+      return Arrays.compareUnsigned(this.term, 0, this.length, other, 0,
+          other.length);
+    }
+
+    /**
+     * Returns true if the current term starts with the given prefix.
+     */
+    public boolean startsWith(byte[] prefix) {
+      return this.length >= prefix.length && Arrays.equals(this.term, 0,
+          prefix.length, prefix, 0, prefix.length);
+    }
+
+    /**
+     * Reads a variable-length int at the current position.
+     */
+    private int getVarInt() {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = blocks.get(this.position++);
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      return value;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2017 University of Freiburg
+// Claudius Korzen <korzen@cs.uni-freiburg.de>
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * One unit test for each non-trivial method in the TermDictionary class.
+ */
+public class TermDictionaryTest {
+  /**
+   * Tests for the methods ordinal(), term() and contains().
+   */
+  @Test
+  public void testOrdinalAndTerm() {
+    List<String> terms = randomTerms(1000);
+    TermDictionary dictionary = new TermDictionary(terms);
+    Collections.sort(terms);
+    Assert.assertEquals(terms.size(), dictionary.size());
+    Assert.assertEquals(terms, new ArrayList<>(dictionary));
+    for (int i = 0; i < terms.size(); i++) {
+      Assert.assertEquals(i, dictionary.ordinal(terms.get(i)));
+      Assert.assertEquals(terms.get(i), dictionary.term(i));
+      Assert.assertEquals(-1, dictionary.ordinal(terms.get(i) + "!"));
+    }
+    Assert.assertEquals(-1, dictionary.ordinal(""));
+    Assert.assertEquals(-1, dictionary.ordinal("zzzzzzzzzzzz"));
+    Assert.assertTrue(dictionary.contains(terms.get(17)));
+    Assert.assertFalse(dictionary.contains("!"));
+
+    // Multi-byte characters are ordered by their UTF-8 bytes.
+    dictionary = new TermDictionary(Arrays.asList("\u00e9t\u00e9", "zoo",
+        "\ud83d\ude00", "\ufb01"));
+    Assert.assertEquals("[zoo, \u00e9t\u00e9, \ufb01, \ud83d\ude00]",
+        dictionary.toString());
+    Assert.assertEquals(3, dictionary.ordinal("\ud83d\ude00"));
+
+    dictionary = new TermDictionary(Collections.emptyList());
+    Assert.assertEquals(-1, dictionary.ordinal("a"));
+    Assert.assertEquals("[]", dictionary.toString());
+  }
+
+  /**
+   * Tests for the method withPrefix().
+   */
+  @Test
+  public void testWithPrefix() {
+    List<String> terms = randomTerms(2000);
+    TermDictionary dictionary = new TermDictionary(terms);
+    TreeSet<String> sorted = new TreeSet<>(terms);
+    for (String prefix : new String[] {"", "a", "ab", "abc", "c", "cc", "d",
+        "ba", "bcab"}) {
+      List<String> expected = new ArrayList<>();
+      for (String term : sorted) {
+        if (term.startsWith(prefix)) {
+          expected.add(term);
+        }
+      }
+      List<String> actual = new ArrayList<>();
+      dictionary.withPrefix(prefix).forEach(actual::add);
+      Assert.assertEquals(prefix, expected, actual);
+    }
+  }
+
+  /**
+   * Tests for the method writeTo() (and the constructor of mapped blocks).
+   */
+  @Test
+  public void testWriteTo() {
+    List<String> terms = randomTerms(100);
+    TermDictionary dictionary = new TermDictionary(terms);
+    ByteBuffer buffer = ByteBuffer.allocate(dictionary.sizeInBytes());
+    dictionary.writeTo(buffer);
+    Assert.assertFalse(buffer.hasRemaining());
+
+    int numBlocks = TermDictionary.numBlocks(terms.size());
+    TermDictionary read = new TermDictionary(buffer.slice(4 * numBlocks,
+        buffer.limit() - 4 * numBlocks), buffer.slice(0, 4 * numBlocks)
+        .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(), terms.size());
+    Assert.assertEquals(new ArrayList<>(dictionary), new ArrayList<>(read));
+    Assert.assertEquals(42, read.ordinal(dictionary.term(42)));
+  }
+
+  /**
+   * Returns the given number of distinct random terms of the letters a, b
+   * and c (with many common prefixes).
+   */
+  private static List<String> randomTerms(int n) {
+    Random random = new Random(n);
+    TreeSet<String> terms = new TreeSet<>();
+    while (terms.size() < n) {
+      StringBuilder term = new StringBuilder();
+      int length = 1 + random.nextInt(12);
+      for (int i = 0; i < length; i++) {
+        term.append((char) ('a' + random.nextInt(3)));
+      }
+      terms.add(term.toString());
+    }
+    List<String> list = new ArrayList<>(terms);
+    Collections.shuffle(list, random);
+    return list;
+  }
+}